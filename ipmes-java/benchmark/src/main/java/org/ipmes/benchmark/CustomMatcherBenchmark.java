@@ -0,0 +1,104 @@
+package org.ipmes.benchmark;
+
+import org.ipmes.EventEdge;
+import org.ipmes.decomposition.TCQGenerator;
+import org.ipmes.decomposition.TCQuery;
+import org.ipmes.decomposition.matcher.CustomMatcher;
+import org.ipmes.event.SignatureDict;
+import org.ipmes.join.Join;
+import org.ipmes.match.MatchResult;
+import org.ipmes.pattern.Pattern;
+import org.ipmes.sink.MatchSink;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The composition layer alone: {@link CustomMatcher#sendAll} of one event, with the partial
+ * matches dropped by the join layer. The events in a window share a pool of
+ * windowSize / eventsPerNode nodes, so the buffers hold more results with a larger window and
+ * more events per node.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CustomMatcherBenchmark {
+    static final int NUM_EVENTS = 1 << 16;
+
+    // the events are 1 ms apart, so the window is also the number of events in it
+    @Param({"1000", "10000"})
+    public long windowSize;
+
+    @Param({"8"})
+    public int numEdges;
+
+    @Param({"10", "30"})
+    public int eventsPerNode;
+
+    ArrayList<TCQuery> tcQueries;
+    SignatureDict dict;
+    EventEdge[] events;
+    CustomMatcher matcher;
+    ArrayList<EventEdge> batch;
+    long seq;
+
+    static class DiscardJoin implements Join {
+        long numResults = 0;
+
+        @Override
+        public void addMatchResult(MatchResult result, Integer tcQueryId) {
+            ++this.numResults;
+        }
+
+        @Override
+        public void setSink(MatchSink sink) {
+        }
+
+        @Override
+        public int getPoolSize() {
+            return 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws Exception {
+        Pattern pattern = Workloads.genPattern(this.numEdges, this.numEdges);
+        this.tcQueries = new TCQGenerator(pattern.temporalRelation, pattern.patternGraph).decompose();
+        this.dict = new SignatureDict(pattern.patternGraph.getEdges(), pattern.useRegex);
+        this.events = Workloads.genEvents(this.dict, this.numEdges, NUM_EVENTS, (int) (this.windowSize / this.eventsPerNode));
+        this.batch = new ArrayList<>();
+        this.batch.add(new EventEdge(this.events[0]));
+    }
+
+    /**
+     * Start from a full window, so the buffers are in their steady state.
+     */
+    @Setup(Level.Iteration)
+    public void setupIteration() throws InterruptedException {
+        this.matcher = new CustomMatcher(this.tcQueries, this.dict, this.windowSize, new DiscardJoin());
+        this.seq = 0;
+        while (this.seq < this.windowSize)
+            sendNext();
+    }
+
+    /**
+     * Send the next event, the events are replayed with increasing timestamps.
+     */
+    int sendNext() throws InterruptedException {
+        EventEdge event = this.batch.get(0);
+        event.set(this.events[(int) (this.seq % NUM_EVENTS)]);
+        event.timestamp = this.seq;
+        event.edgeId = this.seq++;
+        this.matcher.sendAll(this.batch);
+        return this.matcher.getPoolSize();
+    }
+
+    @Benchmark
+    public int sendAll() throws InterruptedException {
+        return sendNext();
+    }
+}
@@ -0,0 +1,36 @@
+package org.ipmes.benchmark;
+
+import org.ipmes.decomposition.TCQGenerator;
+import org.ipmes.decomposition.TCQuery;
+import org.ipmes.pattern.Pattern;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decomposing a pattern into TC-Queries, which is done once per pattern but grows quickly
+ * with the size of the pattern.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DecomposeBenchmark {
+    @Param({"8", "32", "64"})
+    public int numEdges;
+
+    Pattern pattern;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        this.pattern = Workloads.genPattern(this.numEdges, this.numEdges);
+    }
+
+    @Benchmark
+    public ArrayList<TCQuery> decompose() {
+        return new TCQGenerator(this.pattern.temporalRelation, this.pattern.patternGraph).decompose();
+    }
+}
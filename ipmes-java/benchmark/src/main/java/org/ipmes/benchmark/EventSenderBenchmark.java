@@ -0,0 +1,58 @@
+package org.ipmes.benchmark;
+
+import org.ipmes.event.EventSender;
+import org.ipmes.event.SignatureDict;
+import org.ipmes.pattern.Pattern;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The parse layer alone: {@link EventSender#sendLine} of the preprocessed csv lines, including
+ * the signature lookup and the ordering of the events, with the events dropped afterwards.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class EventSenderBenchmark {
+    static final int NUM_EVENTS = 1 << 16;
+
+    @Param({"8", "64"})
+    public int numSignatures;
+
+    String[] lines;
+    Pattern pattern;
+    Workloads.DiscardMatcher matcher;
+    EventSender sender;
+    int next;
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws Exception {
+        this.pattern = Workloads.genPattern(this.numSignatures, this.numSignatures);
+        this.lines = Workloads.genLines(this.numSignatures, NUM_EVENTS, 1000);
+    }
+
+    @Setup(Level.Iteration)
+    public void setupIteration() {
+        newSender();
+    }
+
+    void newSender() {
+        SignatureDict dict = new SignatureDict(this.pattern.patternGraph.getEdges(), this.pattern.useRegex);
+        this.matcher = new Workloads.DiscardMatcher();
+        this.sender = new EventSender(this.matcher, dict);
+        this.next = 0;
+    }
+
+    @Benchmark
+    public long sendLine() throws InterruptedException {
+        // the timestamps must not go backward, so the lines are replayed with a new sender
+        if (this.next == NUM_EVENTS)
+            newSender();
+        this.sender.sendLine(this.lines[this.next++]);
+        return this.matcher.numEvents;
+    }
+}
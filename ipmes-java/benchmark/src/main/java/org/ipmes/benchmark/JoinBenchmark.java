@@ -0,0 +1,127 @@
+package org.ipmes.benchmark;
+
+import org.ipmes.EventEdge;
+import org.ipmes.decomposition.TCQGenerator;
+import org.ipmes.decomposition.TCQuery;
+import org.ipmes.decomposition.matcher.CustomMatcher;
+import org.ipmes.event.SignatureDict;
+import org.ipmes.join.Join;
+import org.ipmes.join.NaiveJoin;
+import org.ipmes.join.OffHeapJoin;
+import org.ipmes.join.PriorityJoin;
+import org.ipmes.match.MatchResult;
+import org.ipmes.pattern.Pattern;
+import org.ipmes.sink.MatchSink;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The join layer alone: {@link Join#addMatchResult} of the partial matches recorded from the
+ * composition layer. The events in a window share a pool of windowSize / eventsPerNode nodes,
+ * the more events per node the larger the pool size and the fan-out.
+ * <p>
+ * With 8 edges, 10 events per node keeps tens to hundreds of partial matches in the pool and
+ * finds a full match every few hundred partial matches, 30 events per node keeps thousands of
+ * partial matches and finds several full matches per partial match.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class JoinBenchmark {
+    static final int NUM_EVENTS = 1 << 18;
+
+    @Param({"priority", "naive", "offheap"})
+    public String join;
+
+    @Param({"1000", "10000"})
+    public long windowSize;
+
+    @Param({"10", "30"})
+    public int eventsPerNode;
+
+    @Param({"8"})
+    public int numEdges;
+
+    Pattern pattern;
+    ArrayList<TCQuery> tcQueries;
+    ArrayList<MatchResult> results;
+    ArrayList<Integer> tcQueryIds;
+    Join joinLayer;
+    int next;
+    long numFullMatches;
+
+    static class RecordingJoin implements Join {
+        ArrayList<MatchResult> results = new ArrayList<>();
+        ArrayList<Integer> tcQueryIds = new ArrayList<>();
+
+        @Override
+        public void addMatchResult(MatchResult result, Integer tcQueryId) {
+            this.results.add(result);
+            this.tcQueryIds.add(tcQueryId);
+        }
+
+        @Override
+        public void setSink(MatchSink sink) {
+        }
+
+        @Override
+        public int getPoolSize() {
+            return 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws Exception {
+        this.pattern = Workloads.genPattern(this.numEdges, this.numEdges);
+        this.tcQueries = new TCQGenerator(this.pattern.temporalRelation, this.pattern.patternGraph).decompose();
+        SignatureDict dict = new SignatureDict(this.pattern.patternGraph.getEdges(), this.pattern.useRegex);
+        RecordingJoin recorder = new RecordingJoin();
+        CustomMatcher matcher = new CustomMatcher(this.tcQueries, dict, this.windowSize, recorder);
+        ArrayList<EventEdge> batch = new ArrayList<>();
+        for (EventEdge event : Workloads.genEvents(dict, this.numEdges, NUM_EVENTS, (int) (this.windowSize / this.eventsPerNode))) {
+            batch.add(event);
+            matcher.sendAll(batch);
+            batch.clear();
+        }
+        this.results = recorder.results;
+        this.tcQueryIds = recorder.tcQueryIds;
+        if (this.results.isEmpty())
+            throw new IllegalStateException("The workload has no partial match");
+    }
+
+    @Setup(Level.Iteration)
+    public void setupIteration() {
+        newJoin();
+    }
+
+    void newJoin() {
+        switch (this.join) {
+            case "naive":
+                this.joinLayer = new NaiveJoin(this.pattern.temporalRelation, this.pattern.patternGraph, this.windowSize, this.tcQueries);
+                break;
+            case "offheap":
+                this.joinLayer = new OffHeapJoin(this.pattern.temporalRelation, this.pattern.patternGraph, this.windowSize, this.tcQueries);
+                break;
+            default:
+                this.joinLayer = new PriorityJoin(this.pattern.temporalRelation, this.pattern.patternGraph, this.windowSize, this.tcQueries);
+        }
+        this.joinLayer.setSink(match -> ++this.numFullMatches);
+        this.next = 0;
+    }
+
+    @Benchmark
+    public int addMatchResult() {
+        // the recorded partial matches are replayed from the start with a new join layer
+        if (this.next == this.results.size())
+            newJoin();
+        this.joinLayer.addMatchResult(this.results.get(this.next), this.tcQueryIds.get(this.next));
+        ++this.next;
+        return this.joinLayer.getPoolSize();
+    }
+}
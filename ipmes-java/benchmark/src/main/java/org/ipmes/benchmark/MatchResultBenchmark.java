@@ -0,0 +1,68 @@
+package org.ipmes.benchmark;
+
+import org.ipmes.match.LiteMatchResult;
+import org.ipmes.match.MatchEdge;
+import org.ipmes.match.MatchResult;
+import org.ipmes.pattern.Pattern;
+import org.ipmes.pattern.PatternEdge;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extending a partial match in the composition layer and merging 2 partial matches in the
+ * join layer, which allocate a result for each call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MatchResultBenchmark {
+    // the number of matched edges of the partial matches
+    @Param({"4", "16", "64"})
+    public int size;
+
+    LiteMatchResult lite;
+    MatchEdge nextEdge;
+    MatchResult left;
+    MatchResult right;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Pattern pattern = Workloads.genPattern(this.size, this.size);
+        PatternEdge[] patternEdges = pattern.patternGraph.getEdges().toArray(new PatternEdge[0]);
+
+        // the lite result matches all edges but the last, the merged results split the edges by parity
+        this.lite = new LiteMatchResult();
+        this.left = new MatchResult(patternEdges);
+        this.right = new MatchResult(patternEdges);
+        for (int i = 0; i < this.size; ++i) {
+            MatchEdge edge = new MatchEdge(i, i, i + 1, i + 2, patternEdges[i]);
+            if (i < this.size - 1)
+                this.lite = this.lite.cloneAndAdd(edge);
+            else
+                this.nextEdge = edge;
+            if (i % 2 == 0)
+                this.left.addMatchEdge(edge);
+            else
+                this.right.addMatchEdge(edge);
+        }
+    }
+
+    /**
+     * The checks done by the composition layer before extending a result, then the extension.
+     */
+    @Benchmark
+    public LiteMatchResult cloneAndAdd() {
+        if (this.lite.contains(this.nextEdge) || this.lite.hasNodeConflict(this.nextEdge))
+            return null;
+        return this.lite.cloneAndAdd(this.nextEdge);
+    }
+
+    @Benchmark
+    public MatchResult merge() {
+        return this.left.merge(this.right);
+    }
+}
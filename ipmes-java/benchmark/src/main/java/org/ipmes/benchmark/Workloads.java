@@ -0,0 +1,119 @@
+package org.ipmes.benchmark;
+
+import org.ipmes.EventEdge;
+import org.ipmes.decomposition.TCMatcher;
+import org.ipmes.event.SignatureDict;
+import org.ipmes.pattern.Pattern;
+import org.ipmes.pattern.PatternParser;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Reproducible synthetic patterns and events for the benchmarks.
+ * <p>
+ * The pattern is a path: edge i goes from node i to node i + 1. The edges are ordered in runs
+ * of {@link #RUN_LENGTH} along the path, and the first edge of a run is ordered after the first
+ * edge of the previous run, so each run is decomposed into a TC-Query and the TC-Queries are
+ * joined on the node shared by adjacent runs. The events are drawn with a fixed seed, their
+ * signatures are the signatures of the pattern edges and their nodes are drawn from a pool of
+ * numNodes nodes, so a smaller pool gives more partial matches and a larger join fan-out.
+ * </p>
+ */
+public class Workloads {
+    public static final long SEED = 0x1FE5L;
+    public static final int RUN_LENGTH = 4;
+
+    public static String signatureOf(int i) {
+        return "op" + i + "#Process::a#Artifact::b";
+    }
+
+    /**
+     * @param numEdges the number of pattern edges, at most 64
+     * @param numSignatures the number of distinct signatures, edge i has signature i % numSignatures
+     */
+    public static Pattern genPattern(int numEdges, int numSignatures) throws IOException {
+        JSONArray events = new JSONArray();
+        for (int i = 0; i < numEdges; ++i) {
+            JSONObject event = new JSONObject();
+            event.put("ID", i);
+            event.put("Signature", signatureOf(i % numSignatures));
+            event.put("SubjectID", i);
+            event.put("ObjectID", i + 1);
+            JSONArray parents = new JSONArray();
+            if (i % RUN_LENGTH != 0)
+                parents.put(i - 1);
+            else if (i > 0)
+                parents.put(i - RUN_LENGTH);
+            event.put("Parents", parents);
+            events.put(event);
+        }
+        JSONObject pattern = new JSONObject();
+        pattern.put("Version", "0.1.0");
+        pattern.put("UseRegex", false);
+        pattern.put("Events", events);
+
+        File file = File.createTempFile("ipmes-bench", ".json");
+        file.deleteOnExit();
+        Files.writeString(file.toPath(), pattern.toString());
+        return PatternParser.parse(file.getPath());
+    }
+
+    /**
+     * Generate events one millisecond apart.
+     * @param dict the dictionary to intern the signatures with
+     */
+    public static EventEdge[] genEvents(SignatureDict dict, int numSignatures, int numEvents, int numNodes) {
+        Random random = new Random(SEED);
+        int[] sigIds = new int[numSignatures];
+        for (int i = 0; i < numSignatures; ++i)
+            sigIds[i] = dict.intern(signatureOf(i));
+        EventEdge[] events = new EventEdge[numEvents];
+        for (int i = 0; i < numEvents; ++i) {
+            events[i] = new EventEdge(i, sigIds[random.nextInt(numSignatures)], i,
+                    1 + random.nextInt(numNodes), 1 + random.nextInt(numNodes));
+        }
+        return events;
+    }
+
+    /**
+     * Generate the same events as {@link #genEvents} in the preprocessed csv format.
+     */
+    public static String[] genLines(int numSignatures, int numEvents, int numNodes) {
+        Random random = new Random(SEED);
+        String[] lines = new String[numEvents];
+        for (int i = 0; i < numEvents; ++i) {
+            String timestamp = String.format("%d.%03d", 1600000000 + i / 1000, i % 1000);
+            lines[i] = timestamp + "," + timestamp + "," + signatureOf(random.nextInt(numSignatures)) + ","
+                    + i + "," + (1 + random.nextInt(numNodes)) + "," + (1 + random.nextInt(numNodes));
+        }
+        return lines;
+    }
+
+    /**
+     * A matcher dropping all events, to measure the parse layer alone.
+     */
+    public static class DiscardMatcher implements TCMatcher {
+        public long numEvents = 0;
+
+        @Override
+        public void sendAll(ArrayList<EventEdge> events) {
+            this.numEvents += events.size();
+        }
+
+        @Override
+        public int getPoolSize() {
+            return 0;
+        }
+
+        @Override
+        public ArrayList<long[]> getTriggerCounts() {
+            return new ArrayList<>();
+        }
+    }
+}
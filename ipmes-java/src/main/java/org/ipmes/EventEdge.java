@@ -6,13 +6,13 @@ package org.ipmes;
 public class EventEdge {
     public long timestamp;
     public long edgeId;
-    public String signature;
+    public int signatureId;
     public long startId;
     public long endId;
 
-    public EventEdge(long timestamp, String signature, long edgeId, long startId, long endId) {
+    public EventEdge(long timestamp, int signatureId, long edgeId, long startId, long endId) {
         this.timestamp = timestamp;
-        this.signature = signature;
+        this.signatureId = signatureId;
         this.edgeId    = edgeId;
         this.startId   = startId;
         this.endId     = endId;
@@ -20,7 +20,18 @@ public class EventEdge {
 
     public EventEdge(EventEdge other) {
         this.timestamp = other.timestamp;
-        this.signature = other.signature;
+        this.signatureId = other.signatureId;
+        this.edgeId    = other.edgeId;
+        this.startId   = other.startId;
+        this.endId     = other.endId;
+    }
+
+    /**
+     * Copy the fields of the other event into this one.
+     */
+    public void set(EventEdge other) {
+        this.timestamp = other.timestamp;
+        this.signatureId = other.signatureId;
         this.edgeId    = other.edgeId;
         this.startId   = other.startId;
         this.endId     = other.endId;
@@ -32,6 +43,6 @@ public class EventEdge {
 
     @Override
     public String toString() {
-        return String.format("EventEdge <%s> {sig: %s, id: %s}", this.timestamp, this.signature, this.edgeId);
+        return String.format("EventEdge <%s> {sig: %s, id: %s}", this.timestamp, this.signatureId, this.edgeId);
     }
 }
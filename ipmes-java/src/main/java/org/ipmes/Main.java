@@ -1,8 +1,14 @@
 package org.ipmes;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.BufferedWriter;
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.*;
 import java.lang.Runtime;
 
@@ -13,21 +19,34 @@ import net.sourceforge.argparse4j.inf.ArgumentParserException;
 import net.sourceforge.argparse4j.inf.Namespace;
 
 import org.ipmes.decomposition.TCMatcher;
-import org.ipmes.decomposition.TCQGenerator;
-import org.ipmes.decomposition.TCQuery;
-import org.ipmes.decomposition.matcher.CEPMatcher;
-import org.ipmes.decomposition.matcher.CustomMatcher;
+import org.ipmes.decomposition.matcher.PatternDispatcher;
+import org.ipmes.event.BinaryEventReader;
+import org.ipmes.event.BinaryEventWriter;
+import org.ipmes.event.EventGenerator;
+import org.ipmes.event.EventReader;
 import org.ipmes.event.EventSender;
-import org.ipmes.join.Join;
-import org.ipmes.join.NaiveJoin;
-import org.ipmes.join.PriorityJoin;
+import org.ipmes.event.SignatureDict;
+import org.ipmes.event.SignatureStats;
+import org.ipmes.event.StreamEventReader;
+import org.ipmes.decomposition.matcher.MeteredMatcher;
 import org.ipmes.match.FullMatch;
-import org.ipmes.match.LiteMatchResult;
+import org.ipmes.metrics.MetricsRegistry;
+import org.ipmes.metrics.MetricsReporter;
 import org.ipmes.pattern.*;
+import org.ipmes.sink.CollectSink;
+import org.ipmes.sink.MatchSink;
+import org.ipmes.sink.NdjsonSink;
+import org.ipmes.sink.RotatingFileSink;
 
 import org.json.JSONObject;
 
 public class Main {
+    // the number of timestamp batches buffered between the parse layer and the worker threads
+    static final int SCHEDULER_RING_SIZE = 1024;
+    // the number of rotated result files kept by --rotate-size
+    static final int ROTATED_FILES = 10;
+    // the number of input lines between 2 samples of the pool size and heap size
+    static final int SAMPLE_INTERVAL = 1024;
 
     static ArgumentParser getParser() {
         ArgumentParser parser = ArgumentParsers.newFor("ipmes-java").build()
@@ -52,11 +71,14 @@ public class Main {
                 .setDefault(false)
                 .help("Output debug information.");
         parser.addArgument("pattern_file").type(String.class)
+                .nargs("+")
                 .required(true)
-                .help("The path to the pattern, e.g. ../data/universal_patterns/TTP11.json");
+                .help("The path to the pattern, e.g. ../data/universal_patterns/TTP11.json. " +
+                        "Multiple patterns or a directory of patterns can be given to match them in one pass");
         parser.addArgument("data_graph").type(String.class)
                 .required(true)
-                .help("The path to the preprocessed data graph");
+                .help("The path to the preprocessed data graph, in csv or the binary format (" + BinaryEventReader.EXTENSION + "), " +
+                        "or - to read csv from stdin until its end");
         parser.addArgument("--cep")
                 .action(Arguments.storeTrue())
                 .setDefault(false)
@@ -65,11 +87,251 @@ public class Main {
                 .action(Arguments.storeTrue())
                 .setDefault(false)
                 .help("Use naive join in join layer.");
+        parser.addArgument("-t", "--threads").type(Integer.class)
+                .setDefault(1)
+                .help("The number of worker threads running the patterns. If greater than 1, " +
+                        "the patterns are matched on a worker pool and parsing runs on its own thread.");
+        parser.addArgument("--pipeline")
+                .action(Arguments.storeTrue())
+                .setDefault(false)
+                .help("Run the parse layer, composition layer and join layer on separate threads.");
+        parser.addArgument("--off-heap")
+                .action(Arguments.storeTrue())
+                .setDefault(false)
+                .help("Keep the partial matches of the join layer in off-heap memory.");
+        parser.addArgument("--stream")
+                .action(Arguments.storeTrue())
+                .setDefault(false)
+                .help("Write each match as a line of JSON as soon as it is found, instead of " +
+                        "collecting them until the end. The summary is then written to stderr.");
+        parser.addArgument("-o", "--output").type(String.class)
+                .help("Stream the matches into the file instead of stdout, implies --stream.");
+        parser.addArgument("--rotate-size").type(Long.class)
+                .setDefault(0L)
+                .help("Rotate the output file when it grows over the size (MB), 0 to never rotate.");
+        parser.addArgument("-f", "--follow")
+                .action(Arguments.storeTrue())
+                .setDefault(false)
+                .help("Keep reading the events appended to the data graph in csv, like tail -f, implies --stream.");
+        parser.addArgument("--idle-timeout").type(Long.class)
+                .setDefault(1000L)
+                .help("When reading stdin or following a file, release the buffered events if no event " +
+                        "arrives for the time (ms).");
+        parser.addArgument("--lateness").type(Long.class)
+                .setDefault(0L)
+                .help("Accept the events arriving out of order by up to the time (ms), they are held " +
+                        "this long to be matched in order. The events later than that are dropped.");
+        parser.addArgument("--metrics").type(String.class)
+                .help("Write a snapshot of the throughput, latency and pool size of each layer as a line " +
+                        "of JSON into the file periodically, or - to write to stderr.");
+        parser.addArgument("--metrics-interval").type(Long.class)
+                .setDefault(10000L)
+                .help("The time (ms) between 2 metrics snapshots.");
+        parser.addArgument("--stats").type(String.class)
+                .help("Decompose the patterns to minimize the expected partial matches, with the signature statistics in the file written by the stats subcommand.");
+        parser.addArgument("--stats-sample").type(Long.class)
+                .help("Like --stats, with the statistics collected from the first STATS_SAMPLE events of the data graph.");
+        parser.addArgument("--join-tree").type(String.class)
+                .setDefault(PatternPipeline.JOIN_TREE_LEFT_DEEP)
+                .help("The order the join layer joins the TC-Queries in: " + PatternPipeline.JOIN_TREE_LEFT_DEEP
+                        + " joins them one by one in the order of their id, " + PatternPipeline.JOIN_TREE_BUSHY
+                        + " joins the subtrees with the fewest expected matches first, estimated with --stats if given, or a tree of TC-Query ids like \"((0 1) (2 3))\". Not used by --naive-join.");
+
+        return parser;
+    }
+
+    static ArgumentParser getConvertParser() {
+        ArgumentParser parser = ArgumentParsers.newFor("ipmes-java convert").build()
+                .defaultHelp(true)
+                .description("Convert the preprocessed data graph in csv format into the binary format.");
+        parser.addArgument("data_graph").type(String.class)
+                .required(true)
+                .help("The path to the preprocessed data graph in csv format");
+        parser.addArgument("output").type(String.class)
+                .required(true)
+                .help("The output path, should end with " + BinaryEventReader.EXTENSION);
 
         return parser;
     }
 
+    static void convert(String[] args) throws IOException {
+        ArgumentParser parser = getConvertParser();
+        Namespace ns = null;
+        try {
+            ns = parser.parseArgs(args);
+        } catch (ArgumentParserException e) {
+            parser.handleError(e);
+            System.exit(1);
+        }
+
+        String output = ns.getString("output");
+        if (!output.endsWith(BinaryEventReader.EXTENSION))
+            System.err.printf("Warning: the output doesn't end with %s, it will be read as csv%n", BinaryEventReader.EXTENSION);
+        long numEvents = BinaryEventWriter.convert(ns.getString("data_graph"), output);
+        System.err.printf("Converted %d events%n", numEvents);
+    }
+
+    static ArgumentParser getStatsParser() {
+        ArgumentParser parser = ArgumentParsers.newFor("ipmes-java stats").build()
+                .defaultHelp(true)
+                .description("Count the events of each signature in the data graph, for the cost-based decomposition of --stats.");
+        parser.addArgument("data_graph").type(String.class)
+                .required(true)
+                .help("The path to the preprocessed data graph");
+        parser.addArgument("output").type(String.class)
+                .required(true)
+                .help("The output path");
+        parser.addArgument("--events").type(Long.class)
+                .setDefault(Long.MAX_VALUE)
+                .help("The number of events to sample from the start of the data graph");
+
+        return parser;
+    }
+
+    static void stats(String[] args) throws IOException, InterruptedException {
+        ArgumentParser parser = getStatsParser();
+        Namespace ns = null;
+        try {
+            ns = parser.parseArgs(args);
+        } catch (ArgumentParserException e) {
+            parser.handleError(e);
+            System.exit(1);
+        }
+
+        SignatureStats stats = SignatureStats.collect(ns.getString("data_graph"), ns.getLong("events"));
+        stats.save(ns.getString("output"));
+        System.err.printf("Sampled %d events%n", stats.getNumEvents());
+    }
+
+    static ArgumentParser getGenerateParser() {
+        ArgumentParser parser = ArgumentParsers.newFor("ipmes-java generate").build()
+                .defaultHelp(true)
+                .description("Generate a synthetic data graph, optionally with instances of a pattern injected.");
+        EventGenerator.Config defaults = new EventGenerator.Config();
+        parser.addArgument("output").type(String.class)
+                .required(true)
+                .help("The output path, in the binary format if it ends with " + BinaryEventReader.EXTENSION
+                        + ", otherwise in csv format, or - to write csv to stdout");
+        parser.addArgument("-p", "--pattern").type(String.class)
+                .help("The pattern to inject");
+        parser.addArgument("--instances").type(Integer.class)
+                .setDefault(defaults.numInstances)
+                .help("The number of injected instances of the pattern");
+        parser.addArgument("--instance-span").type(Long.class)
+                .setDefault(defaults.instanceSpan)
+                .help("The time (ms) between the first and last event of an instance, should be less than the window size");
+        parser.addArgument("--truth").type(String.class)
+                .help("Write the injected instances into the file, in the format of the results of --stream");
+        parser.addArgument("--events").type(Long.class)
+                .setDefault(defaults.numEvents)
+                .help("The number of background events");
+        parser.addArgument("--rate").type(Double.class)
+                .setDefault(defaults.rate)
+                .help("The number of background events per second");
+        parser.addArgument("--nodes").type(Integer.class)
+                .setDefault(defaults.numNodes)
+                .help("The number of background nodes");
+        parser.addArgument("--signatures").type(Integer.class)
+                .setDefault(defaults.numSignatures)
+                .help("The number of background signatures");
+        parser.addArgument("--zipf").type(Double.class)
+                .setDefault(defaults.zipfExponent)
+                .help("The exponent of the Zipf distribution of the background signatures, 0 for uniform");
+        parser.addArgument("--pattern-ratio").type(Double.class)
+                .setDefault(defaults.patternRatio)
+                .help("The fraction of background events having the signature of a pattern edge");
+        parser.addArgument("--interval-ratio").type(Double.class)
+                .setDefault(defaults.intervalRatio)
+                .help("The fraction of background events being interval events");
+        parser.addArgument("--max-duration").type(Long.class)
+                .setDefault(defaults.maxDuration)
+                .help("The maximum duration (ms) of an interval event");
+        parser.addArgument("--seed").type(Long.class)
+                .setDefault(defaults.seed)
+                .help("The random seed, the same seed and options generate the same graph");
+
+        return parser;
+    }
+
+    static void generate(String[] args) throws IOException, InterruptedException {
+        ArgumentParser parser = getGenerateParser();
+        Namespace ns = null;
+        try {
+            ns = parser.parseArgs(args);
+        } catch (ArgumentParserException e) {
+            parser.handleError(e);
+            System.exit(1);
+        }
+
+        EventGenerator.Config config = new EventGenerator.Config();
+        config.numInstances = ns.getInt("instances");
+        config.instanceSpan = ns.getLong("instance_span");
+        config.numEvents = ns.getLong("events");
+        config.rate = ns.getDouble("rate");
+        config.numNodes = ns.getInt("nodes");
+        config.numSignatures = ns.getInt("signatures");
+        config.zipfExponent = ns.getDouble("zipf");
+        config.patternRatio = ns.getDouble("pattern_ratio");
+        config.intervalRatio = ns.getDouble("interval_ratio");
+        config.maxDuration = ns.getLong("max_duration");
+        config.seed = ns.getLong("seed");
+
+        SignatureDict dict = new SignatureDict();
+        EventGenerator generator;
+        String patternFile = ns.getString("pattern");
+        if (patternFile != null) {
+            Pattern pattern = PatternParser.parse(patternFile);
+            generator = new EventGenerator(config, dict, pattern.patternGraph.getEdges(),
+                    pattern.temporalRelation, pattern.useRegex);
+        } else {
+            generator = new EventGenerator(config, dict, null, null, false);
+        }
+
+        String output = ns.getString("output");
+        if (output.endsWith(BinaryEventReader.EXTENSION)) {
+            try (BinaryEventWriter writer = new BinaryEventWriter(output, dict)) {
+                generator.generate(writer::write);
+            }
+        } else {
+            Writer out = output.equals("-")
+                    ? new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))
+                    : Files.newBufferedWriter(Paths.get(output), StandardCharsets.UTF_8);
+            try {
+                generator.generate(EventGenerator.csvWriter(out, dict));
+            } finally {
+                if (output.equals("-"))
+                    out.flush();
+                else
+                    out.close();
+            }
+        }
+
+        String truth = ns.getString("truth");
+        if (truth != null) {
+            MatchSink sink = new NdjsonSink(Files.newBufferedWriter(Paths.get(truth), StandardCharsets.UTF_8));
+            for (FullMatch instance : generator.getInstances())
+                sink.accept(instance);
+            sink.close();
+        }
+        System.err.printf("Generated %d events with %d instances%n",
+                config.numEvents + (long) generator.getInstances().size() * generator.getPatternSize(),
+                generator.getInstances().size());
+    }
+
     public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("convert")) {
+            convert(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("generate")) {
+            generate(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("stats")) {
+            stats(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
         // parse argument
         ArgumentParser parser = getParser();
         Namespace ns = null;
@@ -83,102 +345,265 @@ public class Main {
         Boolean isDebug = ns.getBoolean("debug");
         Boolean dumpTriggerCounts = ns.getBoolean("dumpTriggerCounts");
         Boolean dumpResults = ns.getBoolean("dumpResults");
-        String patternFile = ns.getString("pattern_file");
+        List<String> patternArgs = ns.getList("pattern_file");
         String dataGraphPath = ns.getString("data_graph");
         long windowSize = ns.getLong("windowSize") * 1000;
         Boolean useCEP = ns.getBoolean("cep");
         Boolean useNaiveJoin = ns.getBoolean("naive_join");
+        int numThreads = ns.getInt("threads");
+        Boolean usePipeline = ns.getBoolean("pipeline");
+        Boolean useOffHeap = ns.getBoolean("off_heap");
+        String outputPath = ns.getString("output");
+        boolean follow = ns.getBoolean("follow");
+        boolean readStdin = dataGraphPath.equals("-");
+        boolean streamResults = ns.getBoolean("stream") || outputPath != null || follow || readStdin;
+        long idleTimeout = ns.getLong("idle_timeout");
+        long lateness = ns.getLong("lateness");
+        long rotateSize = ns.getLong("rotate_size") * 1024 * 1024;
+        String metricsPath = ns.getString("metrics");
+        long metricsInterval = ns.getLong("metrics_interval");
+        MetricsRegistry metrics = metricsPath == null ? null : new MetricsRegistry();
+        String statsPath = ns.getString("stats");
+        Long statsSample = ns.getLong("stats_sample");
+        String joinTree = ns.getString("join_tree");
 
-        // parse pattern
-        Pattern pattern;
-        try {
-            pattern = PatternParser.parse(patternFile);
-        } catch (IOException exception) {
-            System.err.println("Failed to parse pattern");
-            return;
+        // collect pattern files, a directory is expanded to the patterns in it
+        List<String> patternFiles = new ArrayList<>();
+        boolean multiPattern = patternArgs.size() > 1;
+        for (String arg : patternArgs) {
+            File file = new File(arg);
+            if (!file.isDirectory()) {
+                patternFiles.add(arg);
+                continue;
+            }
+            multiPattern = true;
+            File[] children = file.listFiles((dir, name) -> name.endsWith(".json"));
+            if (children == null)
+                continue;
+            Arrays.sort(children);
+            for (File child : children)
+                patternFiles.add(child.getPath());
+        }
+        if (multiPattern && useCEP) {
+            System.err.println("--cep doesn't support matching multiple patterns");
+            System.exit(1);
         }
-        PatternGraph spatialPattern = pattern.patternGraph;
-        TemporalRelation temporalPattern = pattern.temporalRelation;
 
-        LiteMatchResult.MAX_NUM_NODES = spatialPattern.numNodes();
+        // parse patterns
+        ArrayList<Pattern> patterns = new ArrayList<>();
+        for (String patternFile : patternFiles) {
+            try {
+                patterns.add(PatternParser.parse(patternFile));
+            } catch (IOException exception) {
+                System.err.println("Failed to parse pattern " + patternFile);
+                return;
+            }
+        }
 
-        if (isDebug) {
-            System.err.println("Patterns:");
-            spatialPattern.getEdges().forEach(System.err::println);
+        // signature statistics for the cost-based decomposition
+        SignatureStats stats = null;
+        if (statsPath != null) {
+            stats = SignatureStats.load(statsPath);
+        } else if (statsSample != null) {
+            if (readStdin) {
+                System.err.println("--stats-sample can't sample from stdin, use --stats");
+                System.exit(1);
+            }
+            stats = SignatureStats.collect(dataGraphPath, statsSample);
         }
 
-        // Decomposition
-        TCQGenerator d = new TCQGenerator(temporalPattern, spatialPattern);
-        ArrayList<TCQuery> tcQueries = d.decompose();
+        // Signature dictionary shared by the parse layer and composition layer
+        SignatureDict signatureDict = new SignatureDict();
+        int[] edgeOffsets = new int[patterns.size()];
+        for (int i = 0; i < patterns.size(); ++i)
+            edgeOffsets[i] = signatureDict.addPattern(patterns.get(i).patternGraph.getEdges(), patterns.get(i).useRegex);
 
-        if (isDebug) {
-            System.err.println("TC Queries:");
-            tcQueries.forEach(System.err::println);
+        // Create compositions layer and join layer for each pattern
+        ArrayList<PatternPipeline> pipelines = new ArrayList<>();
+        for (int i = 0; i < patterns.size(); ++i) {
+            Pattern pattern = patterns.get(i);
+            if (isDebug) {
+                System.err.println("Patterns of " + patternFiles.get(i) + ":");
+                pattern.patternGraph.getEdges().forEach(System.err::println);
+            }
+
+            PatternPipeline pipeline;
+            try {
+                pipeline = new PatternPipeline(patternFiles.get(i), pattern, signatureDict, edgeOffsets[i],
+                        windowSize, useNaiveJoin, useCEP, usePipeline, useOffHeap, stats, joinTree, metrics);
+            } catch (IllegalArgumentException exception) {
+                System.err.println("Failed to build the pipeline of " + patternFiles.get(i) + ": " + exception.getMessage());
+                System.exit(1);
+                return;
+            }
+            pipelines.add(pipeline);
+
+            if (isDebug) {
+                System.err.println("TC Queries:");
+                pipeline.getTCQueries().forEach(System.err::println);
+                System.err.println("Join tree: " + pipeline.getJoinTree());
+            }
         }
 
-        // Create join layer
-        Join join;
-        if (useNaiveJoin) {
-            join = new NaiveJoin(temporalPattern, spatialPattern, windowSize, tcQueries);
+        // Create the sinks of the results
+        MatchSink streamSink = null;
+        List<CollectSink> collectSinks = new ArrayList<>();
+        if (streamResults) {
+            NdjsonSink sink = outputPath == null ? NdjsonSink.stdout()
+                    : new RotatingFileSink(outputPath, rotateSize, ROTATED_FILES);
+            for (PatternPipeline pipeline : pipelines)
+                pipeline.setSink(multiPattern ? sink.forPattern(pipeline.getName()) : sink);
+            streamSink = sink;
         } else {
-            join = new PriorityJoin(temporalPattern, spatialPattern, windowSize, tcQueries);
+            for (PatternPipeline pipeline : pipelines) {
+                CollectSink sink = new CollectSink();
+                pipeline.setSink(sink);
+                collectSinks.add(sink);
+            }
         }
 
-        // Create compositions layer
+        // Create parse layer
         TCMatcher matcher;
-        if (useCEP) {
-            matcher = new CEPMatcher(pattern, tcQueries, windowSize, join);
+        PatternScheduler scheduler = null;
+        if (numThreads > 1 || usePipeline) {
+            scheduler = new PatternScheduler(pipelines, signatureDict, numThreads, SCHEDULER_RING_SIZE);
+            matcher = scheduler;
+        } else if (pipelines.size() == 1) {
+            matcher = pipelines.get(0).getMatcher();
         } else {
-            matcher = new CustomMatcher(tcQueries, pattern.useRegex, windowSize, join);
+            List<TCMatcher> matchers = new ArrayList<>();
+            for (PatternPipeline pipeline : pipelines)
+                matchers.add(pipeline.getMatcher());
+            matcher = new PatternDispatcher(matchers, signatureDict);
         }
+        if (metrics != null)
+            matcher = new MeteredMatcher(matcher, metrics, "Parse");
+        EventSender sender = new EventSender(matcher, signatureDict, lateness);
 
-        // Create parse layer
-        EventSender sender = new EventSender(matcher);
+        Runtime jvm = Runtime.getRuntime();
+        MetricsReporter reporter = null;
+        PrintStream metricsOut = null;
+        if (metrics != null) {
+            metrics.gauge("Parse.LateEvents", sender::getNumLateEvents);
+            metrics.gauge("Parse.IrrelevantEvents", sender::getNumIrrelevantEvents);
+            metrics.gauge("HeapUsed", () -> jvm.totalMemory() - jvm.freeMemory());
+            metricsOut = metricsPath.equals("-") ? System.err : new PrintStream(metricsPath);
+            reporter = new MetricsReporter(metrics, metricsOut, metricsInterval);
+        }
 
-        // main process loop
+        // main process loop, the pool size and heap size are sampled every SAMPLE_INTERVAL lines
         int maxPoolSize = 0;
-        Runtime jvm = Runtime.getRuntime();
         long maxHeapSize = jvm.totalMemory();
-        BufferedReader inputReader = new BufferedReader(new FileReader(dataGraphPath));
-        String line = inputReader.readLine();
-        while (line != null) {
-            sender.sendLine(line);
-            line = inputReader.readLine();
-            maxPoolSize = Math.max(maxPoolSize, join.getPoolSize() + matcher.getPoolSize());
-            maxHeapSize = Math.max(maxHeapSize, jvm.totalMemory());
+        int untilSample = SAMPLE_INTERVAL;
+        EventReader reader;
+        if (readStdin)
+            reader = new StreamEventReader(System.in, idleTimeout);
+        else if (follow)
+            reader = StreamEventReader.follow(dataGraphPath, idleTimeout);
+        else
+            reader = EventReader.open(dataGraphPath);
+        try (EventReader inputReader = reader) {
+            while (inputReader.sendNext(sender)) {
+                if (--untilSample > 0)
+                    continue;
+                untilSample = SAMPLE_INTERVAL;
+                if (scheduler == null)
+                    maxPoolSize = Math.max(maxPoolSize, samplePoolSize(pipelines));
+                maxHeapSize = Math.max(maxHeapSize, jvm.totalMemory());
+            }
         }
+        if (scheduler == null)
+            maxPoolSize = Math.max(maxPoolSize, samplePoolSize(pipelines));
+        maxHeapSize = Math.max(maxHeapSize, jvm.totalMemory());
         sender.flushBuffers();
+        if (scheduler != null) {
+            scheduler.close();
+            // the workers sample their own patterns, so sum up the peak of each pattern
+            for (PatternPipeline pipeline : pipelines)
+                maxPoolSize += pipeline.getMaxPoolSize();
+        }
+        for (PatternPipeline pipeline : pipelines)
+            pipeline.close();
+        if (streamSink != null)
+            streamSink.close();
+        if (reporter != null) {
+            reporter.close();
+            if (metricsOut != System.err)
+                metricsOut.close();
+        }
 
         // output
-        JSONObject output = new JSONObject();
-
+        JSONObject output;
+        if (multiPattern) {
+            output = new JSONObject();
+            List<JSONObject> patternOutput = new ArrayList<>();
+            long numResults = 0;
+            for (int i = 0; i < pipelines.size(); ++i) {
+                PatternPipeline pipeline = pipelines.get(i);
+                List<FullMatch> results = streamResults ? null : collectSinks.get(i).getMatches();
+                JSONObject obj = outputPipeline(pipeline, results, dumpTriggerCounts, dumpResults, isDebug);
+                obj.put("Pattern", pipeline.getName());
+                numResults += pipeline.getNumResults();
+                patternOutput.add(obj);
+            }
+            output.put("Patterns", patternOutput);
+            output.put("NumResults", numResults);
+        } else {
+            List<FullMatch> results = streamResults ? null : collectSinks.get(0).getMatches();
+            output = outputPipeline(pipelines.get(0), results, dumpTriggerCounts, dumpResults, isDebug);
+        }
         output.put("PeakPoolSize", maxPoolSize);
         output.put("PeakHeapSize", maxHeapSize);
+        if (sender.getNumLateEvents() > 0)
+            output.put("NumLateEvents", sender.getNumLateEvents());
+        output.put("NumIrrelevantEvents", sender.getNumIrrelevantEvents());
+
+        // the matches streamed to stdout are not mixed with the summary
+        if (streamResults && outputPath == null)
+            System.err.println(output.toString(2));
+        else
+            System.out.println(output.toString(2));
+    }
+
+    /**
+     * @return the total pool size of the patterns
+     */
+    static int samplePoolSize(List<PatternPipeline> pipelines) {
+        int poolSize = 0;
+        for (PatternPipeline pipeline : pipelines)
+            poolSize += pipeline.samplePoolSize();
+        return poolSize;
+    }
+
+    /**
+     * Collect the output of a pattern.
+     * @param results the matches of the pattern, null if they are streamed
+     */
+    static JSONObject outputPipeline(PatternPipeline pipeline, List<FullMatch> results,
+                                     boolean dumpTriggerCounts, boolean dumpResults, boolean isDebug) {
+        JSONObject output = new JSONObject();
+
+        output.put("PeakPoolSize", pipeline.getMaxPoolSize());
 
         if (dumpTriggerCounts)
-            output.put("TriggerCounts", matcher.getTriggerCounts());
+            output.put("TriggerCounts", pipeline.getMatcher().getTriggerCounts());
 
-        Collection<FullMatch> results = join.extractAnswer();
-        output.put("NumResults", results.size());
+        output.put("NumResults", pipeline.getNumResults());
+        if (results == null)
+            return output;
 
         if (dumpResults) {
             List<JSONObject> resultOutput = new LinkedList<>();
-            for (FullMatch result : results) {
-                JSONObject obj = new JSONObject();
-                obj.put("StartTime", result.getStartTime());
-                obj.put("EndTime", result.getEndTime());
-                obj.put("MatchIDs", result.getMatchData());
-                resultOutput.add(obj);
-            }
+            for (FullMatch result : results)
+                resultOutput.add(NdjsonSink.toJSON(result));
             output.put("MatchResults", resultOutput);
         }
 
         if (isDebug) {
-            System.err.println("Match Results:");
+            System.err.println("Match Results of " + pipeline.getName() + ":");
             for (FullMatch result : results)
                 System.err.println(result);
         }
-
-        System.out.println(output.toString(2));
+        return output;
     }
 }
\ No newline at end of file
@@ -0,0 +1,232 @@
+package org.ipmes;
+
+import org.ipmes.decomposition.TCMatcher;
+import org.ipmes.decomposition.TCQGenerator;
+import org.ipmes.decomposition.TCQuery;
+import org.ipmes.decomposition.matcher.CEPMatcher;
+import org.ipmes.decomposition.matcher.CustomMatcher;
+import org.ipmes.decomposition.matcher.MeteredMatcher;
+import org.ipmes.event.SignatureDict;
+import org.ipmes.event.SignatureStats;
+import org.ipmes.join.Join;
+import org.ipmes.join.JoinTree;
+import org.ipmes.join.MeteredJoin;
+import org.ipmes.join.NaiveJoin;
+import org.ipmes.join.OffHeapJoin;
+import org.ipmes.join.PipelinedJoin;
+import org.ipmes.join.PriorityJoin;
+import org.ipmes.match.MatchResult;
+import org.ipmes.metrics.MetricsRegistry;
+import org.ipmes.pattern.Pattern;
+import org.ipmes.pattern.PatternGraph;
+import org.ipmes.pattern.TemporalRelation;
+import org.ipmes.sink.DedupSink;
+import org.ipmes.sink.MatchSink;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * PatternPipeline holds the composition layer and join layer built for one pattern.
+ */
+public class PatternPipeline implements AutoCloseable {
+    // the number of partial matches buffered between the composition layer and a pipelined join layer
+    static final int JOIN_QUEUE_SIZE = 1 << 16;
+    public static final String JOIN_TREE_LEFT_DEEP = "left-deep";
+    public static final String JOIN_TREE_BUSHY = "bushy";
+    // the probability a match binds a pattern node to a given data node, when there is no statistics
+    static final double DEFAULT_NODE_SELECTIVITY = 0.01;
+
+    String name;
+    Pattern pattern;
+    ArrayList<TCQuery> tcQueries;
+    JoinTree joinTree;
+    Join join;
+    TCMatcher matcher;
+    long windowSize;
+    int maxPoolSize;
+    // the number of distinct full matches passed to the sink, updated by the join layer
+    long numResults;
+
+    /**
+     * Decompose the pattern and create its composition layer and join layer.
+     * @param name the name of the pattern, used in the output
+     * @param pattern the pattern
+     * @param signatureDict the signature dictionary holding the pattern
+     * @param edgeOffset the offset of the pattern in signatureDict
+     * @param windowSize the window size in milliseconds
+     * @param useNaiveJoin use naive join in join layer
+     * @param useCEP use CEP in composition layer
+     * @param pipelined run the join layer on its own thread
+     * @param offHeap keep the partial matches of the join layer off the heap
+     * @param stats the signature statistics to decompose the pattern by cost, null to select the longest TC-Queries
+     * @param joinTree the join tree of the join layer, see {@link #buildJoinTree}
+     * @param metrics the registry of the metrics of the pattern, named after the pattern, null to disable metrics
+     */
+    public PatternPipeline(String name, Pattern pattern, SignatureDict signatureDict, int edgeOffset,
+                           long windowSize, boolean useNaiveJoin, boolean useCEP, boolean pipelined,
+                           boolean offHeap, SignatureStats stats, String joinTree, MetricsRegistry metrics) {
+        this.name = name;
+        this.pattern = pattern;
+        this.windowSize = windowSize;
+        PatternGraph spatialPattern = pattern.patternGraph;
+        TemporalRelation temporalPattern = pattern.temporalRelation;
+        if (spatialPattern.numEdges() > MatchResult.MAX_NUM_EDGES)
+            throw new IllegalArgumentException(
+                    "Pattern " + name + " has more than " + MatchResult.MAX_NUM_EDGES + " edges");
+
+        // Decomposition
+        TCQGenerator d = stats == null ? new TCQGenerator(temporalPattern, spatialPattern)
+                : new TCQGenerator(temporalPattern, spatialPattern,
+                        stats.countPerWindow(spatialPattern.getEdges(), pattern.useRegex, windowSize),
+                        stats.getNodeSelectivity());
+        this.tcQueries = d.decompose();
+        this.joinTree = buildJoinTree(joinTree, this.tcQueries, d.estimateNumMatches(this.tcQueries),
+                stats == null ? DEFAULT_NODE_SELECTIVITY : stats.getNodeSelectivity());
+
+        // Create join layer
+        if (useNaiveJoin) {
+            this.join = new NaiveJoin(temporalPattern, spatialPattern, windowSize, tcQueries);
+        } else if (offHeap) {
+            this.join = new OffHeapJoin(temporalPattern, spatialPattern, windowSize, tcQueries, this.joinTree);
+        } else {
+            this.join = new PriorityJoin(temporalPattern, spatialPattern, windowSize, tcQueries, this.joinTree);
+        }
+        if (metrics != null) {
+            registerJoinGauges(metrics);
+            // metered inside the pipelined join, so the latency is the time spent joining
+            this.join = new MeteredJoin(this.join, metrics, name + ".Join");
+        }
+        if (pipelined)
+            this.join = new PipelinedJoin(this.join, JOIN_QUEUE_SIZE);
+
+        // Create compositions layer
+        if (useCEP) {
+            this.matcher = new CEPMatcher(pattern, tcQueries, signatureDict, windowSize, join);
+        } else {
+            this.matcher = new CustomMatcher(tcQueries, signatureDict, edgeOffset, windowSize, join);
+        }
+        if (metrics != null) {
+            registerMatcherGauges(metrics);
+            this.matcher = new MeteredMatcher(this.matcher, metrics, name + ".Composition");
+        }
+        this.maxPoolSize = 0;
+        this.numResults = 0;
+    }
+
+    /**
+     * Build the join tree from its description.
+     * @param description "left-deep" to join the TC-Queries in the order of their id, "bushy" to
+     *                    join the rarest matches first, or a tree in the format of {@link JoinTree#parse}
+     * @param numMatches the expected number of matches of each TC-Query in a window, null if unknown
+     * @param nodeSelectivity the probability a match binds a pattern node to a given data node
+     */
+    static JoinTree buildJoinTree(String description, ArrayList<TCQuery> tcQueries, double[] numMatches,
+                                  double nodeSelectivity) {
+        if (description == null || description.equals(JOIN_TREE_LEFT_DEEP))
+            return JoinTree.leftDeep(tcQueries.size());
+        if (description.equals(JOIN_TREE_BUSHY)) {
+            if (numMatches == null) {
+                // without statistics, only the shared nodes tell the subtrees apart
+                numMatches = new double[tcQueries.size()];
+                Arrays.fill(numMatches, 1);
+            }
+            return JoinTree.bushy(tcQueries, numMatches, nodeSelectivity);
+        }
+        return JoinTree.parse(description, tcQueries.size());
+    }
+
+    /**
+     * Register the pool size of each buffer, the expired partial matches and the partial
+     * matches created by joining, which over the partial matches added gives the join fan-out.
+     */
+    void registerJoinGauges(MetricsRegistry metrics) {
+        if (!(this.join instanceof PriorityJoin))
+            return;
+        PriorityJoin join = (PriorityJoin) this.join;
+        // the last buffer holds the full matches, which are never stored
+        for (int i = 0; i < join.getNumBuffers() - 1; ++i) {
+            int bufferId = i;
+            metrics.gauge(this.name + ".Join.Pool." + i, () -> join.getBufferSize(bufferId));
+        }
+        metrics.gauge(this.name + ".Join.Expired", join::getNumExpired);
+        metrics.gauge(this.name + ".Join.Merged", join::getNumMerged);
+    }
+
+    void registerMatcherGauges(MetricsRegistry metrics) {
+        if (!(this.matcher instanceof CustomMatcher))
+            return;
+        CustomMatcher matcher = (CustomMatcher) this.matcher;
+        for (int i = 0; i < matcher.getNumBuffers(); ++i) {
+            int bufferId = i;
+            metrics.gauge(this.name + ".Composition.Pool." + i, () -> matcher.getBufferSize(bufferId));
+        }
+        metrics.gauge(this.name + ".Composition.Expired", matcher::getNumExpired);
+    }
+
+    /**
+     * Pass the distinct full matches of the pattern to the sink. Must be called before
+     * sending any event.
+     */
+    public void setSink(MatchSink sink) {
+        this.join.setSink(new DedupSink(match -> {
+            ++this.numResults;
+            sink.accept(match);
+        }, this.windowSize));
+    }
+
+    /**
+     * Wait for the join layer to process all the partial matches sent to it.
+     * @throws IllegalStateException if interrupted while waiting, with the interrupt flag set
+     */
+    @Override
+    public void close() {
+        if (this.join instanceof PipelinedJoin)
+            ((PipelinedJoin) this.join).close();
+    }
+
+    /**
+     * Update the peak pool size with the current pool size.
+     * @return the current pool size
+     */
+    public int samplePoolSize() {
+        int poolSize = this.join.getPoolSize() + this.matcher.getPoolSize();
+        this.maxPoolSize = Math.max(this.maxPoolSize, poolSize);
+        return poolSize;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public Pattern getPattern() {
+        return this.pattern;
+    }
+
+    public ArrayList<TCQuery> getTCQueries() {
+        return this.tcQueries;
+    }
+
+    public JoinTree getJoinTree() {
+        return this.joinTree;
+    }
+
+    public Join getJoin() {
+        return this.join;
+    }
+
+    public TCMatcher getMatcher() {
+        return this.matcher;
+    }
+
+    public int getMaxPoolSize() {
+        return this.maxPoolSize;
+    }
+
+    /**
+     * @return the number of distinct full matches, only safe to read after {@link #close()}
+     */
+    public long getNumResults() {
+        return this.numResults;
+    }
+}
@@ -0,0 +1,208 @@
+package org.ipmes;
+
+import org.ipmes.decomposition.TCMatcher;
+import org.ipmes.decomposition.matcher.PatternDispatcher;
+import org.ipmes.event.SignatureDict;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * PatternScheduler runs the patterns on a pool of worker threads.
+ * <p>
+ * The patterns are independent of each other, so they are assigned to the workers in
+ * round-robin, and each worker runs the composition layer and join layer of its patterns.
+ * The parse layer publishes the timestamp batches into a bounded ring buffer, which is read
+ * by every worker with its own cursor. The events are copied into the events owned by the
+ * slots of the ring, so the slots are reused and the parse layer can reuse its buffer and
+ * events right after {@link #sendAll(ArrayList)} returns. When the ring is full, the parse layer waits for
+ * the slowest worker.
+ * </p>
+ * <p>
+ * {@link #close()} must be called after the last batch is sent, it waits for the workers
+ * to consume all the batches. The results and statistics of the pipelines are only safe
+ * to read after that.
+ * </p>
+ */
+public class PatternScheduler implements TCMatcher, AutoCloseable {
+    static final int SPINS_BEFORE_PARK = 1000;
+    static final long PARK_NANOS = 50_000;
+
+    List<PatternPipeline> pipelines;
+    ArrayList<EventEdge>[] ring;
+    // the events owned by each slot of the ring, reused by the batches put into the slot
+    ArrayList<EventEdge>[] slotEvents;
+    int ringMask;
+    Worker[] workers;
+    // the number of batches published, slot (seq & ringMask) holds the batch seq
+    volatile long published;
+    volatile boolean closed;
+    volatile Throwable failure;
+
+    /**
+     * @param pipelines the pipelines of the patterns, the i-th pipeline is the i-th pattern in signatureDict
+     * @param signatureDict the signature dictionary
+     * @param numWorkers the number of worker threads
+     * @param ringSize the number of batches in the ring buffer, rounded up to a power of 2
+     */
+    public PatternScheduler(List<PatternPipeline> pipelines, SignatureDict signatureDict, int numWorkers, int ringSize) {
+        this.pipelines = pipelines;
+        int size = Integer.highestOneBit(Math.max(2, ringSize - 1)) << 1;
+        this.ring = (ArrayList<EventEdge>[]) new ArrayList[size];
+        this.slotEvents = (ArrayList<EventEdge>[]) new ArrayList[size];
+        for (int i = 0; i < size; ++i) {
+            this.ring[i] = new ArrayList<>();
+            this.slotEvents[i] = new ArrayList<>();
+        }
+        this.ringMask = size - 1;
+        this.published = 0;
+        this.closed = false;
+
+        numWorkers = Math.max(1, Math.min(numWorkers, pipelines.size()));
+        this.workers = new Worker[numWorkers];
+        for (int w = 0; w < numWorkers; ++w) {
+            List<PatternPipeline> assigned = new ArrayList<>();
+            List<TCMatcher> matchers = new ArrayList<>();
+            int[] patterns = new int[(pipelines.size() - w + numWorkers - 1) / numWorkers];
+            for (int i = w, j = 0; i < pipelines.size(); i += numWorkers, ++j) {
+                assigned.add(pipelines.get(i));
+                matchers.add(pipelines.get(i).getMatcher());
+                patterns[j] = i;
+            }
+            this.workers[w] = new Worker(assigned, new PatternDispatcher(matchers, patterns, signatureDict));
+            this.workers[w].setName("ipmes-worker-" + w);
+            this.workers[w].setDaemon(true);
+        }
+        for (Worker worker : this.workers)
+            worker.start();
+    }
+
+    /**
+     * Wait a little while polling for a condition.
+     * @param spins the number of times the condition is polled
+     */
+    static void backoff(int spins) {
+        if (spins < SPINS_BEFORE_PARK)
+            Thread.onSpinWait();
+        else
+            LockSupport.parkNanos(PARK_NANOS);
+    }
+
+    void checkFailure() {
+        if (this.failure != null)
+            throw new IllegalStateException("Pattern worker failed", this.failure);
+    }
+
+    long minCursor() {
+        long min = Long.MAX_VALUE;
+        for (Worker worker : this.workers)
+            min = Math.min(min, worker.cursor);
+        return min;
+    }
+
+    /**
+     * Publish the batch to the workers, wait for the slowest worker if the ring is full.
+     * @throws IllegalStateException if a worker has failed
+     */
+    public void sendAll(ArrayList<EventEdge> events) throws InterruptedException {
+        // a failed worker never fills the ring again, so check on every batch
+        checkFailure();
+        if (events.isEmpty())
+            return;
+        long seq = this.published;
+        for (int spins = 0; seq - minCursor() >= this.ring.length; ++spins) {
+            checkFailure();
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            backoff(spins);
+        }
+        ArrayList<EventEdge> slot = this.ring[(int) (seq & this.ringMask)];
+        ArrayList<EventEdge> owned = this.slotEvents[(int) (seq & this.ringMask)];
+        slot.clear();
+        for (int i = 0; i < events.size(); ++i) {
+            if (i == owned.size())
+                owned.add(new EventEdge(events.get(i)));
+            else
+                owned.get(i).set(events.get(i));
+            slot.add(owned.get(i));
+        }
+        this.published = seq + 1;
+    }
+
+    /**
+     * @return the sum of the current pool sizes of the patterns, may be slightly stale
+     */
+    public int getPoolSize() {
+        int poolSize = 0;
+        for (PatternPipeline pipeline : this.pipelines)
+            poolSize += pipeline.getJoin().getPoolSize() + pipeline.getMatcher().getPoolSize();
+        return poolSize;
+    }
+
+    public ArrayList<long[]> getTriggerCounts() {
+        ArrayList<long[]> triggerCounts = new ArrayList<>();
+        for (PatternPipeline pipeline : this.pipelines)
+            triggerCounts.addAll(pipeline.getMatcher().getTriggerCounts());
+        return triggerCounts;
+    }
+
+    /**
+     * Wait for the workers to process all the published batches and stop them.
+     * @throws IllegalStateException if interrupted while waiting, with the interrupt flag set
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        try {
+            for (Worker worker : this.workers)
+                worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the pattern workers", e);
+        }
+        checkFailure();
+    }
+
+    class Worker extends Thread {
+        List<PatternPipeline> pipelines;
+        PatternDispatcher dispatcher;
+        // the number of batches consumed by this worker
+        volatile long cursor;
+
+        Worker(List<PatternPipeline> pipelines, PatternDispatcher dispatcher) {
+            this.pipelines = pipelines;
+            this.dispatcher = dispatcher;
+            this.cursor = 0;
+        }
+
+        @Override
+        public void run() {
+            try {
+                long seq = 0;
+                int spins = 0;
+                while (true) {
+                    if (seq == published) {
+                        // read closed before published again, so no batch published before closing is missed
+                        if (closed && seq == published)
+                            break;
+                        if (failure != null)
+                            break;
+                        backoff(spins++);
+                        continue;
+                    }
+                    spins = 0;
+                    this.dispatcher.sendAll(ring[(int) (seq & ringMask)]);
+                    for (PatternPipeline pipeline : this.pipelines)
+                        pipeline.samplePoolSize();
+                    this.cursor = ++seq;
+                }
+            } catch (Throwable e) {
+                failure = e;
+            } finally {
+                // never block the parse layer on a stopped worker
+                this.cursor = Long.MAX_VALUE;
+            }
+        }
+    }
+}
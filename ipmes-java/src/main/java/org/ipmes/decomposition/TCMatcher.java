@@ -6,7 +6,8 @@ import java.util.*;
 
 public interface TCMatcher {
     /**
-     * Send a batch of event into matcher
+     * Send a batch of event into matcher. The list and the events may be reused by the caller
+     * after this returns, so they must be copied to be kept.
      * @param events
      */
     void sendAll(ArrayList<EventEdge> events) throws InterruptedException;
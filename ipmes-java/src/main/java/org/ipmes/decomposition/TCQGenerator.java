@@ -10,15 +10,35 @@ import java.util.*;
  * This class is responsible for the decomposition task.
  */
 public class TCQGenerator {
+    // the most sets of covered edges memoized by the cost-based selection
+    static final int MAX_SEARCH_STATES = 1 << 16;
 
     TemporalRelation temporalRelation;
     PatternGraph spatialRelation;
     // TCQueryId, relation of edges
     ArrayList<TCQueryRelation>[] TCQRelation;
+    // the expected number of events of each pattern edge in a window, null to select the longest TC-Queries
+    double[] edgeCounts;
+    // the probability an event touches a given node
+    double nodeSelectivity;
 
     public TCQGenerator(TemporalRelation temporalRelation, PatternGraph spatialRelation) {
+        this(temporalRelation, spatialRelation, null, 0);
+    }
+
+    /**
+     * Create a generator selecting the TC-Queries with the least expected partial matches.
+     *
+     * @param edgeCounts      the expected number of events of each pattern edge in a window, indexed by
+     *                        edge id, null to greedily select the longest TC-Queries
+     * @param nodeSelectivity the probability an event touches a given node
+     */
+    public TCQGenerator(TemporalRelation temporalRelation, PatternGraph spatialRelation, double[] edgeCounts,
+                        double nodeSelectivity) {
         this.temporalRelation = temporalRelation;
         this.spatialRelation = spatialRelation;
+        this.edgeCounts = edgeCounts;
+        this.nodeSelectivity = nodeSelectivity;
     }
 
     /**
@@ -34,7 +54,8 @@ public class TCQGenerator {
             generateTCQueries(edge, parents, subQueries);
         }
 
-        ArrayList<TCQuery> selected = selectTCSubQueries(subQueries);
+        ArrayList<TCQuery> selected = this.edgeCounts == null ? selectTCSubQueries(subQueries)
+                : orderByCost(selectByCost(subQueries));
         for (int i = 0; i < selected.size(); ++i) {
             selected.get(i).setId(i);
         }
@@ -140,6 +161,238 @@ public class TCQGenerator {
         return selectedTCQ;
     }
 
+    /**
+     * Estimate the number of partial matches of a TC-Query in a window.
+     * <p>
+     * The first edge matches every event of its signature, and each following edge multiplies
+     * the matches of the prefix by the number of its events touching the nodes it shares with
+     * the prefix.
+     * </p>
+     *
+     * @param subQuery the TC-Query
+     * @return the expected number of partial matches of all prefixes, and of the whole TC-Query
+     */
+    double[] estimateCost(TCQuery subQuery) {
+        HashSet<Integer> boundNodes = new HashSet<>();
+        double cost = 0;
+        double matches = 1;
+        for (PatternEdge edge : subQuery.getEdges()) {
+            matches *= this.edgeCounts[edge.getId()];
+            if (!boundNodes.add(edge.getStartId()))
+                matches *= this.nodeSelectivity;
+            if (!boundNodes.add(edge.getEndId()))
+                matches *= this.nodeSelectivity;
+            cost += matches;
+        }
+        return new double[]{cost, matches};
+    }
+
+    /**
+     * Estimate the number of matches of the edges joined together in a window, regardless of
+     * how they are decomposed: the product of their events, filtered by nodeSelectivity for
+     * each endpoint on a node bound by another edge.
+     *
+     * @param mask the ids of the edges as a bit mask
+     */
+    double estimateJoined(long mask) {
+        HashSet<Integer> boundNodes = new HashSet<>();
+        double matches = 1;
+        for (long rest = mask; rest != 0; rest &= rest - 1) {
+            PatternEdge edge = this.spatialRelation.getEdge(Long.numberOfTrailingZeros(rest));
+            matches *= this.edgeCounts[edge.getId()];
+            if (!boundNodes.add(edge.getStartId()))
+                matches *= this.nodeSelectivity;
+            if (!boundNodes.add(edge.getEndId()))
+                matches *= this.nodeSelectivity;
+        }
+        return matches;
+    }
+
+    /**
+     * Estimate the number of matches of each TC-Query in a window, from the expected number of
+     * events of each pattern edge.
+     *
+     * @param queries the TC-Queries returned by {@link #decompose()}
+     * @return the expected number of matches, indexed by TC-Query id, null if the generator has
+     *         no edge counts
+     */
+    public double[] estimateNumMatches(ArrayList<TCQuery> queries) {
+        if (this.edgeCounts == null)
+            return null;
+        double[] numMatches = new double[queries.size()];
+        for (TCQuery query : queries)
+            numMatches[query.getId()] = estimateCost(query)[1];
+        return numMatches;
+    }
+
+    /**
+     * Select the TC-Queries covering each edge once with the least expected partial matches in
+     * total.
+     * <p>
+     * The partial matches are counted in both layers. The composition layer creates the prefixes
+     * of each TC-Query, and the join layer stores the matches of each TC-Query, unless it is the
+     * whole pattern, and creates the joined matches of the TC-Queries. Joining the TC-Queries
+     * creates about the same matches as a longer TC-Query would, so a pattern is only split where
+     * a TC-Query would start with or pass through frequent edges.
+     * </p>
+     * <p>
+     * The search picks a TC-Query for the uncovered edge of the smallest id, and memoizes the
+     * least cost of covering the remaining edges. The joins are estimated in the order the
+     * search covers the edges, as {@link #estimateJoined} of the covered edges after each join.
+     * If the pattern has too many ways to be covered, it falls back to greedily selecting the
+     * TC-Query with the least cost per edge.
+     * </p>
+     *
+     * @param subQueries all the possible TC sub-queries
+     * @return all the TC-Queries
+     */
+    ArrayList<TCQuery> selectByCost(ArrayList<TCQuery> subQueries) {
+        int numEdges = this.spatialRelation.numEdges();
+        HashMap<TCQuery, Double> costs = new HashMap<>();
+        HashMap<TCQuery, Long> masks = new HashMap<>();
+        ArrayList<TCQuery>[] candidates = (ArrayList<TCQuery>[]) new ArrayList[numEdges];
+        for (int i = 0; i < numEdges; ++i)
+            candidates[i] = new ArrayList<>();
+        for (TCQuery subQuery : subQueries) {
+            costs.put(subQuery, estimateCost(subQuery)[0]);
+            long mask = 0;
+            for (PatternEdge e : subQuery.getEdges())
+                mask |= 1L << e.getId();
+            masks.put(subQuery, mask);
+            candidates[Long.numberOfTrailingZeros(mask)].add(subQuery);
+        }
+        // prefer the longer TC-Query on a tie
+        for (ArrayList<TCQuery> list : candidates)
+            list.sort((Q1, Q2) -> (Q2.numEdges() - Q1.numEdges()));
+
+        long all = numEdges == 64 ? -1L : (1L << numEdges) - 1;
+        for (TCQuery subQuery : subQueries) {
+            if (masks.get(subQuery) != all)
+                costs.put(subQuery, costs.get(subQuery) + estimateCost(subQuery)[1]);
+        }
+        HashMap<Long, TCQuery> bestChoices = new HashMap<>();
+        if (Double.isNaN(searchCover(0, all, candidates, costs, masks, new HashMap<>(), bestChoices)))
+            return selectByCostPerEdge(subQueries, masks, all);
+
+        ArrayList<TCQuery> selectedTCQ = new ArrayList<>();
+        for (long covered = 0; covered != all; covered |= masks.get(selectedTCQ.get(selectedTCQ.size() - 1)))
+            selectedTCQ.add(bestChoices.get(covered));
+        return selectedTCQ;
+    }
+
+    /**
+     * @param costs the partial matches of each TC-Query, not counting the joins
+     * @return the least cost of covering the edges not in covered, NaN if the search is too large
+     */
+    double searchCover(long covered, long all, ArrayList<TCQuery>[] candidates, HashMap<TCQuery, Double> costs,
+                       HashMap<TCQuery, Long> masks, HashMap<Long, Double> bestCosts,
+                       HashMap<Long, TCQuery> bestChoices) {
+        if (covered == all)
+            return 0;
+        Double memo = bestCosts.get(covered);
+        if (memo != null)
+            return memo;
+        if (bestCosts.size() >= MAX_SEARCH_STATES)
+            return Double.NaN;
+
+        int edge = Long.numberOfTrailingZeros(~covered);
+        double best = Double.POSITIVE_INFINITY;
+        TCQuery bestChoice = null;
+        // the edges before it are covered, so it is the smallest edge of the TC-Query covering it
+        for (TCQuery subQuery : candidates[edge]) {
+            long mask = masks.get(subQuery);
+            if ((mask & covered) != 0)
+                continue;
+            double cost = costs.get(subQuery)
+                    + (covered == 0 ? 0 : estimateJoined(covered | mask))
+                    + searchCover(covered | mask, all, candidates, costs, masks, bestCosts, bestChoices);
+            if (Double.isNaN(cost))
+                return Double.NaN;
+            if (cost < best) {
+                best = cost;
+                bestChoice = subQuery;
+            }
+        }
+        bestCosts.put(covered, best);
+        bestChoices.put(covered, bestChoice);
+        return best;
+    }
+
+    /**
+     * Greedy select the TC-Query with the least cost per edge until all edges in the pattern are
+     * selected. The longer TC-Query is selected on a tie.
+     * <p>
+     * Without the order of the joins, the prefixes after the first edge are not counted, since
+     * joining the TC-Queries creates about the same matches. So the cost of a TC-Query is the
+     * events of its first edge and the matches stored in the join layer.
+     * </p>
+     */
+    ArrayList<TCQuery> selectByCostPerEdge(ArrayList<TCQuery> subQueries, HashMap<TCQuery, Long> masks, long all) {
+        HashMap<TCQuery, Double> costs = new HashMap<>();
+        for (TCQuery subQuery : subQueries) {
+            double cost = this.edgeCounts[subQuery.getEdges().get(0).getId()];
+            if (masks.get(subQuery) != all)
+                cost += estimateCost(subQuery)[1];
+            costs.put(subQuery, cost);
+        }
+        subQueries.sort((Q1, Q2) -> (Q2.numEdges() - Q1.numEdges()));
+        subQueries.sort(Comparator.comparingDouble(q -> costs.get(q) / q.numEdges()));
+
+        ArrayList<TCQuery> selectedTCQ = new ArrayList<>();
+        boolean[] isEdgeSelected = new boolean[this.spatialRelation.numEdges()];
+        for (TCQuery subQuery : subQueries) {
+            if (containsSelectedEdge(subQuery, isEdgeSelected))
+                continue;
+
+            for (PatternEdge e : subQuery.getEdges())
+                isEdgeSelected[e.getId()] = true;
+            selectedTCQ.add(subQuery);
+        }
+
+        return selectedTCQ;
+    }
+
+    /**
+     * Order the TC-Queries so that the rarest TC-Query comes first, and each following one is
+     * the rarest of those related to the TC-Queries before it, if any. The join layer joins the
+     * TC-Queries in this order.
+     *
+     * @param selected the selected TC-Queries
+     * @return the TC-Queries in join order
+     */
+    ArrayList<TCQuery> orderByCost(ArrayList<TCQuery> selected) {
+        HashMap<TCQuery, Double> numMatches = new HashMap<>();
+        for (TCQuery subQuery : selected)
+            numMatches.put(subQuery, estimateCost(subQuery)[1]);
+        ArrayList<TCQuery> remaining = new ArrayList<>(selected);
+        remaining.sort(Comparator.comparingDouble(numMatches::get));
+
+        ArrayList<TCQuery> ordered = new ArrayList<>();
+        while (!remaining.isEmpty()) {
+            int next = 0;
+            for (int i = 0; i < remaining.size(); ++i) {
+                if (isRelated(remaining.get(i), ordered)) {
+                    next = i;
+                    break;
+                }
+            }
+            ordered.add(remaining.remove(next));
+        }
+        return ordered;
+    }
+
+    boolean isRelated(TCQuery subQuery, ArrayList<TCQuery> others) {
+        for (TCQuery other : others) {
+            for (PatternEdge edge1 : subQuery.getEdges()) {
+                for (PatternEdge edge2 : other.getEdges()) {
+                    if (hasRelations(edge1, edge2))
+                        return true;
+                }
+            }
+        }
+        return false;
+    }
+
     /**
      * check whether two edges have any temporal or spatial relationship
      * 
@@ -7,6 +7,7 @@ import org.ipmes.EventEdge;
 import org.ipmes.decomposition.TCMatcher;
 import org.ipmes.decomposition.TCQuery;
 import org.ipmes.event.EventSorter;
+import org.ipmes.event.SignatureDict;
 import org.ipmes.join.Join;
 import org.ipmes.pattern.Pattern;
 import org.ipmes.siddhi.TCSiddhiAppGenerator;
@@ -19,7 +20,7 @@ public class CEPMatcher implements TCMatcher {
     InputHandler inputHandler;
     EventSorter sorter;
 
-    public CEPMatcher(Pattern pattern, ArrayList<TCQuery> tcQueries, long windowSize, Join join) {
+    public CEPMatcher(Pattern pattern, ArrayList<TCQuery> tcQueries, SignatureDict signatureDict, long windowSize, Join join) {
         this.join = join;
 
         TCSiddhiAppGenerator gen = new TCSiddhiAppGenerator(pattern.patternGraph, pattern.temporalRelation, tcQueries, windowSize);
@@ -39,7 +40,7 @@ public class CEPMatcher implements TCMatcher {
                     new TCQueryOutputCallback(q, pattern.patternGraph, join));
         }
 
-        this.sorter = new EventSorter(tcQueries, pattern.useRegex);
+        this.sorter = new EventSorter(tcQueries, signatureDict);
         runtime.start();
     }
 
@@ -3,46 +3,91 @@ package org.ipmes.decomposition.matcher;
 import org.ipmes.EventEdge;
 import org.ipmes.decomposition.TCMatcher;
 import org.ipmes.decomposition.TCQuery;
+import org.ipmes.event.SignatureDict;
 import org.ipmes.join.Join;
+import org.ipmes.match.BucketWindow;
 import org.ipmes.match.MatchEdge;
 import org.ipmes.match.LiteMatchResult;
 import org.ipmes.pattern.PatternEdge;
 
 import java.util.*;
-import com.google.re2j.Pattern;
 
 /**
  * This class is responsible for matching TC-Queries.
  */
 public class CustomMatcher implements TCMatcher {
+    static final int MIN_STALE_TO_REBUILD = 1024;
+
     ArrayList<PatternEdge> totalOrder;
-    boolean useRegex;
+    int[] totalOrderIds;
+    // the pattern edges indexed by id
+    PatternEdge[] patternEdges;
+    SignatureDict signatureDict;
     long windowSize;
-    ArrayList<Pattern> regexPatterns;
-    ArrayDeque<LiteMatchResult>[] buffers;
+    // buffers[i] holds the results to be extended by the i-th edge, null for the first edge of a TC-Query
+    BucketWindow<LiteMatchResult>[] buffers;
+    // the only result extended by the first edge of a TC-Query
+    List<LiteMatchResult> root;
+    // index of each buffer keyed by the data node bound to keyNodes[i], null if the buffer is not indexed
+    HashMap<Long, ArrayList<LiteMatchResult>>[] indexes;
+    // the pattern node of the next edge that is already bound by the results in buffer i, -1 if none
+    int[] keyNodes;
+    // true if keyNodes[i] is the start node of the next edge, false if it is the end node
+    boolean[] keyIsStart;
+    // the number of results in buffer i whose key node is bound to node 0, which never conflicts
+    int[] numWildcards;
+    // the number of dropped results still in the index of buffer i
+    int[] numStale;
     long[] triggerCount;
     int[] tcQueryId;
     Join join;
     int poolSize;
-    public CustomMatcher(Collection<TCQuery> tcQueries, boolean useRegex, long windowSize, Join join) {
+    // the number of partial matches dropped for leaving the window
+    long numExpired;
+    public CustomMatcher(Collection<TCQuery> tcQueries, SignatureDict signatureDict, long windowSize, Join join) {
+        this(tcQueries, signatureDict, 0, windowSize, join);
+    }
+
+    /**
+     * @param tcQueries the TC-Queries to match
+     * @param signatureDict the signature dictionary
+     * @param edgeOffset the offset of the pattern in signatureDict, see {@link SignatureDict#addPattern}
+     * @param windowSize the window size
+     * @param join the join layer
+     */
+    public CustomMatcher(Collection<TCQuery> tcQueries, SignatureDict signatureDict, int edgeOffset, long windowSize, Join join) {
         this.windowSize = windowSize;
         this.join = join;
         this.totalOrder = new ArrayList<>();
         for (TCQuery q : tcQueries) {
             totalOrder.addAll(q.getEdges());
         }
+        this.totalOrderIds = new int[totalOrder.size()];
+        int numEdges = 0;
+        for (int i = 0; i < totalOrder.size(); ++i) {
+            this.totalOrderIds[i] = edgeOffset + totalOrder.get(i).getId();
+            numEdges = Math.max(numEdges, totalOrder.get(i).getId() + 1);
+        }
+        this.patternEdges = new PatternEdge[numEdges];
+        for (PatternEdge edge : totalOrder)
+            this.patternEdges[edge.getId()] = edge;
 
         initBuffers(tcQueries);
 
-        this.useRegex = useRegex;
-        if (useRegex)
-            compileRegex();
+        this.signatureDict = signatureDict;
         this.poolSize = 0;
     }
 
     void initBuffers(Collection<TCQuery> tcQueries) {
         int len = this.totalOrder.size();
-        this.buffers = (ArrayDeque<LiteMatchResult>[]) new ArrayDeque[len];
+        this.buffers = (BucketWindow<LiteMatchResult>[]) new BucketWindow[len];
+        this.root = Collections.singletonList(new LiteMatchResult());
+        this.indexes = (HashMap<Long, ArrayList<LiteMatchResult>>[]) new HashMap[len];
+        this.keyNodes = new int[len];
+        this.keyIsStart = new boolean[len];
+        this.numWildcards = new int[len];
+        this.numStale = new int[len];
+        long granularity = BucketWindow.granularityOf(this.windowSize);
         this.tcQueryId = new int[len + 1];
         tcQueryId[len] = -1;
 
@@ -51,11 +96,27 @@ public class CustomMatcher implements TCMatcher {
 
         int cur = 0;
         for (TCQuery q : tcQueries) {
+            HashSet<Integer> boundNodes = new HashSet<>();
             for (int i = cur; i < cur + q.numEdges(); ++i) {
                 this.tcQueryId[i] = q.getId();
-                this.buffers[i] = new ArrayDeque<>();
+                if (i > cur)
+                    this.buffers[i] = new BucketWindow<>(granularity);
+
+                // results in buffer i have matched the edges before i in this TC-Query
+                PatternEdge next = this.totalOrder.get(i);
+                this.keyNodes[i] = -1;
+                if (boundNodes.contains(next.getStartId())) {
+                    this.keyNodes[i] = next.getStartId();
+                    this.keyIsStart[i] = true;
+                } else if (boundNodes.contains(next.getEndId())) {
+                    this.keyNodes[i] = next.getEndId();
+                    this.keyIsStart[i] = false;
+                }
+                if (this.keyNodes[i] != -1)
+                    this.indexes[i] = new HashMap<>();
+                boundNodes.add(next.getStartId());
+                boundNodes.add(next.getEndId());
             }
-            this.buffers[cur].add(new LiteMatchResult());
             cur += q.numEdges();
         }
     }
@@ -64,35 +125,115 @@ public class CustomMatcher implements TCMatcher {
         return this.poolSize;
     }
 
-    public void compileRegex() {
-        this.regexPatterns = new ArrayList<>();
-        for (PatternEdge edge : this.totalOrder) {
-            this.regexPatterns.add(Pattern.compile(edge.getSignature()));
-        }
+    /**
+     * @return the number of buffers, one for each edge in the total order
+     */
+    public int getNumBuffers() {
+        return this.buffers.length;
+    }
+
+    /**
+     * @return the number of results in the buffer, may be stale if read from another thread
+     */
+    public int getBufferSize(int bufferId) {
+        BucketWindow<LiteMatchResult> buffer = this.buffers[bufferId];
+        return buffer == null ? 0 : buffer.size();
+    }
+
+    public long getNumExpired() {
+        return this.numExpired;
     }
 
     void clearExpired(int bufferId, long before) {
-        ArrayDeque<LiteMatchResult> buffer = this.buffers[bufferId];
-        int cleared = 0;
-        while (!buffer.isEmpty() && buffer.peekFirst().getEarliestTime() < before) {
-            buffer.pollFirst();
-            ++cleared;
+        BucketWindow<LiteMatchResult> buffer = this.buffers[bufferId];
+        if (buffer == null)
+            return;
+        int cleared;
+        if (this.indexes[bufferId] == null) {
+            cleared = buffer.expire(before);
+        } else {
+            cleared = buffer.expire(before, expired -> removeFromIndex(bufferId, expired));
+            // the dropped results are removed from the index lazily
+            if (this.numStale[bufferId] > Math.max(MIN_STALE_TO_REBUILD, buffer.size()))
+                rebuildIndex(bufferId);
         }
         this.poolSize -= cleared;
+        this.numExpired += cleared;
+    }
+
+    /**
+     * Count the dropped result, which is left in the index until it is rebuilt.
+     */
+    void removeFromIndex(int bufferId, LiteMatchResult expired) {
+        if (expired.getNodeId(this.keyNodes[bufferId]) <= 0)
+            --this.numWildcards[bufferId];
+        else
+            ++this.numStale[bufferId];
+    }
+
+    void addToIndex(int bufferId, LiteMatchResult entry) {
+        long key = entry.getNodeId(this.keyNodes[bufferId]);
+        if (key <= 0)
+            ++this.numWildcards[bufferId];
+        else
+            this.indexes[bufferId].computeIfAbsent(key, k -> new ArrayList<>()).add(entry);
+    }
+
+    /**
+     * Rebuild the index of the buffer without the expired results.
+     */
+    void rebuildIndex(int bufferId) {
+        HashMap<Long, ArrayList<LiteMatchResult>> index = this.indexes[bufferId];
+        index.clear();
+        for (LiteMatchResult entry : this.buffers[bufferId]) {
+            long key = entry.getNodeId(this.keyNodes[bufferId]);
+            if (key > 0)
+                index.computeIfAbsent(key, k -> new ArrayList<>()).add(entry);
+        }
+        this.numStale[bufferId] = 0;
     }
 
     void putIntoBuffer(int bufferId, Collection<LiteMatchResult> newEntries) {
-        this.buffers[bufferId].addAll(newEntries);
-        int len = newEntries.size();
-        if (len > 0) {
-            this.poolSize += len;
+        BucketWindow<LiteMatchResult> buffer = this.buffers[bufferId];
+        boolean indexed = this.indexes[bufferId] != null;
+        int added = 0;
+        for (LiteMatchResult entry : newEntries) {
+            if (!buffer.add(entry.getEarliestTime(), entry))
+                continue;
+            if (indexed)
+                addToIndex(bufferId, entry);
+            ++added;
         }
+        this.poolSize += added;
+    }
+
+    /**
+     * Get the results in the buffer that may be extended by the match edge.
+     * <p>
+     * If the buffer is indexed, only the results bound to the same data node as the match
+     * edge are returned. Node 0 is treated as unbound by {@link LiteMatchResult#hasNodeConflict},
+     * so the whole buffer is returned if any result is bound to it. The results from the index
+     * may be expired.
+     * </p>
+     */
+    Iterable<LiteMatchResult> getCandidates(MatchEdge match, int bufferId) {
+        BucketWindow<LiteMatchResult> buffer = this.buffers[bufferId];
+        if (buffer == null)
+            return this.root;
+        HashMap<Long, ArrayList<LiteMatchResult>> index = this.indexes[bufferId];
+        if (index == null || this.numWildcards[bufferId] > 0)
+            return buffer;
+        long key = this.keyIsStart[bufferId] ? match.getStartId() : match.getEndId();
+        ArrayList<LiteMatchResult> bucket = index.get(key);
+        return bucket == null ? Collections.emptyList() : bucket;
     }
 
     ArrayList<LiteMatchResult> mergeWithBuffer(MatchEdge match, int bufferId) {
-        Collection<LiteMatchResult> buffer = this.buffers[bufferId];
+        BucketWindow<LiteMatchResult> buffer = this.buffers[bufferId];
         ArrayList<LiteMatchResult> merged = new ArrayList<>();
-        for (LiteMatchResult result : buffer) {
+        for (LiteMatchResult result : getCandidates(match, bufferId)) {
+            if (buffer != null && !buffer.isLive(result.getEarliestTime()))
+                continue;
             if (result.hasNodeConflict(match) || result.contains(match))
                 continue;
             merged.add(result.cloneAndAdd(match));
@@ -101,7 +242,7 @@ public class CustomMatcher implements TCMatcher {
     }
 
     void matchAgainst(Collection<EventEdge> events, int ord) {
-        if (this.buffers[ord].isEmpty())
+        if (this.buffers[ord] != null && this.buffers[ord].isEmpty())
             return;
 
         final int numEdges = this.totalOrder.size();
@@ -120,7 +261,7 @@ public class CustomMatcher implements TCMatcher {
         if (tcQueryId[ord] != tcQueryId[ord + 1]) {
             for (LiteMatchResult res : newResults)
                 if (res.checkNodeUniqueness())
-                    join.addMatchResult(res.toMatchResult(), tcQueryId[ord]);
+                    join.addMatchResult(res.toMatchResult(this.patternEdges), tcQueryId[ord]);
         } else {
             putIntoBuffer(ord + 1, newResults);
         }
@@ -131,10 +272,11 @@ public class CustomMatcher implements TCMatcher {
             return;
         EventEdge first = events.iterator().next();
         long windowBound = first.timestamp - windowSize;
-        for (int i = 0; i < this.totalOrder.size(); ++i) {
+        // expire every buffer before matching, since matching an edge adds to the next buffer
+        for (int i = 0; i < this.totalOrder.size(); ++i)
             clearExpired(i, windowBound);
+        for (int i = 0; i < this.totalOrder.size(); ++i)
             matchAgainst(events, i);
-        }
     }
 
     /**
@@ -144,9 +286,7 @@ public class CustomMatcher implements TCMatcher {
      * @return true if the signatures match, false otherwise
      */
     boolean match(int ord, EventEdge eventEdge) {
-        if (this.useRegex)
-            return regexPatterns.get(ord).matcher(eventEdge.signature).find();
-        return totalOrder.get(ord).getSignature().equals(eventEdge.signature);
+        return signatureDict.match(eventEdge.signatureId, totalOrderIds[ord]);
     }
 
     public ArrayList<long[]> getTriggerCounts() {
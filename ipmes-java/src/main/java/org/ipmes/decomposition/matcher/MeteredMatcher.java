@@ -0,0 +1,43 @@
+package org.ipmes.decomposition.matcher;
+
+import org.ipmes.EventEdge;
+import org.ipmes.decomposition.TCMatcher;
+import org.ipmes.metrics.LatencyHistogram;
+import org.ipmes.metrics.MetricsRegistry;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * MeteredMatcher counts the events sent to another matcher and records the latency of each
+ * {@link #sendAll(ArrayList)}, under the metrics {@code <prefix>.Events} and {@code <prefix>.SendAll}.
+ */
+public class MeteredMatcher implements TCMatcher {
+    TCMatcher matcher;
+    LongAdder numEvents;
+    LatencyHistogram sendAllLatency;
+
+    public MeteredMatcher(TCMatcher matcher, MetricsRegistry metrics, String prefix) {
+        this.matcher = matcher;
+        this.numEvents = metrics.counter(prefix + ".Events");
+        this.sendAllLatency = metrics.histogram(prefix + ".SendAll");
+    }
+
+    @Override
+    public void sendAll(ArrayList<EventEdge> events) throws InterruptedException {
+        long start = System.nanoTime();
+        this.matcher.sendAll(events);
+        this.sendAllLatency.record(System.nanoTime() - start);
+        this.numEvents.add(events.size());
+    }
+
+    @Override
+    public int getPoolSize() {
+        return this.matcher.getPoolSize();
+    }
+
+    @Override
+    public ArrayList<long[]> getTriggerCounts() {
+        return this.matcher.getTriggerCounts();
+    }
+}
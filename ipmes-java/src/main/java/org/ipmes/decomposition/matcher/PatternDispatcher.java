@@ -0,0 +1,78 @@
+package org.ipmes.decomposition.matcher;
+
+import org.ipmes.EventEdge;
+import org.ipmes.decomposition.TCMatcher;
+import org.ipmes.event.SignatureDict;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * PatternDispatcher routes the events to the matchers of multiple patterns.
+ * <p>
+ * The i-th matcher serves the i-th pattern added to the {@link SignatureDict}. An event
+ * is only sent to the patterns having an edge its signature matches, so the patterns
+ * share one pass of parsing while each of them only sees the events relevant to it.
+ * </p>
+ */
+public class PatternDispatcher implements TCMatcher {
+    List<TCMatcher> matchers;
+    int[] patterns;
+    SignatureDict signatureDict;
+    ArrayList<EventEdge>[] batches;
+
+    public PatternDispatcher(List<TCMatcher> matchers, SignatureDict signatureDict) {
+        this(matchers, null, signatureDict);
+    }
+
+    /**
+     * @param matchers the matchers
+     * @param patterns the index of the pattern served by each matcher in signatureDict,
+     *                 null if the i-th matcher serves the i-th pattern
+     * @param signatureDict the signature dictionary
+     */
+    public PatternDispatcher(List<TCMatcher> matchers, int[] patterns, SignatureDict signatureDict) {
+        this.matchers = matchers;
+        if (patterns == null) {
+            patterns = new int[matchers.size()];
+            for (int i = 0; i < patterns.length; ++i)
+                patterns[i] = i;
+        }
+        this.patterns = patterns;
+        this.signatureDict = signatureDict;
+        this.batches = (ArrayList<EventEdge>[]) new ArrayList[matchers.size()];
+        for (int i = 0; i < matchers.size(); ++i)
+            this.batches[i] = new ArrayList<>();
+    }
+
+    public void sendAll(ArrayList<EventEdge> events) throws InterruptedException {
+        if (events.isEmpty())
+            return;
+        for (EventEdge event : events) {
+            for (int i = 0; i < this.batches.length; ++i) {
+                if (this.signatureDict.matchPattern(event.signatureId, this.patterns[i]))
+                    this.batches[i].add(event);
+            }
+        }
+        for (int i = 0; i < this.batches.length; ++i) {
+            if (this.batches[i].isEmpty())
+                continue;
+            this.matchers.get(i).sendAll(this.batches[i]);
+            this.batches[i].clear();
+        }
+    }
+
+    public int getPoolSize() {
+        int poolSize = 0;
+        for (TCMatcher matcher : this.matchers)
+            poolSize += matcher.getPoolSize();
+        return poolSize;
+    }
+
+    public ArrayList<long[]> getTriggerCounts() {
+        ArrayList<long[]> triggerCounts = new ArrayList<>();
+        for (TCMatcher matcher : this.matchers)
+            triggerCounts.addAll(matcher.getTriggerCounts());
+        return triggerCounts;
+    }
+}
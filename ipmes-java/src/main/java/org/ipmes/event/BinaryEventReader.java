@@ -0,0 +1,176 @@
+package org.ipmes.event;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * BinaryEventReader reads the data graph in the binary format written by {@link BinaryEventWriter}.
+ * <p>
+ * The file starts with a header holding the signature table, followed by blocks of events. Each
+ * block stores its events column by column: start times, end times, signature indices, edge ids,
+ * start node ids and end node ids. All numbers are fixed-width and little-endian, so a block is
+ * decoded with bulk copies into primitive arrays.
+ * </p>
+ * <pre>
+ * header: "IPMESBIN" | int version | int numSignatures | (int length | utf-8 bytes) * numSignatures
+ * block:  int n | long[n] startTime | long[n] endTime | int[n] signature | long[n] edgeId
+ *         | long[n] startId | long[n] endId
+ * </pre>
+ * <p>
+ * Signatures in the table are interned into the sender's {@link SignatureDict} once, so the
+ * signatures are evaluated once per distinct signature, not once per event.
+ * </p>
+ */
+public class BinaryEventReader implements EventReader {
+    public static final String EXTENSION = ".bin";
+    static final byte[] MAGIC = "IPMESBIN".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 1;
+    static final int BLOCK_SIZE = 4096;
+    static final int BYTES_PER_EVENT = 5 * Long.BYTES + Integer.BYTES;
+
+    FileChannel channel;
+    ByteBuffer buffer;
+    ArrayList<String> signatureTable;
+    SignatureDict mappedDict;
+    int[] sigIdMap;
+
+    // current block
+    int blockLen;
+    int blockPos;
+    long[] startTimes;
+    long[] endTimes;
+    int[] signatures;
+    long[] edgeIds;
+    long[] startIds;
+    long[] endIds;
+
+    public BinaryEventReader(String path) throws IOException {
+        this.channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        this.buffer = ByteBuffer.allocateDirect(Integer.BYTES + BLOCK_SIZE * BYTES_PER_EVENT)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        readHeader();
+
+        this.startTimes = new long[BLOCK_SIZE];
+        this.endTimes = new long[BLOCK_SIZE];
+        this.signatures = new int[BLOCK_SIZE];
+        this.edgeIds = new long[BLOCK_SIZE];
+        this.startIds = new long[BLOCK_SIZE];
+        this.endIds = new long[BLOCK_SIZE];
+        this.blockLen = 0;
+        this.blockPos = 0;
+    }
+
+    /**
+     * Read exactly len bytes from the channel into the buffer, and flip the buffer for reading.
+     * @return false if the channel is at the end, true otherwise
+     */
+    boolean fill(int len) throws IOException {
+        this.buffer.clear().limit(len);
+        while (this.buffer.hasRemaining()) {
+            if (this.channel.read(this.buffer) < 0) {
+                if (this.buffer.position() == 0)
+                    return false;
+                throw new EOFException("Truncated binary data graph");
+            }
+        }
+        this.buffer.flip();
+        return true;
+    }
+
+    void readHeader() throws IOException {
+        if (!fill(MAGIC.length + 2 * Integer.BYTES))
+            throw new IOException("Empty binary data graph");
+        byte[] magic = new byte[MAGIC.length];
+        this.buffer.get(magic);
+        int version = this.buffer.getInt();
+        if (!Arrays.equals(magic, MAGIC) || version != VERSION)
+            throw new IOException("Not a binary data graph of version " + VERSION);
+
+        int numSignatures = this.buffer.getInt();
+        this.signatureTable = new ArrayList<>(numSignatures);
+        for (int i = 0; i < numSignatures; ++i) {
+            if (!fill(Integer.BYTES))
+                throw new EOFException("Truncated signature table");
+            int len = this.buffer.getInt();
+            byte[] bytes = new byte[len];
+            int read = 0;
+            while (read < len) {
+                int chunk = Math.min(len - read, this.buffer.capacity());
+                if (!fill(chunk))
+                    throw new EOFException("Truncated signature table");
+                this.buffer.get(bytes, read, chunk);
+                read += chunk;
+            }
+            this.signatureTable.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+    }
+
+    boolean readBlock() throws IOException {
+        if (!fill(Integer.BYTES))
+            return false;
+        int n = this.buffer.getInt();
+        if (n < 0 || n > BLOCK_SIZE)
+            throw new IOException("Corrupted block size: " + n);
+        if (!fill(n * BYTES_PER_EVENT))
+            throw new EOFException("Truncated binary data graph");
+
+        this.buffer.asLongBuffer().get(this.startTimes, 0, n);
+        this.buffer.position(this.buffer.position() + n * Long.BYTES);
+        this.buffer.asLongBuffer().get(this.endTimes, 0, n);
+        this.buffer.position(this.buffer.position() + n * Long.BYTES);
+        this.buffer.asIntBuffer().get(this.signatures, 0, n);
+        this.buffer.position(this.buffer.position() + n * Integer.BYTES);
+        this.buffer.asLongBuffer().get(this.edgeIds, 0, n);
+        this.buffer.position(this.buffer.position() + n * Long.BYTES);
+        this.buffer.asLongBuffer().get(this.startIds, 0, n);
+        this.buffer.position(this.buffer.position() + n * Long.BYTES);
+        this.buffer.asLongBuffer().get(this.endIds, 0, n);
+
+        this.blockLen = n;
+        this.blockPos = 0;
+        return true;
+    }
+
+    /**
+     * Map the indices of the signature table to the ids in the given dictionary.
+     */
+    void mapSignatures(SignatureDict dict) {
+        this.sigIdMap = new int[this.signatureTable.size()];
+        for (int i = 0; i < this.sigIdMap.length; ++i)
+            this.sigIdMap[i] = dict.intern(this.signatureTable.get(i));
+        this.mappedDict = dict;
+    }
+
+    public boolean sendNext(EventSender sender) throws IOException, InterruptedException {
+        while (this.blockPos >= this.blockLen) {
+            if (!readBlock())
+                return false;
+        }
+        if (this.mappedDict != sender.getSignatureDict())
+            mapSignatures(sender.getSignatureDict());
+
+        int i = this.blockPos++;
+        sender.sendEvent(startTimes[i], endTimes[i], sigIdMap[signatures[i]], edgeIds[i], startIds[i], endIds[i]);
+        return true;
+    }
+
+    /**
+     * @return the signature table in the header
+     */
+    public ArrayList<String> getSignatureTable() {
+        return this.signatureTable;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+}
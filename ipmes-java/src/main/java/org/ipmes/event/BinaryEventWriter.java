@@ -0,0 +1,164 @@
+package org.ipmes.event;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * BinaryEventWriter writes events in the binary format read by {@link BinaryEventReader}.
+ * <p>
+ * The signature table is only complete after all events are written, but it is stored in the
+ * header. So the blocks are written to a temporary file first, and {@link #close()} writes the
+ * header to the output and appends the blocks after it.
+ * </p>
+ */
+public class BinaryEventWriter implements AutoCloseable {
+    Path outputPath;
+    Path blockPath;
+    FileChannel blockChannel;
+    ByteBuffer buffer;
+    SignatureDict signatureDict;
+    long numEvents;
+
+    // current block
+    int blockLen;
+    long[] startTimes;
+    long[] endTimes;
+    int[] signatures;
+    long[] edgeIds;
+    long[] startIds;
+    long[] endIds;
+
+    /**
+     * @param path the output path
+     * @param signatureDict the dictionary the signature ids passed to {@link #write} come from
+     */
+    public BinaryEventWriter(String path, SignatureDict signatureDict) throws IOException {
+        this.outputPath = Paths.get(path);
+        this.blockPath = Paths.get(path + ".blocks");
+        this.blockChannel = FileChannel.open(this.blockPath,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.buffer = ByteBuffer.allocateDirect(Integer.BYTES + BinaryEventReader.BLOCK_SIZE * BinaryEventReader.BYTES_PER_EVENT)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        this.signatureDict = signatureDict;
+        this.numEvents = 0;
+
+        int len = BinaryEventReader.BLOCK_SIZE;
+        this.startTimes = new long[len];
+        this.endTimes = new long[len];
+        this.signatures = new int[len];
+        this.edgeIds = new long[len];
+        this.startIds = new long[len];
+        this.endIds = new long[len];
+        this.blockLen = 0;
+    }
+
+    public void write(long startTime, long endTime, int signatureId, long edgeId, long startId, long endId)
+            throws IOException {
+        int i = this.blockLen++;
+        this.startTimes[i] = startTime;
+        this.endTimes[i] = endTime;
+        this.signatures[i] = signatureId;
+        this.edgeIds[i] = edgeId;
+        this.startIds[i] = startId;
+        this.endIds[i] = endId;
+        ++this.numEvents;
+        if (this.blockLen == BinaryEventReader.BLOCK_SIZE)
+            flushBlock();
+    }
+
+    void flushBlock() throws IOException {
+        if (this.blockLen == 0)
+            return;
+        int n = this.blockLen;
+        this.buffer.clear();
+        this.buffer.putInt(n);
+        this.buffer.asLongBuffer().put(this.startTimes, 0, n);
+        this.buffer.position(this.buffer.position() + n * Long.BYTES);
+        this.buffer.asLongBuffer().put(this.endTimes, 0, n);
+        this.buffer.position(this.buffer.position() + n * Long.BYTES);
+        this.buffer.asIntBuffer().put(this.signatures, 0, n);
+        this.buffer.position(this.buffer.position() + n * Integer.BYTES);
+        this.buffer.asLongBuffer().put(this.edgeIds, 0, n);
+        this.buffer.position(this.buffer.position() + n * Long.BYTES);
+        this.buffer.asLongBuffer().put(this.startIds, 0, n);
+        this.buffer.position(this.buffer.position() + n * Long.BYTES);
+        this.buffer.asLongBuffer().put(this.endIds, 0, n);
+        this.buffer.position(this.buffer.position() + n * Long.BYTES);
+        this.buffer.flip();
+        while (this.buffer.hasRemaining())
+            this.blockChannel.write(this.buffer);
+        this.blockLen = 0;
+    }
+
+    ByteBuffer encodeHeader() {
+        ArrayList<byte[]> table = new ArrayList<>();
+        int len = BinaryEventReader.MAGIC.length + 2 * Integer.BYTES;
+        for (int i = 0; i < this.signatureDict.size(); ++i) {
+            byte[] bytes = this.signatureDict.getSignature(i).getBytes(StandardCharsets.UTF_8);
+            table.add(bytes);
+            len += Integer.BYTES + bytes.length;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(len).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(BinaryEventReader.MAGIC);
+        header.putInt(BinaryEventReader.VERSION);
+        header.putInt(table.size());
+        for (byte[] bytes : table) {
+            header.putInt(bytes.length);
+            header.put(bytes);
+        }
+        header.flip();
+        return header;
+    }
+
+    /**
+     * @return the number of events written
+     */
+    public long getNumEvents() {
+        return this.numEvents;
+    }
+
+    @Override
+    public void close() throws IOException {
+        flushBlock();
+        this.blockChannel.close();
+        try (FileChannel out = FileChannel.open(this.outputPath,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             FileChannel blocks = FileChannel.open(this.blockPath, StandardOpenOption.READ)) {
+            ByteBuffer header = encodeHeader();
+            while (header.hasRemaining())
+                out.write(header);
+            long size = blocks.size();
+            long pos = 0;
+            while (pos < size)
+                pos += blocks.transferTo(pos, size - pos, out);
+        } finally {
+            Files.deleteIfExists(this.blockPath);
+        }
+    }
+
+    /**
+     * Convert a data graph in csv format into the binary format.
+     * @param csvPath path to the csv data graph
+     * @param binaryPath path to the output
+     * @return the number of events converted
+     */
+    public static long convert(String csvPath, String binaryPath) throws IOException {
+        SignatureDict dict = new SignatureDict(new ArrayList<>(), false);
+        try (MappedEventReader reader = new MappedEventReader(csvPath);
+             BinaryEventWriter writer = new BinaryEventWriter(binaryPath, dict)) {
+            while (reader.next(dict))
+                writer.write(reader.startTime, reader.endTime, reader.signatureId,
+                        reader.edgeId, reader.startId, reader.endId);
+            return writer.getNumEvents();
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package org.ipmes.event;
+
+import com.google.re2j.Matcher;
+import com.google.re2j.Pattern;
+import org.ipmes.match.FullMatch;
+import org.ipmes.pattern.PatternEdge;
+import org.ipmes.pattern.TemporalRelation;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * EventGenerator generates a synthetic data graph, with instances of a pattern injected into
+ * random background events.
+ * <p>
+ * The background events arrive at a fixed rate. Their signatures are drawn from a Zipf
+ * distribution over {@link Config#numSignatures} signatures, or from the signatures of the
+ * pattern edges with probability {@link Config#patternRatio}, and their nodes are drawn uniformly
+ * from {@link Config#numNodes} nodes. A fraction of them are interval events.
+ * </p>
+ * <p>
+ * Each injected instance has its own nodes, numbered above the background nodes, and its events
+ * follow a random order consistent with the temporal relation of the pattern, within
+ * {@link Config#instanceSpan} ms. So every instance is a match of the pattern as long as the
+ * span is shorter than the window, and {@link #getInstances()} is the ground truth the matches
+ * can be checked against. The same config and seed always generate the same events.
+ * </p>
+ */
+public class EventGenerator {
+    public static class Config {
+        // the number of background events
+        public long numEvents = 1000000;
+        // background events per second
+        public double rate = 1000;
+        public int numNodes = 10000;
+        public int numSignatures = 100;
+        // the exponent of the Zipf distribution of the background signatures, 0 for uniform
+        public double zipfExponent = 1;
+        // the fraction of background events that are interval events
+        public double intervalRatio = 0;
+        // the maximum duration (ms) of an interval event
+        public long maxDuration = 1000;
+        // the fraction of background events using the signatures of the pattern edges
+        public double patternRatio = 0.01;
+        public int numInstances = 0;
+        // the time (ms) between the first and last event of an instance
+        public long instanceSpan = 1000;
+        public long seed = 0;
+        // the timestamp (ms) of the first event
+        public long startTime = 1600000000000L;
+    }
+
+    /**
+     * Receives the generated events, in the order of the start time.
+     * It has the shape of {@link BinaryEventWriter#write} and {@link EventSender#sendEvent}.
+     */
+    public interface EventConsumer {
+        void accept(long startTime, long endTime, int signatureId, long edgeId, long startId, long endId)
+                throws IOException, InterruptedException;
+    }
+
+    Config config;
+    SignatureDict dict;
+    Random random;
+    int[] backgroundSigs;
+    double[] zipfCdf;
+
+    // pattern edges, indexed by the position in the pattern
+    int[] patternSigs;
+    int[] patternIds;
+    int[] edgeStarts;
+    int[] edgeEnds;
+    int numPatternNodes;
+    TemporalRelation temporalRelation;
+
+    ArrayList<FullMatch> instances;
+
+    /**
+     * @param config the parameters of the generated graph
+     * @param dict the dictionary to intern the signatures with
+     * @param patternEdges the edges of the pattern to inject, null to generate background events only
+     * @param temporalRelation the temporal relation of the pattern
+     * @param useRegex the signatures of the pattern edges are regex
+     * @throws IllegalArgumentException if no signature matching a pattern edge can be synthesized
+     */
+    public EventGenerator(Config config, SignatureDict dict, ArrayList<PatternEdge> patternEdges,
+                          TemporalRelation temporalRelation, boolean useRegex) {
+        this.config = config;
+        this.dict = dict;
+        this.random = new Random(config.seed);
+        this.instances = new ArrayList<>();
+
+        this.backgroundSigs = new int[config.numSignatures];
+        this.zipfCdf = new double[config.numSignatures];
+        double sum = 0;
+        for (int i = 0; i < config.numSignatures; ++i) {
+            this.backgroundSigs[i] = dict.intern(backgroundSignature(i));
+            sum += 1 / Math.pow(i + 1, config.zipfExponent);
+            this.zipfCdf[i] = sum;
+        }
+        for (int i = 0; i < config.numSignatures; ++i)
+            this.zipfCdf[i] /= sum;
+
+        if (patternEdges == null)
+            patternEdges = new ArrayList<>();
+        int n = patternEdges.size();
+        this.patternSigs = new int[n];
+        this.patternIds = new int[n];
+        this.edgeStarts = new int[n];
+        this.edgeEnds = new int[n];
+        this.temporalRelation = temporalRelation;
+        HashMap<Integer, Integer> nodeIndex = new HashMap<>();
+        for (int i = 0; i < n; ++i) {
+            PatternEdge edge = patternEdges.get(i);
+            String signature = useRegex ? synthesize(edge.getSignature()) : edge.getSignature();
+            this.patternSigs[i] = dict.intern(signature);
+            this.patternIds[i] = edge.getId();
+            this.edgeStarts[i] = nodeIndex.computeIfAbsent(edge.getStartId(), k -> nodeIndex.size());
+            this.edgeEnds[i] = nodeIndex.computeIfAbsent(edge.getEndId(), k -> nodeIndex.size());
+        }
+        this.numPatternNodes = nodeIndex.size();
+    }
+
+    static String backgroundSignature(int i) {
+        return "op" + i + "#Process::p" + i + "#Artifact::file::f" + i;
+    }
+
+    /**
+     * Synthesize a signature matching the regex of a pattern edge, by replacing the wildcards
+     * with a character and removing the anchors and escapes.
+     */
+    static String synthesize(String regex) {
+        String signature = regex.replace(".*", "x")
+                .replace(".+", "x")
+                .replace("^", "")
+                .replace("$", "")
+                .replaceAll("\\\\(.)", "$1");
+        Matcher matcher = Pattern.compile(regex).matcher(signature);
+        if (!matcher.find())
+            throw new IllegalArgumentException("Cannot synthesize a signature for " + regex);
+        return signature;
+    }
+
+    int drawSignature() {
+        if (this.patternSigs.length > 0 && this.random.nextDouble() < this.config.patternRatio)
+            return this.patternSigs[this.random.nextInt(this.patternSigs.length)];
+        int i = Arrays.binarySearch(this.zipfCdf, this.random.nextDouble());
+        if (i < 0)
+            i = -i - 1;
+        return this.backgroundSigs[Math.min(i, this.backgroundSigs.length - 1)];
+    }
+
+    /**
+     * @return a random order of the pattern edges consistent with the temporal relation
+     */
+    int[] drawOrder() {
+        int n = this.patternIds.length;
+        HashMap<Integer, Integer> position = new HashMap<>();
+        for (int i = 0; i < n; ++i)
+            position.put(this.patternIds[i], i);
+        int[] numParents = new int[n];
+        for (int i = 0; i < n; ++i) {
+            for (int parent : this.temporalRelation.getParents(this.patternIds[i])) {
+                if (parent >= 0)
+                    ++numParents[i];
+            }
+        }
+        ArrayList<Integer> ready = new ArrayList<>();
+        for (int i = 0; i < n; ++i) {
+            if (numParents[i] == 0)
+                ready.add(i);
+        }
+        int[] order = new int[n];
+        for (int k = 0; k < n; ++k) {
+            int i = ready.remove(this.random.nextInt(ready.size()));
+            order[k] = i;
+            for (int child : this.temporalRelation.getChildren(this.patternIds[i])) {
+                Integer c = position.get(child);
+                if (c != null && --numParents[c] == 0)
+                    ready.add(c);
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Generate all events into the consumer. The edge ids are numbered from 1 in the order of
+     * the events.
+     */
+    public void generate(EventConsumer consumer) throws IOException, InterruptedException {
+        Config config = this.config;
+        long duration = Math.max(1, Math.round(config.numEvents * 1000 / config.rate));
+        int numEdges = this.patternIds.length;
+        int numInjected = numEdges == 0 ? 0 : config.numInstances;
+
+        // the injected events, sorted by time: [time, pattern position, instance]
+        long[][] injected = new long[numInjected * numEdges][];
+        long gap = Math.max(1, config.instanceSpan / Math.max(1, numEdges - 1));
+        for (int k = 0; k < numInjected; ++k) {
+            long anchor = config.startTime + duration * k / numInjected;
+            int[] order = drawOrder();
+            for (int j = 0; j < numEdges; ++j)
+                injected[k * numEdges + j] = new long[]{anchor + j * gap, order[j], k};
+            this.instances.add(new FullMatch(numEdges));
+        }
+        Arrays.sort(injected, (a, b) -> Long.compare(a[0], b[0]));
+
+        long edgeId = 1;
+        int next = 0;
+        for (long i = 0; i < config.numEvents; ++i) {
+            long time = config.startTime + Math.round(i * 1000 / config.rate);
+            for (; next < injected.length && injected[next][0] <= time; ++next)
+                inject(consumer, injected[next], edgeId++);
+
+            int signature = drawSignature();
+            long startId = 1 + this.random.nextInt(config.numNodes);
+            long endId = 1 + this.random.nextInt(config.numNodes);
+            long endTime = time;
+            if (this.random.nextDouble() < config.intervalRatio)
+                endTime += 1 + (long) (this.random.nextDouble() * config.maxDuration);
+            consumer.accept(time, endTime, signature, edgeId++, startId, endId);
+        }
+        for (; next < injected.length; ++next)
+            inject(consumer, injected[next], edgeId++);
+    }
+
+    void inject(EventConsumer consumer, long[] event, long edgeId) throws IOException, InterruptedException {
+        int i = (int) event[1];
+        int k = (int) event[2];
+        long base = this.config.numNodes + 1 + (long) k * this.numPatternNodes;
+        consumer.accept(event[0], event[0], this.patternSigs[i], edgeId,
+                base + this.edgeStarts[i], base + this.edgeEnds[i]);
+        this.instances.get(k).set(this.patternIds[i], edgeId, event[0]);
+    }
+
+    /**
+     * @return the number of events of an injected instance
+     */
+    public int getPatternSize() {
+        return this.patternIds.length;
+    }
+
+    /**
+     * @return the injected instances, complete after {@link #generate} returns
+     */
+    public ArrayList<FullMatch> getInstances() {
+        return this.instances;
+    }
+
+    /**
+     * @return a consumer writing the events in the preprocessed csv format
+     */
+    public static EventConsumer csvWriter(Writer out, SignatureDict dict) {
+        StringBuilder line = new StringBuilder();
+        return (startTime, endTime, signatureId, edgeId, startId, endId) -> {
+            line.setLength(0);
+            appendTimestamp(line, startTime).append(',');
+            appendTimestamp(line, endTime).append(',');
+            line.append(dict.getSignature(signatureId)).append(',')
+                    .append(edgeId).append(',')
+                    .append(startId).append(',')
+                    .append(endId).append('\n');
+            out.append(line);
+        };
+    }
+
+    static StringBuilder appendTimestamp(StringBuilder line, long millis) {
+        long ms = millis % 1000;
+        line.append(millis / 1000).append('.');
+        if (ms < 100)
+            line.append('0');
+        if (ms < 10)
+            line.append('0');
+        return line.append(ms);
+    }
+}
@@ -0,0 +1,140 @@
+package org.ipmes.event;
+
+import org.ipmes.EventEdge;
+
+import java.util.Arrays;
+
+/**
+ * EventQueue orders the buffered events by timestamp.
+ * <p>
+ * The start events mostly arrive in the order of their timestamps, so they are appended to a
+ * FIFO ring and never compared. The end events, and the start events arriving out of order, go
+ * into a binary min-heap keyed by a primitive long timestamp, with the events in a parallel array.
+ * Polling takes the earlier head of the two.
+ * </p>
+ */
+class EventQueue {
+    static final int INITIAL_CAPACITY = 64;
+
+    // the ring of in-order start events
+    EventEdge[] fifo;
+    int fifoHead;
+    int fifoSize;
+    long fifoLast;
+    // the heap of the other events
+    long[] heapKeys;
+    EventEdge[] heapEvents;
+    int heapSize;
+
+    EventQueue() {
+        this.fifo = new EventEdge[INITIAL_CAPACITY];
+        this.fifoHead = 0;
+        this.fifoSize = 0;
+        this.fifoLast = Long.MIN_VALUE;
+        this.heapKeys = new long[INITIAL_CAPACITY];
+        this.heapEvents = new EventEdge[INITIAL_CAPACITY];
+        this.heapSize = 0;
+    }
+
+    /**
+     * Add an event that is usually not earlier than the start events added before.
+     */
+    void addStart(EventEdge event) {
+        if (event.timestamp < this.fifoLast) {
+            addEnd(event);
+            return;
+        }
+        if (this.fifoSize == this.fifo.length) {
+            EventEdge[] fifo = new EventEdge[this.fifo.length * 2];
+            for (int i = 0; i < this.fifoSize; ++i)
+                fifo[i] = this.fifo[(this.fifoHead + i) & (this.fifo.length - 1)];
+            this.fifo = fifo;
+            this.fifoHead = 0;
+        }
+        this.fifo[(this.fifoHead + this.fifoSize) & (this.fifo.length - 1)] = event;
+        ++this.fifoSize;
+        this.fifoLast = event.timestamp;
+    }
+
+    /**
+     * Add an event in any order.
+     */
+    void addEnd(EventEdge event) {
+        if (this.heapSize == this.heapKeys.length) {
+            this.heapKeys = Arrays.copyOf(this.heapKeys, this.heapSize * 2);
+            this.heapEvents = Arrays.copyOf(this.heapEvents, this.heapSize * 2);
+        }
+        long key = event.timestamp;
+        int i = this.heapSize++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (this.heapKeys[parent] <= key)
+                break;
+            this.heapKeys[i] = this.heapKeys[parent];
+            this.heapEvents[i] = this.heapEvents[parent];
+            i = parent;
+        }
+        this.heapKeys[i] = key;
+        this.heapEvents[i] = event;
+    }
+
+    boolean isEmpty() {
+        return this.fifoSize == 0 && this.heapSize == 0;
+    }
+
+    int size() {
+        return this.fifoSize + this.heapSize;
+    }
+
+    /**
+     * @return the earliest timestamp, Long.MAX_VALUE if the queue is empty
+     */
+    long peekTimestamp() {
+        long fifoTs = this.fifoSize == 0 ? Long.MAX_VALUE : this.fifo[this.fifoHead].timestamp;
+        long heapTs = this.heapSize == 0 ? Long.MAX_VALUE : this.heapKeys[0];
+        return Math.min(fifoTs, heapTs);
+    }
+
+    /**
+     * Remove and return the earliest event, the queue must not be empty.
+     */
+    EventEdge poll() {
+        if (this.heapSize == 0 || (this.fifoSize > 0 && this.fifo[this.fifoHead].timestamp <= this.heapKeys[0]))
+            return pollFifo();
+        return pollHeap();
+    }
+
+    EventEdge pollFifo() {
+        EventEdge event = this.fifo[this.fifoHead];
+        this.fifo[this.fifoHead] = null;
+        this.fifoHead = (this.fifoHead + 1) & (this.fifo.length - 1);
+        --this.fifoSize;
+        return event;
+    }
+
+    EventEdge pollHeap() {
+        EventEdge top = this.heapEvents[0];
+        int n = --this.heapSize;
+        long key = this.heapKeys[n];
+        EventEdge event = this.heapEvents[n];
+        this.heapEvents[n] = null;
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= n)
+                break;
+            if (child + 1 < n && this.heapKeys[child + 1] < this.heapKeys[child])
+                ++child;
+            if (key <= this.heapKeys[child])
+                break;
+            this.heapKeys[i] = this.heapKeys[child];
+            this.heapEvents[i] = this.heapEvents[child];
+            i = child;
+        }
+        if (n > 0) {
+            this.heapKeys[i] = key;
+            this.heapEvents[i] = event;
+        }
+        return top;
+    }
+}
@@ -0,0 +1,30 @@
+package org.ipmes.event;
+
+import java.io.IOException;
+
+/**
+ * The abstract interface for readers of the preprocessed data graph.
+ */
+public interface EventReader extends AutoCloseable {
+    /**
+     * Read the next event and send it to the sender.
+     * @param sender the event sender
+     * @return false if the end of the input is reached, true otherwise
+     */
+    boolean sendNext(EventSender sender) throws IOException, InterruptedException;
+
+    void close() throws IOException;
+
+    /**
+     * Open a reader for the data graph. The format is decided by the file extension: files
+     * ending with {@link BinaryEventReader#EXTENSION} are read as the binary format, the
+     * others are read as csv.
+     * @param path path to the data graph
+     * @return the reader
+     */
+    static EventReader open(String path) throws IOException {
+        if (path.endsWith(BinaryEventReader.EXTENSION))
+            return new BinaryEventReader(path);
+        return new MappedEventReader(path);
+    }
+}
@@ -3,32 +3,73 @@ package org.ipmes.event;
 import org.ipmes.EventEdge;
 import org.ipmes.decomposition.TCMatcher;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.PriorityQueue;
 
 /**
  * EventSender handles the sending and buffering of events.
  * <p>
  * Since the input event's time is an interval, we duplicate the event into
  * 2 events with the original start time and end time as their timestamp
- * respectively. Because the input is sorted by the start time, we can be
- * sure that the events prior to current start time can be sent.
+ * respectively. The input is expected to be sorted by the start time, but
+ * may be out of order up to a lateness bound. So the events prior to the
+ * latest start time minus the lateness can be sent.
  * </p>
  * <p>
  * Also, we will re-order and filter the events with the same timestamp
  * by the total order of pattern, so CEP won't need to worry about the
  * out-of-order events.
  * </p>
+ * <p>
+ * The time before which all events are sent is the watermark. The events arriving with a start
+ * time before the watermark are late, they are counted and dropped, since the batches they
+ * belong to are already sent. When the input is a stream, {@link #advanceWatermark(long)} can
+ * release the held events earlier, e.g. when the stream is idle.
+ * </p>
+ * <p>
+ * The events whose signature matches no pattern edge are dropped right away, they still move
+ * the time forward but are never buffered.
+ * </p>
+ * <p>
+ * The events are recycled after their batch is sent, so the matchers must not keep them after
+ * {@link TCMatcher#sendAll} returns.
+ * </p>
  */
 public class EventSender {
     TCMatcher tcMatcher;
+    SignatureDict signatureDict;
     ArrayList<EventEdge> timeBuffer;
-    PriorityQueue<EventEdge> eventPriorityQueue;
-    public EventSender(TCMatcher matcher) {
+    EventQueue eventQueue;
+    // the events whose batch is sent, reused for new events
+    ArrayDeque<EventEdge> freeEvents;
+    // the events may arrive this much (ms) later than an event with a later start time
+    long lateness;
+    // all the events before the watermark are sent
+    long watermark;
+    long latestStartTime;
+    long numLateEvents;
+    long numIrrelevantEvents;
+    public EventSender(TCMatcher matcher, SignatureDict signatureDict) {
+        this(matcher, signatureDict, 0);
+    }
+
+    /**
+     * @param matcher the matcher receiving the batches
+     * @param signatureDict the signature dictionary
+     * @param lateness how much (ms) an event may arrive later than an event with a later start time,
+     *                 the events are held this long to be sent in order
+     */
+    public EventSender(TCMatcher matcher, SignatureDict signatureDict, long lateness) {
+        this.lateness = lateness;
         this.tcMatcher = matcher;
+        this.signatureDict = signatureDict;
         this.timeBuffer = new ArrayList<>();
-        this.eventPriorityQueue = new PriorityQueue<>(Comparator.comparingLong(e -> e.timestamp));
+        this.eventQueue = new EventQueue();
+        this.freeEvents = new ArrayDeque<>();
+        this.watermark = Long.MIN_VALUE;
+        this.latestStartTime = Long.MIN_VALUE;
+        this.numLateEvents = 0;
+        this.numIrrelevantEvents = 0;
     }
 
     public static long parseTimestamp(String tsStr) {
@@ -36,6 +77,10 @@ public class EventSender {
         return Math.round(toNum * 1000);
     }
 
+    public SignatureDict getSignatureDict() {
+        return this.signatureDict;
+    }
+
     /**
      * Sends the given line. The line is preprocessed csv format of the original event data.
      * @param line the csv row
@@ -44,18 +89,51 @@ public class EventSender {
         String[] fields = line.split(",");
         long startTime   = parseTimestamp(fields[0]);
         long endTime     = parseTimestamp(fields[1]);
-        String signature = fields[2];
+        int signatureId  = signatureDict.intern(fields[2]);
         long edgeId      = Long.parseLong(fields[3]);
         long startId     = Long.parseLong(fields[4]);
         long endId       = Long.parseLong(fields[5]);
+        sendEvent(startTime, endTime, signatureId, edgeId, startId, endId);
+    }
 
-        EventEdge startEvent = new EventEdge(startTime, signature, edgeId, startId, endId);
-        this.eventPriorityQueue.add(startEvent);
-        if (startTime != endTime) {
-            EventEdge endEvent = new EventEdge(endTime, signature, edgeId, startId, endId);
-            this.eventPriorityQueue.add(endEvent);
+    /**
+     * Sends an event whose fields are already parsed.
+     * @param startTime the start time in milliseconds
+     * @param endTime the end time in milliseconds
+     * @param signatureId the signature id returned by {@link SignatureDict}
+     * @param edgeId the edge id
+     * @param startId the id of the start node
+     * @param endId the id of the end node
+     */
+    public void sendEvent(long startTime, long endTime, int signatureId, long edgeId, long startId, long endId)
+            throws InterruptedException {
+        boolean relevant = this.signatureDict.isRelevant(signatureId);
+        if (relevant && startTime < this.watermark) {
+            ++this.numLateEvents;
+            return;
+        }
+        this.latestStartTime = Math.max(this.latestStartTime, startTime);
+        if (!relevant) {
+            ++this.numIrrelevantEvents;
+            advanceWatermark(this.latestStartTime - this.lateness);
+            return;
         }
-        popQueueUntil(startTime);
+        this.eventQueue.addStart(newEvent(startTime, signatureId, edgeId, startId, endId));
+        if (startTime != endTime)
+            this.eventQueue.addEnd(newEvent(endTime, signatureId, edgeId, startId, endId));
+        advanceWatermark(this.latestStartTime - this.lateness);
+    }
+
+    EventEdge newEvent(long timestamp, int signatureId, long edgeId, long startId, long endId) {
+        EventEdge event = this.freeEvents.pollLast();
+        if (event == null)
+            return new EventEdge(timestamp, signatureId, edgeId, startId, endId);
+        event.timestamp = timestamp;
+        event.signatureId = signatureId;
+        event.edgeId = edgeId;
+        event.startId = startId;
+        event.endId = endId;
+        return event;
     }
 
     /**
@@ -63,8 +141,8 @@ public class EventSender {
      * @param time the timestamp
      */
     void popQueueUntil(long time) throws InterruptedException {
-        while (!eventPriorityQueue.isEmpty() && eventPriorityQueue.peek().timestamp < time) {
-            EventEdge event = eventPriorityQueue.poll();
+        while (!eventQueue.isEmpty() && eventQueue.peekTimestamp() < time) {
+            EventEdge event = eventQueue.poll();
             if (!timeBuffer.isEmpty() && event.timestamp != timeBuffer.get(0).timestamp) {
                 flushTimeBuffer();
             }
@@ -72,11 +150,65 @@ public class EventSender {
         }
     }
 
+    /**
+     * Send all the buffered events before the watermark, the events arriving later with a start
+     * time before the watermark are dropped.
+     * @param watermark the timestamp, the watermark never moves backward
+     */
+    public void advanceWatermark(long watermark) throws InterruptedException {
+        if (watermark <= this.watermark)
+            return;
+        this.watermark = watermark;
+        popQueueUntil(watermark);
+        if (!timeBuffer.isEmpty() && timeBuffer.get(0).timestamp < watermark)
+            flushTimeBuffer();
+    }
+
+    /**
+     * Send the buffered events as if the event time kept going during the idle time. Used when
+     * the input is idle.
+     * <p>
+     * The watermark moves to the latest start time minus the lateness plus the idle time, so an
+     * event may still arrive as late as the lateness allows. Once the idle time covers the
+     * lateness, the events up to the latest start time are sent, but the watermark only moves to
+     * the latest start time, so an event arriving later with the same start time is not late. It
+     * is sent in a batch of its own.
+     * </p>
+     * @param idleTime how long (ms) the input has been idle
+     */
+    public void releaseIdle(long idleTime) throws InterruptedException {
+        if (this.latestStartTime == Long.MIN_VALUE)
+            return;
+        if (idleTime < this.lateness) {
+            advanceWatermark(this.latestStartTime - this.lateness + idleTime);
+            return;
+        }
+        advanceWatermark(this.latestStartTime);
+        popQueueUntil(this.latestStartTime + 1);
+        if (!timeBuffer.isEmpty())
+            flushTimeBuffer();
+    }
+
+    /**
+     * @return the number of events dropped for arriving after the watermark passed them
+     */
+    public long getNumLateEvents() {
+        return this.numLateEvents;
+    }
+
+    /**
+     * @return the number of events dropped for matching no pattern edge
+     */
+    public long getNumIrrelevantEvents() {
+        return this.numIrrelevantEvents;
+    }
+
     /**
      * Sort the time buffer by total order and send to CEP.
      */
     void flushTimeBuffer() throws InterruptedException {
         tcMatcher.sendAll(timeBuffer);
+        freeEvents.addAll(timeBuffer);
         timeBuffer.clear();
     }
 
@@ -85,6 +217,7 @@ public class EventSender {
      */
     public void flushBuffers() throws InterruptedException {
         popQueueUntil(Long.MAX_VALUE);
-        flushTimeBuffer();
+        if (!timeBuffer.isEmpty())
+            flushTimeBuffer();
     }
 }
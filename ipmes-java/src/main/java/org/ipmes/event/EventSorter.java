@@ -3,7 +3,6 @@ package org.ipmes.event;
 import org.ipmes.EventEdge;
 import org.ipmes.decomposition.TCQuery;
 import org.ipmes.pattern.PatternEdge;
-import java.util.regex.Pattern;
 
 import java.util.ArrayList;
 
@@ -15,23 +14,13 @@ import java.util.ArrayList;
  */
 public class EventSorter {
     ArrayList<PatternEdge> totalOrder;
-    boolean useRegex;
-    ArrayList<Pattern> regexPatterns;
-    public EventSorter(ArrayList<TCQuery> tcQueries, boolean useRegex) {
+    SignatureDict signatureDict;
+    public EventSorter(ArrayList<TCQuery> tcQueries, SignatureDict signatureDict) {
         this.totalOrder = new ArrayList<>();
         for (TCQuery q : tcQueries) {
             totalOrder.addAll(q.getEdges());
         }
-        this.useRegex = useRegex;
-        if (useRegex)
-            compileRegex();
-    }
-
-    public void compileRegex() {
-        this.regexPatterns = new ArrayList<>();
-        for (PatternEdge edge : this.totalOrder) {
-            this.regexPatterns.add(Pattern.compile(edge.getSignature()));
-        }
+        this.signatureDict = signatureDict;
     }
 
     /**
@@ -72,8 +61,6 @@ public class EventSorter {
      * @return true if the signatures match, false otherwise
      */
     boolean match(int ord, EventEdge eventEdge) {
-        if (this.useRegex)
-            return regexPatterns.get(ord).matcher(eventEdge.signature).find();
-        return totalOrder.get(ord).getSignature().equals(eventEdge.signature);
+        return signatureDict.match(eventEdge.signatureId, totalOrder.get(ord).getId());
     }
 }
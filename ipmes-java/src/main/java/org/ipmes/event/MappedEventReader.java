@@ -0,0 +1,209 @@
+package org.ipmes.event;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * MappedEventReader reads the preprocessed data graph in csv format through a memory-mapped file.
+ * <p>
+ * The bytes of each line are parsed in place. The timestamps and ids are decoded directly into
+ * primitives, and the signature is looked up in {@link SignatureDict} by its bytes, so no String
+ * is created for a line unless it contains an unseen signature or an unusual number format.
+ * </p>
+ * <p>
+ * A single mapping is limited to 2 GB, so the file is mapped in windows. When a line crosses the
+ * end of a window, the next window starts at the beginning of that line.
+ * </p>
+ */
+public class MappedEventReader implements EventReader {
+    static final long WINDOW_SIZE = 1L << 30;
+
+    FileChannel channel;
+    long fileSize;
+    long windowSize;
+    MappedByteBuffer window;
+    long windowStart;
+    int pos;
+
+    // fields of the last parsed line
+    long startTime;
+    long endTime;
+    int signatureId;
+    long edgeId;
+    long startId;
+    long endId;
+
+    public MappedEventReader(String path) throws IOException {
+        this(path, WINDOW_SIZE);
+    }
+
+    MappedEventReader(String path, long windowSize) throws IOException {
+        this.windowSize = windowSize;
+        this.channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        this.fileSize = channel.size();
+        this.windowStart = 0;
+        mapWindow(0);
+    }
+
+    void mapWindow(long start) throws IOException {
+        this.windowStart = start;
+        long len = Math.min(this.windowSize, this.fileSize - start);
+        this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, start, len);
+        this.pos = 0;
+    }
+
+    /**
+     * Find the end of the line starting at {@code this.pos}, remapping the window if the line
+     * is cut by the end of the window.
+     * @return the position of the line break, or the window limit if the file ends without one;
+     *         -1 if there is no more line
+     */
+    int findLineEnd() throws IOException {
+        while (true) {
+            int limit = this.window.limit();
+            if (this.pos >= limit && this.windowStart + limit >= this.fileSize)
+                return -1;
+            int i = this.pos;
+            while (i < limit && this.window.get(i) != '\n')
+                ++i;
+            if (i < limit || this.windowStart + limit >= this.fileSize)
+                return i;
+            if (this.pos == 0)
+                throw new IOException("Line too long at offset " + this.windowStart);
+            mapWindow(this.windowStart + this.pos);
+        }
+    }
+
+    /**
+     * Parse the next line. The parsed fields are stored in this reader until the next call.
+     * @param dict the dictionary to intern the signature
+     * @return false if the end of the file is reached, true otherwise
+     */
+    boolean next(SignatureDict dict) throws IOException {
+        while (true) {
+            int lineEnd = findLineEnd();
+            if (lineEnd < 0)
+                return false;
+            int lineStart = this.pos;
+            this.pos = lineEnd + 1;
+            int end = lineEnd;
+            if (end > lineStart && this.window.get(end - 1) == '\r')
+                --end;
+            if (end == lineStart)
+                continue;
+            parseLine(lineStart, end, dict);
+            return true;
+        }
+    }
+
+    /**
+     * Parse the next line and send it to the sender.
+     * @param sender the event sender
+     * @return false if the end of the file is reached, true otherwise
+     */
+    public boolean sendNext(EventSender sender) throws IOException, InterruptedException {
+        if (!next(sender.getSignatureDict()))
+            return false;
+        sender.sendEvent(startTime, endTime, signatureId, edgeId, startId, endId);
+        return true;
+    }
+
+    /**
+     * Parse the line in window[start, end). The signature may contain commas, so the first 2
+     * fields are read from the left and the last 3 fields are read from the right.
+     */
+    void parseLine(int start, int end, SignatureDict dict) {
+        int c1 = indexOf(start, end);
+        int c2 = indexOf(c1 + 1, end);
+        int c5 = lastIndexOf(start, end);
+        int c4 = lastIndexOf(start, c5);
+        int c3 = lastIndexOf(start, c4);
+        if (c1 < 0 || c2 < 0 || c3 <= c2)
+            throw new IllegalArgumentException("Malformed line: " + decode(start, end));
+
+        this.startTime = parseTimestamp(start, c1);
+        this.endTime = parseTimestamp(c1 + 1, c2);
+        this.signatureId = dict.intern(this.window, c2 + 1, c3);
+        this.edgeId = parseLong(c3 + 1, c4);
+        this.startId = parseLong(c4 + 1, c5);
+        this.endId = parseLong(c5 + 1, end);
+    }
+
+    int indexOf(int from, int end) {
+        for (int i = from; i < end; ++i) {
+            if (this.window.get(i) == ',')
+                return i;
+        }
+        return -1;
+    }
+
+    int lastIndexOf(int start, int before) {
+        for (int i = before - 1; i >= start; --i) {
+            if (this.window.get(i) == ',')
+                return i;
+        }
+        return -1;
+    }
+
+    long parseLong(int start, int end) {
+        if (start >= end)
+            throw new NumberFormatException("Empty number");
+        long res = 0;
+        for (int i = start; i < end; ++i) {
+            int d = this.window.get(i) - '0';
+            if (d < 0 || d > 9)
+                return Long.parseLong(decode(start, end));
+            res = res * 10 + d;
+        }
+        return res;
+    }
+
+    /**
+     * Parse a timestamp in seconds into milliseconds. Timestamps with at most 3 fractional digits
+     * are decoded exactly; the other formats fall back to {@link EventSender#parseTimestamp(String)}.
+     */
+    long parseTimestamp(int start, int end) {
+        long integer = 0;
+        int i = start;
+        for (; i < end; ++i) {
+            int d = this.window.get(i) - '0';
+            if (d < 0 || d > 9)
+                break;
+            integer = integer * 10 + d;
+        }
+        if (i == start || i > start + 15)
+            return EventSender.parseTimestamp(decode(start, end));
+        if (i == end)
+            return integer * 1000;
+        if (this.window.get(i) != '.' || end - i - 1 > 3)
+            return EventSender.parseTimestamp(decode(start, end));
+
+        long millis = 0;
+        int numDigits = 0;
+        for (++i; i < end; ++i, ++numDigits) {
+            int d = this.window.get(i) - '0';
+            if (d < 0 || d > 9)
+                return EventSender.parseTimestamp(decode(start, end));
+            millis = millis * 10 + d;
+        }
+        for (; numDigits < 3; ++numDigits)
+            millis *= 10;
+        return integer * 1000 + millis;
+    }
+
+    String decode(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = start; i < end; ++i)
+            bytes[i - start] = this.window.get(i);
+        return new String(bytes);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.window = null;
+        this.channel.close();
+    }
+}
@@ -0,0 +1,111 @@
+package org.ipmes.event;
+
+import com.google.re2j.Pattern;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.function.IntConsumer;
+
+/**
+ * RegexSet finds all the regexes of a set that a string matches.
+ * <p>
+ * re2j has no set matching, so the regexes are compiled into a binary tree of alternations:
+ * a leaf holds one regex and an inner node holds the alternation of the regexes under it.
+ * A string is tested from the root and a subtree is only visited if its node matches, so a
+ * string matching no regex costs one scan, and a string matching m of the n regexes costs
+ * about m * log(n) scans instead of n.
+ * </p>
+ * <p>
+ * Equal regexes are added once, so the pattern edges sharing a signature are tested together.
+ * </p>
+ */
+class RegexSet {
+    ArrayList<String> regexes;
+    HashMap<String, Integer> regexToIndex;
+    // the tree is stored in an array, the children of node i are 2i+1 and 2i+2
+    Pattern[] nodes;
+    // the regexes under node i are [nodeStart[i], nodeEnd[i])
+    int[] nodeStart;
+    int[] nodeEnd;
+
+    RegexSet() {
+        this.regexes = new ArrayList<>();
+        this.regexToIndex = new HashMap<>();
+        this.nodes = null;
+    }
+
+    /**
+     * Add a regex to the set.
+     * @return the index of the regex, equal regexes get the same index
+     */
+    int add(String regex) {
+        Integer index = this.regexToIndex.get(regex);
+        if (index != null)
+            return index;
+        // validate the regex now, so a bad pattern fails when it is added
+        Pattern.compile(regex);
+        this.regexes.add(regex);
+        this.regexToIndex.put(regex, this.regexes.size() - 1);
+        this.nodes = null;
+        return this.regexes.size() - 1;
+    }
+
+    int size() {
+        return this.regexes.size();
+    }
+
+    void compile() {
+        int n = this.regexes.size();
+        int capacity = 1;
+        while (capacity < n)
+            capacity *= 2;
+        this.nodes = new Pattern[capacity * 2];
+        this.nodeStart = new int[capacity * 2];
+        this.nodeEnd = new int[capacity * 2];
+        if (n > 0)
+            build(0, 0, n);
+    }
+
+    void build(int node, int start, int end) {
+        this.nodeStart[node] = start;
+        this.nodeEnd[node] = end;
+        if (end - start == 1) {
+            this.nodes[node] = Pattern.compile(this.regexes.get(start));
+            return;
+        }
+        StringBuilder alternation = new StringBuilder();
+        for (int i = start; i < end; ++i) {
+            if (i > start)
+                alternation.append('|');
+            alternation.append("(?:").append(this.regexes.get(i)).append(')');
+        }
+        this.nodes[node] = Pattern.compile(alternation.toString());
+        int mid = (start + end) >>> 1;
+        build(2 * node + 1, start, mid);
+        build(2 * node + 2, mid, end);
+    }
+
+    /**
+     * Report the index of every regex found in the string, in ascending order.
+     * @param str the string to search
+     * @param onMatch called with the index of each matched regex
+     */
+    void match(String str, IntConsumer onMatch) {
+        if (this.regexes.isEmpty())
+            return;
+        if (this.nodes == null)
+            compile();
+        match(0, str, onMatch);
+    }
+
+    void match(int node, String str, IntConsumer onMatch) {
+        if (!this.nodes[node].matcher(str).find())
+            return;
+        if (this.nodeEnd[node] - this.nodeStart[node] == 1) {
+            onMatch.accept(this.nodeStart[node]);
+            return;
+        }
+        match(2 * node + 1, str, onMatch);
+        match(2 * node + 2, str, onMatch);
+    }
+}
@@ -0,0 +1,297 @@
+package org.ipmes.event;
+
+import org.ipmes.pattern.PatternEdge;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+
+/**
+ * SignatureDict interns the signatures of input events into integer ids.
+ * <p>
+ * For each distinct signature, we compare it against every pattern edge once and
+ * store the result as a bitmask of the matched pattern edge ids. After that, checking
+ * whether an event matches a pattern edge is just an array lookup, no matter the
+ * pattern uses regex or not.
+ * </p>
+ * <p>
+ * The number of distinct signatures in a data graph is far smaller than the number of
+ * events, so the cost of regex matching is paid only once per distinct signature.
+ * The exact signatures are looked up in a hash map and the regexes are searched together by a
+ * {@link RegexSet}, so a new signature is not compared against every pattern edge one by one.
+ * </p>
+ * <p>
+ * A dictionary can hold the edges of several patterns. Each pattern added by
+ * {@link #addPattern(Collection, boolean)} gets an offset, and its edge {@code i} is
+ * queried as {@code offset + i}. All patterns must be added before the first signature
+ * is interned.
+ * </p>
+ */
+public class SignatureDict {
+    // signature and pattern index of each pattern edge
+    ArrayList<String> edgeSignatures;
+    ArrayList<Integer> edgePatterns;
+    // the pattern edges matched by an exact signature
+    HashMap<String, ArrayList<Integer>> exactEdges;
+    // the pattern edges of each regex in regexSet
+    RegexSet regexSet;
+    ArrayList<ArrayList<Integer>> regexEdges;
+    // the pattern edges of pattern p are in [patternOffsets[p], patternOffsets[p + 1])
+    ArrayList<Integer> patternOffsets;
+    HashMap<String, Integer> sigToId;
+    ArrayList<String> signatures;
+    // the match mask of signature i is stored in masks[i * wordsPerSig, (i + 1) * wordsPerSig)
+    // the masks are volatile because the worker threads of PatternScheduler query them while the
+    // parse layer grows them, a grown array is only published after the old masks are copied into it
+    volatile long[] masks;
+    int wordsPerSig;
+    // the mask of patterns having an edge matched by signature i, stored the same way as masks
+    volatile long[] patternMasks;
+    int patternWordsPerSig;
+    // open addressing table over the raw bytes of signatures, used when interning from a byte buffer
+    int[] byteSlotIds;
+    int[] byteSlotHashes;
+    byte[][] byteSlotKeys;
+    int numByteSlots;
+
+    public SignatureDict() {
+        this.edgeSignatures = new ArrayList<>();
+        this.edgePatterns = new ArrayList<>();
+        this.exactEdges = new HashMap<>();
+        this.regexSet = new RegexSet();
+        this.regexEdges = new ArrayList<>();
+        this.patternOffsets = new ArrayList<>();
+        this.patternOffsets.add(0);
+
+        this.sigToId = new HashMap<>();
+        this.signatures = new ArrayList<>();
+        allocMasks();
+
+        this.byteSlotIds = new int[1024];
+        this.byteSlotHashes = new int[1024];
+        this.byteSlotKeys = new byte[1024][];
+        this.numByteSlots = 0;
+    }
+
+    public SignatureDict(Collection<PatternEdge> patternEdges, boolean useRegex) {
+        this();
+        addPattern(patternEdges, useRegex);
+    }
+
+    void allocMasks() {
+        this.wordsPerSig = Math.max(1, (this.edgeSignatures.size() + 63) / 64);
+        this.masks = new long[this.wordsPerSig * 64];
+        this.patternWordsPerSig = Math.max(1, (numPatterns() + 63) / 64);
+        this.patternMasks = new long[this.patternWordsPerSig * 64];
+    }
+
+    /**
+     * Add the edges of a pattern to the dictionary.
+     * @param patternEdges the pattern edges
+     * @param useRegex treat the signatures of the pattern edges as regex
+     * @return the offset of the pattern edge ids in this dictionary
+     */
+    public int addPattern(Collection<PatternEdge> patternEdges, boolean useRegex) {
+        if (!this.signatures.isEmpty())
+            throw new IllegalStateException("Patterns must be added before interning signatures");
+
+        int offset = this.edgeSignatures.size();
+        int numEdges = 0;
+        for (PatternEdge edge : patternEdges)
+            numEdges = Math.max(numEdges, edge.getId() + 1);
+
+        String[] sigs = new String[numEdges];
+        for (PatternEdge edge : patternEdges)
+            sigs[edge.getId()] = edge.getSignature();
+        int pattern = numPatterns();
+        for (String sig : sigs) {
+            int edgeId = this.edgeSignatures.size();
+            this.edgeSignatures.add(sig);
+            this.edgePatterns.add(pattern);
+            if (sig == null)
+                continue;
+            if (useRegex) {
+                int regex = this.regexSet.add(sig);
+                if (regex == this.regexEdges.size())
+                    this.regexEdges.add(new ArrayList<>());
+                this.regexEdges.get(regex).add(edgeId);
+            } else {
+                this.exactEdges.computeIfAbsent(sig, k -> new ArrayList<>()).add(edgeId);
+            }
+        }
+        this.patternOffsets.add(offset + numEdges);
+        allocMasks();
+        return offset;
+    }
+
+    /**
+     * @return the number of patterns added to this dictionary
+     */
+    public int numPatterns() {
+        return this.patternOffsets.size() - 1;
+    }
+
+    /**
+     * Get the id of the given signature. If the signature is not seen before, assign
+     * a new id to it and compute the pattern edges it matches.
+     * @param signature the event signature
+     * @return the signature id
+     */
+    public int intern(String signature) {
+        Integer id = this.sigToId.get(signature);
+        if (id != null)
+            return id;
+
+        int newId = this.signatures.size();
+        this.signatures.add(signature);
+        this.sigToId.put(signature, newId);
+
+        long[] masks = this.masks;
+        int offset = newId * this.wordsPerSig;
+        if (offset + this.wordsPerSig > masks.length)
+            masks = Arrays.copyOf(masks, masks.length * 2);
+        long[] patternMasks = this.patternMasks;
+        int patternOffset = newId * this.patternWordsPerSig;
+        if (patternOffset + this.patternWordsPerSig > patternMasks.length)
+            patternMasks = Arrays.copyOf(patternMasks, patternMasks.length * 2);
+
+        ArrayList<Integer> exact = this.exactEdges.get(signature);
+        if (exact != null) {
+            for (int edge : exact)
+                markEdge(masks, offset, patternMasks, patternOffset, edge);
+        }
+        long[] finalMasks = masks;
+        long[] finalPatternMasks = patternMasks;
+        this.regexSet.match(signature, regex -> {
+            for (int edge : this.regexEdges.get(regex))
+                markEdge(finalMasks, offset, finalPatternMasks, patternOffset, edge);
+        });
+        this.masks = masks;
+        this.patternMasks = patternMasks;
+        return newId;
+    }
+
+    /**
+     * Get the id of the signature stored in buf[start, end). Unlike {@link #intern(String)},
+     * this method only creates a String when the signature is seen for the first time.
+     * @param buf the buffer holding the signature bytes in UTF-8
+     * @param start the start position (inclusive)
+     * @param end the end position (exclusive)
+     * @return the signature id
+     */
+    public int intern(ByteBuffer buf, int start, int end) {
+        int hash = 1;
+        for (int i = start; i < end; ++i)
+            hash = 31 * hash + buf.get(i);
+        hash ^= hash >>> 16;
+
+        int mask = this.byteSlotIds.length - 1;
+        int slot = hash & mask;
+        while (this.byteSlotKeys[slot] != null) {
+            if (this.byteSlotHashes[slot] == hash && bytesEqual(this.byteSlotKeys[slot], buf, start, end))
+                return this.byteSlotIds[slot];
+            slot = (slot + 1) & mask;
+        }
+
+        byte[] key = new byte[end - start];
+        for (int i = start; i < end; ++i)
+            key[i - start] = buf.get(i);
+        int id = intern(new String(key, StandardCharsets.UTF_8));
+        this.byteSlotKeys[slot] = key;
+        this.byteSlotHashes[slot] = hash;
+        this.byteSlotIds[slot] = id;
+        if (++this.numByteSlots * 2 > this.byteSlotIds.length)
+            growByteSlots();
+        return id;
+    }
+
+    static boolean bytesEqual(byte[] key, ByteBuffer buf, int start, int end) {
+        if (key.length != end - start)
+            return false;
+        for (int i = 0; i < key.length; ++i) {
+            if (key[i] != buf.get(start + i))
+                return false;
+        }
+        return true;
+    }
+
+    void growByteSlots() {
+        int[] oldIds = this.byteSlotIds;
+        int[] oldHashes = this.byteSlotHashes;
+        byte[][] oldKeys = this.byteSlotKeys;
+        int len = oldIds.length * 2;
+        this.byteSlotIds = new int[len];
+        this.byteSlotHashes = new int[len];
+        this.byteSlotKeys = new byte[len][];
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldKeys[i] == null)
+                continue;
+            int slot = oldHashes[i] & (len - 1);
+            while (this.byteSlotKeys[slot] != null)
+                slot = (slot + 1) & (len - 1);
+            this.byteSlotKeys[slot] = oldKeys[i];
+            this.byteSlotHashes[slot] = oldHashes[i];
+            this.byteSlotIds[slot] = oldIds[i];
+        }
+    }
+
+    void markEdge(long[] masks, int offset, long[] patternMasks, int patternOffset, int edge) {
+        masks[offset + (edge >>> 6)] |= 1L << edge;
+        int pattern = this.edgePatterns.get(edge);
+        patternMasks[patternOffset + (pattern >>> 6)] |= 1L << pattern;
+    }
+
+    /**
+     * Check whether the signature matches the pattern edge.
+     * @param sigId the signature id returned by {@link #intern(String)}
+     * @param patternId the id of the pattern edge, plus the offset of its pattern
+     * @return true if the signature matches the pattern edge, false otherwise
+     */
+    public boolean match(int sigId, int patternId) {
+        return (this.masks[sigId * this.wordsPerSig + (patternId >>> 6)] & (1L << patternId)) != 0;
+    }
+
+    /**
+     * Check whether the signature matches any edge of the pattern.
+     * @param sigId the signature id returned by {@link #intern(String)}
+     * @param pattern the index of the pattern, in the order the patterns are added
+     * @return true if the signature matches an edge of the pattern, false otherwise
+     */
+    public boolean matchPattern(int sigId, int pattern) {
+        return (this.patternMasks[sigId * this.patternWordsPerSig + (pattern >>> 6)] & (1L << pattern)) != 0;
+    }
+
+    /**
+     * Check whether the signature matches any pattern edge. The events of an irrelevant
+     * signature can never be part of a match.
+     * @param sigId the signature id returned by {@link #intern(String)}
+     * @return true if the signature matches an edge of any pattern, false otherwise
+     */
+    public boolean isRelevant(int sigId) {
+        long[] patternMasks = this.patternMasks;
+        int offset = sigId * this.patternWordsPerSig;
+        for (int i = 0; i < this.patternWordsPerSig; ++i) {
+            if (patternMasks[offset + i] != 0)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param sigId the signature id
+     * @return the original signature string
+     */
+    public String getSignature(int sigId) {
+        return this.signatures.get(sigId);
+    }
+
+    /**
+     * @return the number of distinct signatures seen so far
+     */
+    public int size() {
+        return this.signatures.size();
+    }
+}
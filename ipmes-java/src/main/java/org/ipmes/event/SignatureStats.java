@@ -0,0 +1,128 @@
+package org.ipmes.event;
+
+import com.google.re2j.Pattern;
+import org.ipmes.pattern.PatternEdge;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * SignatureStats holds the number of events of each signature in a sample of the stream.
+ * <p>
+ * It is used to estimate how many events of a pattern edge arrive in a window, and how likely
+ * an event touches a given node, so the decomposition can avoid TC-Queries starting with a
+ * frequent edge. The sample is usually a prefix of the stream, see {@link #collect}.
+ * </p>
+ */
+public class SignatureStats {
+    HashMap<String, Long> counts;
+    long numEvents;
+    // the time (ms) between the first and last event of the sample
+    long duration;
+    long numNodes;
+
+    public SignatureStats(HashMap<String, Long> counts, long numEvents, long duration, long numNodes) {
+        this.counts = counts;
+        this.numEvents = numEvents;
+        this.duration = Math.max(1, duration);
+        this.numNodes = Math.max(1, numNodes);
+    }
+
+    /**
+     * Count the signatures in the first events of a data graph.
+     * @param path the path to the data graph, in csv or binary format
+     * @param maxEvents the number of events to sample
+     */
+    public static SignatureStats collect(String path, long maxEvents) throws IOException, InterruptedException {
+        SignatureDict dict = new SignatureDict();
+        ArrayList<Long> sigCounts = new ArrayList<>();
+        HashSet<Long> nodes = new HashSet<>();
+        long[] range = {Long.MAX_VALUE, Long.MIN_VALUE};
+        EventSender counter = new EventSender(null, dict) {
+            @Override
+            public void sendEvent(long startTime, long endTime, int signatureId, long edgeId, long startId, long endId) {
+                while (sigCounts.size() <= signatureId)
+                    sigCounts.add(0L);
+                sigCounts.set(signatureId, sigCounts.get(signatureId) + 1);
+                nodes.add(startId);
+                nodes.add(endId);
+                range[0] = Math.min(range[0], startTime);
+                range[1] = Math.max(range[1], startTime);
+            }
+        };
+
+        long numEvents = 0;
+        try (EventReader reader = EventReader.open(path)) {
+            while (numEvents < maxEvents && reader.sendNext(counter))
+                ++numEvents;
+        }
+
+        HashMap<String, Long> counts = new HashMap<>();
+        for (int i = 0; i < sigCounts.size(); ++i)
+            counts.put(dict.getSignature(i), sigCounts.get(i));
+        return new SignatureStats(counts, numEvents, numEvents == 0 ? 0 : range[1] - range[0], nodes.size());
+    }
+
+    public static SignatureStats load(String path) throws IOException {
+        JSONObject obj = new JSONObject(Files.readString(Paths.get(path)));
+        HashMap<String, Long> counts = new HashMap<>();
+        JSONObject signatures = obj.getJSONObject("Signatures");
+        for (String signature : signatures.keySet())
+            counts.put(signature, signatures.getLong(signature));
+        return new SignatureStats(counts, obj.getLong("NumEvents"), obj.getLong("Duration"), obj.getLong("NumNodes"));
+    }
+
+    public void save(String path) throws IOException {
+        JSONObject obj = new JSONObject();
+        obj.put("NumEvents", this.numEvents);
+        obj.put("Duration", this.duration);
+        obj.put("NumNodes", this.numNodes);
+        obj.put("Signatures", new JSONObject(this.counts));
+        Files.writeString(Paths.get(path), obj.toString(2), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the number of events matching the pattern edge in the sample
+     */
+    public long count(PatternEdge edge, boolean useRegex) {
+        if (!useRegex)
+            return this.counts.getOrDefault(edge.getSignature(), 0L);
+        Pattern regex = Pattern.compile(edge.getSignature());
+        long count = 0;
+        for (Map.Entry<String, Long> entry : this.counts.entrySet()) {
+            if (regex.matcher(entry.getKey()).find())
+                count += entry.getValue();
+        }
+        return count;
+    }
+
+    /**
+     * Estimate the number of events of each pattern edge arriving in a window.
+     * @param edges the pattern edges, the result is indexed by their id
+     * @param windowSize the window size in milliseconds
+     */
+    public double[] countPerWindow(ArrayList<PatternEdge> edges, boolean useRegex, long windowSize) {
+        double[] result = new double[edges.size()];
+        for (PatternEdge edge : edges)
+            result[edge.getId()] = (double) count(edge, useRegex) * windowSize / this.duration;
+        return result;
+    }
+
+    /**
+     * @return the probability an event touches a given node
+     */
+    public double getNodeSelectivity() {
+        return 1.0 / this.numNodes;
+    }
+
+    public long getNumEvents() {
+        return this.numEvents;
+    }
+}
@@ -0,0 +1,166 @@
+package org.ipmes.event;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * StreamEventReader reads the preprocessed data graph in csv format from a stream that may not
+ * have an end, such as stdin or a file still being written.
+ * <p>
+ * A background thread reads the lines into a bounded queue, so {@link #sendNext(EventSender)}
+ * can wait for a line with a timeout. When no line arrives within the idle timeout, the reader
+ * calls {@link EventSender#releaseIdle(long)} with the time since the last line, so the buffered
+ * events are matched without waiting for the next event.
+ * </p>
+ * <p>
+ * When following a file, the reader keeps polling for new lines at the end of the file and
+ * never reaches the end of the input.
+ * </p>
+ */
+public class StreamEventReader implements EventReader {
+    static final int QUEUE_SIZE = 1 << 14;
+    static final long FOLLOW_POLL_MILLIS = 100;
+    // put into the queue after the last line
+    static final String END_OF_INPUT = new String();
+
+    InputStream in;
+    boolean follow;
+    long idleTimeout;
+    ArrayBlockingQueue<String> lines;
+    Thread thread;
+    volatile IOException failure;
+    boolean ended;
+    // System.nanoTime() when the last line arrived
+    long lastLineNanos;
+
+    /**
+     * @param in the input stream, read until its end
+     * @param idleTimeout the idle time (ms) before the buffered events are released
+     */
+    public StreamEventReader(InputStream in, long idleTimeout) {
+        this(in, false, idleTimeout);
+    }
+
+    StreamEventReader(InputStream in, boolean follow, long idleTimeout) {
+        this.in = in;
+        this.follow = follow;
+        this.idleTimeout = idleTimeout;
+        this.lines = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        this.ended = false;
+        this.lastLineNanos = System.nanoTime();
+        this.thread = new Thread(this::readLines, "ipmes-reader");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Read a file from its beginning, and keep reading the lines appended to it.
+     * @param path the path to the file
+     * @param idleTimeout the idle time (ms) before the buffered events are released
+     */
+    public static StreamEventReader follow(String path, long idleTimeout) throws IOException {
+        return new StreamEventReader(new FileInputStream(path), true, idleTimeout);
+    }
+
+    void readLines() {
+        byte[] buf = new byte[1 << 16];
+        byte[] line = new byte[256];
+        int lineLen = 0;
+        try {
+            while (true) {
+                int n = this.in.read(buf);
+                if (n < 0) {
+                    if (!this.follow)
+                        break;
+                    // wait for the file to grow, a partial line is kept until its line break arrives
+                    Thread.sleep(FOLLOW_POLL_MILLIS);
+                    continue;
+                }
+                for (int i = 0; i < n; ++i) {
+                    if (buf[i] != '\n') {
+                        if (lineLen == line.length)
+                            line = Arrays.copyOf(line, lineLen * 2);
+                        line[lineLen++] = buf[i];
+                        continue;
+                    }
+                    putLine(line, lineLen);
+                    lineLen = 0;
+                }
+            }
+            putLine(line, lineLen);
+        } catch (IOException e) {
+            this.failure = e;
+        } catch (InterruptedException e) {
+            return;
+        }
+        try {
+            this.lines.put(END_OF_INPUT);
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    void putLine(byte[] line, int len) throws InterruptedException {
+        if (len > 0 && line[len - 1] == '\r')
+            --len;
+        if (len > 0)
+            this.lines.put(new String(line, 0, len, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Wait for the next line and send it to the sender. If no line arrives within the idle
+     * timeout, release the buffered events of the sender according to the time since the last
+     * line instead.
+     * @return false if the end of the input is reached, true otherwise
+     */
+    @Override
+    public boolean sendNext(EventSender sender) throws IOException, InterruptedException {
+        if (this.ended)
+            return false;
+        String line = this.lines.poll(this.idleTimeout, TimeUnit.MILLISECONDS);
+        if (line == null) {
+            sender.releaseIdle(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.lastLineNanos));
+            return true;
+        }
+        this.lastLineNanos = System.nanoTime();
+        if (line == END_OF_INPUT) {
+            this.ended = true;
+            if (this.failure != null)
+                throw this.failure;
+            return false;
+        }
+        sendLine(line, sender);
+        return true;
+    }
+
+    /**
+     * Parse the line and send it. The signature may contain commas, so the first 2 fields are
+     * read from the left and the last 3 fields are read from the right.
+     */
+    static void sendLine(String line, EventSender sender) throws InterruptedException {
+        int c1 = line.indexOf(',');
+        int c2 = line.indexOf(',', c1 + 1);
+        int c5 = line.lastIndexOf(',');
+        int c4 = line.lastIndexOf(',', c5 - 1);
+        int c3 = line.lastIndexOf(',', c4 - 1);
+        if (c1 < 0 || c2 < 0 || c3 <= c2)
+            throw new IllegalArgumentException("Malformed line: " + line);
+        sender.sendEvent(
+                EventSender.parseTimestamp(line.substring(0, c1)),
+                EventSender.parseTimestamp(line.substring(c1 + 1, c2)),
+                sender.getSignatureDict().intern(line.substring(c2 + 1, c3)),
+                Long.parseLong(line.substring(c3 + 1, c4)),
+                Long.parseLong(line.substring(c4 + 1, c5)),
+                Long.parseLong(line.substring(c5 + 1)));
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.thread.interrupt();
+        this.in.close();
+    }
+}
@@ -1,9 +1,7 @@
 package org.ipmes.join;
 
-import java.util.Collection;
-
-import org.ipmes.match.FullMatch;
 import org.ipmes.match.MatchResult;
+import org.ipmes.sink.MatchSink;
 
 /**
  * The abstract interface for join layer.
@@ -11,7 +9,11 @@ import org.ipmes.match.MatchResult;
 public interface Join {
     public void addMatchResult(MatchResult result, Integer tcQueryId);
 
-    public Collection<FullMatch> extractAnswer();
+    /**
+     * Set the sink receiving each full match as soon as it is found. The same full match
+     * may be passed more than once.
+     */
+    public void setSink(MatchSink sink);
 
     public int getPoolSize();
 }
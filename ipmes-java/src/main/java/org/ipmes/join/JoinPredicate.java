@@ -0,0 +1,235 @@
+package org.ipmes.join;
+
+import org.ipmes.decomposition.TCQueryRelation;
+import org.ipmes.match.MatchResult;
+import org.ipmes.pattern.PatternEdge;
+import org.ipmes.pattern.PatternGraph;
+import org.ipmes.pattern.TemporalRelation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * JoinPredicate checks the relations between two partial matches.
+ * <p>
+ * The relations of a buffer are compiled once into flat arrays: for the i-th relation, the
+ * pattern edge in the result and in the entry, the expected equality of their endpoints, and
+ * the expected order of their timestamps. So checking a pair of partial matches only compares
+ * numbers, without looking up the temporal relation or allocating anything.
+ * </p>
+ * <p>
+ * The relations only compare the endpoints of related edges, so 2 pattern nodes on different
+ * sides could still be bound to the same data node. Each such pair of pattern nodes is compiled
+ * into an endpoint of the result and of the entry that must differ, like the node uniqueness
+ * checked inside a TC-Query.
+ * </p>
+ */
+public class JoinPredicate {
+    // the timestamp of the result edge must be no earlier than the entry edge
+    static final byte ORDER_AFTER = 1;
+    // the timestamp of the result edge must be no later than the entry edge
+    static final byte ORDER_BEFORE = 2;
+    static final byte ORDER_NONE = 0;
+
+    int[] resultEdges;
+    int[] entryEdges;
+    byte[] spatialTypes;
+    byte[] orders;
+    // the endpoints of the result and the entry that must be bound to different data nodes
+    int[] distinctResultEdges;
+    boolean[] distinctResultStarts;
+    int[] distinctEntryEdges;
+    boolean[] distinctEntryStarts;
+
+    /**
+     * @param resultEdges   the pattern edges of the result
+     * @param entryEdges    the pattern edges the entry may have
+     * @param entryComplete the entry always has all the entryEdges, false if only the present ones
+     *                      are checked, see {@link #testPresent}
+     */
+    public JoinPredicate(ArrayList<TCQueryRelation> relations, ArrayList<PatternEdge> resultEdges,
+                         ArrayList<PatternEdge> entryEdges, boolean entryComplete,
+                         TemporalRelation temporalRelation, PatternGraph spatialRelation) {
+        int len = relations.size();
+        this.resultEdges = new int[len];
+        this.entryEdges = new int[len];
+        this.spatialTypes = new byte[len];
+        this.orders = new byte[len];
+        for (int i = 0; i < len; ++i) {
+            TCQueryRelation relation = relations.get(i);
+            this.resultEdges[i] = relation.idOfResult;
+            this.entryEdges[i] = relation.idOfEntry;
+
+            PatternEdge e1 = spatialRelation.getEdge(relation.idOfResult);
+            PatternEdge e2 = spatialRelation.getEdge(relation.idOfEntry);
+            this.spatialTypes[i] = spatialType(e1.getStartId(), e1.getEndId(), e2.getStartId(), e2.getEndId());
+
+            boolean isParent = temporalRelation.getParents(relation.idOfResult).contains(relation.idOfEntry);
+            boolean isChild = temporalRelation.getChildren(relation.idOfResult).contains(relation.idOfEntry);
+            if (isParent && !isChild)
+                this.orders[i] = ORDER_AFTER;
+            else if (isChild && !isParent)
+                this.orders[i] = ORDER_BEFORE;
+            else
+                this.orders[i] = ORDER_NONE;
+        }
+        compileDistinctNodes(relations, resultEdges, entryEdges, entryComplete, spatialRelation);
+    }
+
+    static long pairKey(int first, int second) {
+        return ((long) first << 32) | (second & 0xffffffffL);
+    }
+
+    /**
+     * Find the pairs of a pattern node only in the result and a pattern node only in the entry.
+     * A pair is skipped if a relation already compares their endpoints: its spatial type requires
+     * different pattern nodes to be bound to different data nodes.
+     */
+    void compileDistinctNodes(ArrayList<TCQueryRelation> relations, ArrayList<PatternEdge> resultEdges,
+                              ArrayList<PatternEdge> entryEdges, boolean entryComplete,
+                              PatternGraph spatialRelation) {
+        // a result edge bound to each pattern node of the result
+        HashMap<Integer, PatternEdge> resultNodes = new HashMap<>();
+        for (PatternEdge edge : resultEdges) {
+            resultNodes.putIfAbsent(edge.getStartId(), edge);
+            resultNodes.putIfAbsent(edge.getEndId(), edge);
+        }
+        // the pairs of a result pattern node and an entry edge compared by a relation
+        HashSet<Long> compared = new HashSet<>();
+        for (TCQueryRelation relation : relations) {
+            PatternEdge resultEdge = spatialRelation.getEdge(relation.idOfResult);
+            compared.add(pairKey(resultEdge.getStartId(), relation.idOfEntry));
+            compared.add(pairKey(resultEdge.getEndId(), relation.idOfEntry));
+        }
+
+        ArrayList<int[]> pairs = new ArrayList<>();
+        HashSet<Long> seen = new HashSet<>();
+        for (PatternEdge entryEdge : entryEdges) {
+            for (int entryNode : new int[]{entryEdge.getStartId(), entryEdge.getEndId()}) {
+                if (resultNodes.containsKey(entryNode))
+                    continue;
+                for (HashMap.Entry<Integer, PatternEdge> resultNode : resultNodes.entrySet()) {
+                    int node = resultNode.getKey();
+                    // if the entry has every edge, one endpoint of each entry node is enough
+                    if (compared.contains(pairKey(node, entryEdge.getId()))) {
+                        if (entryComplete)
+                            seen.add(pairKey(node, entryNode));
+                        continue;
+                    }
+                    if (entryComplete && !seen.add(pairKey(node, entryNode)))
+                        continue;
+                    PatternEdge resultEdge = resultNode.getValue();
+                    pairs.add(new int[]{resultEdge.getId(), resultEdge.getStartId() == node ? 1 : 0,
+                            entryEdge.getId(), entryEdge.getStartId() == entryNode ? 1 : 0});
+                }
+            }
+        }
+
+        int len = pairs.size();
+        this.distinctResultEdges = new int[len];
+        this.distinctResultStarts = new boolean[len];
+        this.distinctEntryEdges = new int[len];
+        this.distinctEntryStarts = new boolean[len];
+        for (int i = 0; i < len; ++i) {
+            int[] pair = pairs.get(i);
+            this.distinctResultEdges[i] = pair[0];
+            this.distinctResultStarts[i] = pair[1] == 1;
+            this.distinctEntryEdges[i] = pair[2];
+            this.distinctEntryStarts[i] = pair[3] == 1;
+        }
+    }
+
+    /**
+     * Encode which endpoints of two edges are the same node.
+     * @return a 4-bit mask of start-start, start-end, end-start and end-end equality
+     */
+    static byte spatialType(long start1, long end1, long start2, long end2) {
+        int type = 0;
+        if (start1 == start2)
+            type |= 8;
+        if (start1 == end2)
+            type |= 4;
+        if (end1 == start2)
+            type |= 2;
+        if (end1 == end2)
+            type |= 1;
+        return (byte) type;
+    }
+
+    boolean check(int i, MatchResult result, MatchResult entry) {
+        int r = this.resultEdges[i];
+        int e = this.entryEdges[i];
+        byte type = spatialType(result.getStartId(r), result.getEndId(r), entry.getStartId(e), entry.getEndId(e));
+        if (type != this.spatialTypes[i])
+            return false;
+        switch (this.orders[i]) {
+            case ORDER_AFTER:
+                return result.getTimestamp(r) >= entry.getTimestamp(e);
+            case ORDER_BEFORE:
+                return result.getTimestamp(r) <= entry.getTimestamp(e);
+            default:
+                return true;
+        }
+    }
+
+    boolean checkDistinct(int i, MatchResult result, MatchResult entry) {
+        int r = this.distinctResultEdges[i];
+        int e = this.distinctEntryEdges[i];
+        long resultNode = this.distinctResultStarts[i] ? result.getStartId(r) : result.getEndId(r);
+        long entryNode = this.distinctEntryStarts[i] ? entry.getStartId(e) : entry.getEndId(e);
+        return resultNode != entryNode;
+    }
+
+    /**
+     * @return true if the result and the entry fit all the relations
+     */
+    public boolean test(MatchResult result, MatchResult entry) {
+        for (int i = 0; i < this.resultEdges.length; ++i) {
+            if (!check(i, result, entry))
+                return false;
+        }
+        for (int i = 0; i < this.distinctResultEdges.length; ++i) {
+            if (!checkDistinct(i, result, entry))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Like {@link #test}, but the relations whose entry edge is not in the entry are skipped.
+     * @return true if the result and the entry fit all the relations they both have
+     */
+    public boolean testPresent(MatchResult result, MatchResult entry) {
+        for (int i = 0; i < this.resultEdges.length; ++i) {
+            if (!entry.containsPattern(this.entryEdges[i]))
+                continue;
+            if (!check(i, result, entry))
+                return false;
+        }
+        for (int i = 0; i < this.distinctResultEdges.length; ++i) {
+            if (!entry.containsPattern(this.distinctEntryEdges[i]))
+                continue;
+            if (!checkDistinct(i, result, entry))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Compile the relations of each buffer. The buffers without relations get null.
+     * @param resultEdges the pattern edges of the results of each buffer
+     * @param entryEdges the pattern edges the entries joined with each buffer may have
+     */
+    static JoinPredicate[] compile(ArrayList<TCQueryRelation>[] relations, ArrayList<PatternEdge>[] resultEdges,
+                                   ArrayList<PatternEdge>[] entryEdges, boolean entryComplete,
+                                   TemporalRelation temporalRelation, PatternGraph spatialRelation) {
+        JoinPredicate[] predicates = new JoinPredicate[relations.length];
+        for (int i = 0; i < relations.length; ++i) {
+            if (relations[i] != null)
+                predicates[i] = new JoinPredicate(relations[i], resultEdges[i], entryEdges[i], entryComplete,
+                        temporalRelation, spatialRelation);
+        }
+        return predicates;
+    }
+}
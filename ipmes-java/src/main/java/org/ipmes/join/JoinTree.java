@@ -0,0 +1,285 @@
+package org.ipmes.join;
+
+import org.ipmes.decomposition.TCQuery;
+import org.ipmes.pattern.PatternEdge;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * JoinTree is the binary tree {@link PriorityJoin} joins the TC-Queries along.
+ * <p>
+ * Each node of the tree is a buffer. The leaves hold the matches of one TC-Query, and an
+ * internal node holds the joined matches of its 2 children. The buffers are numbered in
+ * post-order, so the root holding the full matches is the last buffer, and the left-deep tree
+ * numbers the TC-Query 0 as buffer 0 and the TC-Query i as buffer 2i - 1, with buffer 2i
+ * joining buffer 2i - 2 and 2i - 1.
+ * </p>
+ */
+public class JoinTree {
+    // the TC-Query of each leaf buffer, -1 for internal buffers
+    int[] tcQueryIds;
+    // the children of each internal buffer, -1 for leaf buffers
+    int[] lefts;
+    int[] rights;
+    // the parent of each buffer, -1 for the root
+    int[] parents;
+    // the leaf buffer of each TC-Query
+    int[] leafBuffers;
+
+    /**
+     * A node of the tree while building it, either a leaf with a TC-Query or an internal node
+     * with 2 children.
+     */
+    static class Node {
+        int tcQueryId;
+        Node left;
+        Node right;
+        // the expected number of matches and the pattern nodes bound, used when building a bushy tree
+        double numMatches;
+        HashSet<Integer> patternNodes;
+
+        Node(int tcQueryId) {
+            this.tcQueryId = tcQueryId;
+        }
+
+        Node(Node left, Node right) {
+            this.tcQueryId = -1;
+            this.left = left;
+            this.right = right;
+        }
+
+        int size() {
+            return this.left == null ? 1 : this.left.size() + this.right.size() + 1;
+        }
+    }
+
+    JoinTree(Node root, int numTCQueries) {
+        int len = root.size();
+        this.tcQueryIds = new int[len];
+        this.lefts = new int[len];
+        this.rights = new int[len];
+        this.parents = new int[len];
+        this.leafBuffers = new int[numTCQueries];
+        Arrays.fill(this.leafBuffers, -1);
+        this.parents[number(root, 0)] = -1;
+        for (int id = 0; id < numTCQueries; ++id) {
+            if (this.leafBuffers[id] < 0)
+                throw new IllegalArgumentException("TC-Query " + id + " is not in the join tree");
+        }
+    }
+
+    /**
+     * Number the buffers under the node in post-order.
+     * @param next the first buffer id to use
+     * @return the buffer id of the node
+     */
+    int number(Node node, int next) {
+        if (node.left == null) {
+            if (node.tcQueryId < 0 || node.tcQueryId >= this.leafBuffers.length || this.leafBuffers[node.tcQueryId] >= 0)
+                throw new IllegalArgumentException("Invalid or duplicated TC-Query " + node.tcQueryId + " in the join tree");
+            this.tcQueryIds[next] = node.tcQueryId;
+            this.lefts[next] = -1;
+            this.rights[next] = -1;
+            this.leafBuffers[node.tcQueryId] = next;
+            return next;
+        }
+        int left = number(node.left, next);
+        int right = number(node.right, left + 1);
+        int id = right + 1;
+        this.tcQueryIds[id] = -1;
+        this.lefts[id] = left;
+        this.rights[id] = right;
+        this.parents[left] = id;
+        this.parents[right] = id;
+        return id;
+    }
+
+    /**
+     * @return the tree joining the TC-Queries one by one in the order of their id
+     */
+    public static JoinTree leftDeep(int numTCQueries) {
+        Node root = new Node(0);
+        for (int i = 1; i < numTCQueries; ++i)
+            root = new Node(root, new Node(i));
+        return new JoinTree(root, numTCQueries);
+    }
+
+    /**
+     * Build a bushy tree by repeatedly joining the 2 subtrees with the least expected matches,
+     * so the rarest matches are joined first and the buffers near the leaves stay small.
+     * <p>
+     * The matches of 2 subtrees are expected to join like independent events: the product of
+     * their numbers, filtered by nodeSelectivity for each pattern node they share. Subtrees
+     * sharing no node are only joined when no other subtrees do, since their join can't be
+     * indexed.
+     * </p>
+     * @param tcQueries the TC-Queries, indexed by id
+     * @param numMatches the expected number of matches of each TC-Query in a window
+     * @param nodeSelectivity the probability a match binds a pattern node to a given data node
+     */
+    public static JoinTree bushy(ArrayList<TCQuery> tcQueries, double[] numMatches, double nodeSelectivity) {
+        ArrayList<Node> forest = new ArrayList<>();
+        for (TCQuery query : tcQueries) {
+            Node leaf = new Node(query.getId());
+            leaf.numMatches = numMatches[query.getId()];
+            leaf.patternNodes = new HashSet<>();
+            for (PatternEdge edge : query.getEdges()) {
+                leaf.patternNodes.add(edge.getStartId());
+                leaf.patternNodes.add(edge.getEndId());
+            }
+            forest.add(leaf);
+        }
+        forest.sort((n1, n2) -> (n1.tcQueryId - n2.tcQueryId));
+
+        while (forest.size() > 1) {
+            int bestLeft = 0, bestRight = 1;
+            double best = Double.POSITIVE_INFINITY;
+            boolean bestShares = false;
+            for (int i = 0; i < forest.size(); ++i) {
+                for (int j = i + 1; j < forest.size(); ++j) {
+                    int numShared = numSharedNodes(forest.get(i), forest.get(j));
+                    double joined = forest.get(i).numMatches * forest.get(j).numMatches
+                            * Math.pow(nodeSelectivity, numShared);
+                    // a cross product is only taken when no subtrees share a node
+                    if (bestShares && numShared == 0)
+                        continue;
+                    if (joined < best || (!bestShares && numShared > 0)) {
+                        best = joined;
+                        bestLeft = i;
+                        bestRight = j;
+                        bestShares = numShared > 0;
+                    }
+                }
+            }
+            Node left = forest.get(bestLeft);
+            Node right = forest.remove(bestRight);
+            Node joined = new Node(left, right);
+            joined.numMatches = best;
+            joined.patternNodes = new HashSet<>(left.patternNodes);
+            joined.patternNodes.addAll(right.patternNodes);
+            forest.set(bestLeft, joined);
+        }
+        return new JoinTree(forest.get(0), tcQueries.size());
+    }
+
+    static int numSharedNodes(Node left, Node right) {
+        int numShared = 0;
+        for (Integer node : left.patternNodes) {
+            if (right.patternNodes.contains(node))
+                ++numShared;
+        }
+        return numShared;
+    }
+
+    /**
+     * Parse a tree written as nested pairs of TC-Query ids, e.g. "((0 1) (2 3))".
+     * @param numTCQueries the number of TC-Queries, each must appear once
+     * @throws IllegalArgumentException if the expression is malformed
+     */
+    public static JoinTree parse(String expression, int numTCQueries) {
+        int[] pos = {0};
+        Node root = parseNode(expression, pos);
+        skipSpaces(expression, pos);
+        if (pos[0] != expression.length())
+            throw new IllegalArgumentException("Unexpected text at " + pos[0] + " of the join tree: " + expression);
+        return new JoinTree(root, numTCQueries);
+    }
+
+    static void skipSpaces(String expression, int[] pos) {
+        while (pos[0] < expression.length() && Character.isWhitespace(expression.charAt(pos[0])))
+            ++pos[0];
+    }
+
+    static Node parseNode(String expression, int[] pos) {
+        skipSpaces(expression, pos);
+        if (pos[0] < expression.length() && expression.charAt(pos[0]) == '(') {
+            ++pos[0];
+            Node left = parseNode(expression, pos);
+            Node right = parseNode(expression, pos);
+            skipSpaces(expression, pos);
+            if (pos[0] >= expression.length() || expression.charAt(pos[0]) != ')')
+                throw new IllegalArgumentException("Expected ) at " + pos[0] + " of the join tree: " + expression);
+            ++pos[0];
+            return new Node(left, right);
+        }
+        int start = pos[0];
+        while (pos[0] < expression.length() && Character.isDigit(expression.charAt(pos[0])))
+            ++pos[0];
+        if (start == pos[0])
+            throw new IllegalArgumentException("Expected a TC-Query id at " + start + " of the join tree: " + expression);
+        return new Node(Integer.parseInt(expression.substring(start, pos[0])));
+    }
+
+    public int numBuffers() {
+        return this.parents.length;
+    }
+
+    public int toBufferIdx(int tcQueryId) {
+        return this.leafBuffers[tcQueryId];
+    }
+
+    /**
+     * @return the TC-Query of a leaf buffer, -1 for an internal buffer
+     */
+    public int toTCQueryId(int bufferId) {
+        return this.tcQueryIds[bufferId];
+    }
+
+    public int getSibling(int bufferId) {
+        int parent = this.parents[bufferId];
+        return this.lefts[parent] == bufferId ? this.rights[parent] : this.lefts[parent];
+    }
+
+    public int getParent(int bufferId) {
+        return this.parents[bufferId];
+    }
+
+    /**
+     * @return the left child of an internal buffer, -1 for a leaf buffer
+     */
+    public int getLeft(int bufferId) {
+        return this.lefts[bufferId];
+    }
+
+    /**
+     * @return the right child of an internal buffer, -1 for a leaf buffer
+     */
+    public int getRight(int bufferId) {
+        return this.rights[bufferId];
+    }
+
+    /**
+     * @return the ids of the TC-Queries under the buffer, in increasing order
+     */
+    public ArrayList<Integer> getTCQueries(int bufferId) {
+        ArrayList<Integer> ids = new ArrayList<>();
+        collectTCQueries(bufferId, ids);
+        ids.sort(Integer::compare);
+        return ids;
+    }
+
+    void collectTCQueries(int bufferId, ArrayList<Integer> ids) {
+        if (this.lefts[bufferId] < 0) {
+            ids.add(this.tcQueryIds[bufferId]);
+            return;
+        }
+        collectTCQueries(this.lefts[bufferId], ids);
+        collectTCQueries(this.rights[bufferId], ids);
+    }
+
+    String toString(int bufferId) {
+        if (this.lefts[bufferId] < 0)
+            return Integer.toString(this.tcQueryIds[bufferId]);
+        return "(" + toString(this.lefts[bufferId]) + " " + toString(this.rights[bufferId]) + ")";
+    }
+
+    /**
+     * @return the tree in the format read by {@link #parse}
+     */
+    @Override
+    public String toString() {
+        return toString(numBuffers() - 1);
+    }
+}
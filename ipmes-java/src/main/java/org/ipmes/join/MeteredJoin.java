@@ -0,0 +1,52 @@
+package org.ipmes.join;
+
+import org.ipmes.match.MatchResult;
+import org.ipmes.metrics.LatencyHistogram;
+import org.ipmes.metrics.MetricsRegistry;
+import org.ipmes.sink.MatchSink;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * MeteredJoin counts the partial matches added to another join layer and the full matches it
+ * finds, and records the latency of each {@link #addMatchResult(MatchResult, Integer)}, under
+ * the metrics {@code <prefix>.PartialMatches}, {@code <prefix>.FullMatches} and
+ * {@code <prefix>.AddMatchResult}.
+ */
+public class MeteredJoin implements Join {
+    Join join;
+    MetricsRegistry metrics;
+    String prefix;
+    LongAdder numPartialMatches;
+    LatencyHistogram addLatency;
+
+    public MeteredJoin(Join join, MetricsRegistry metrics, String prefix) {
+        this.join = join;
+        this.metrics = metrics;
+        this.prefix = prefix;
+        this.numPartialMatches = metrics.counter(prefix + ".PartialMatches");
+        this.addLatency = metrics.histogram(prefix + ".AddMatchResult");
+    }
+
+    @Override
+    public void addMatchResult(MatchResult result, Integer tcQueryId) {
+        long start = System.nanoTime();
+        this.join.addMatchResult(result, tcQueryId);
+        this.addLatency.record(System.nanoTime() - start);
+        this.numPartialMatches.increment();
+    }
+
+    @Override
+    public void setSink(MatchSink sink) {
+        LongAdder numFullMatches = this.metrics.counter(this.prefix + ".FullMatches");
+        this.join.setSink(match -> {
+            numFullMatches.increment();
+            sink.accept(match);
+        });
+    }
+
+    @Override
+    public int getPoolSize() {
+        return this.join.getPoolSize();
+    }
+}
@@ -16,17 +16,39 @@ public class NaiveGenRel {
     TemporalRelation temporalRelation;
     PatternGraph spatialRelation;
     ArrayList<TCQueryRelation>[] relations;
+    JoinPredicate[] predicates;
 
     public NaiveGenRel(TemporalRelation temporalRelation, PatternGraph spatialRelation, ArrayList<TCQuery> selected) {
         this.temporalRelation = temporalRelation;
         this.spatialRelation = spatialRelation;
         this.relations = genRelations(selected);
+        // a TC-Query match is joined with entries of any other TC-Queries
+        int len = selected.size();
+        ArrayList<PatternEdge>[] resultEdges = (ArrayList<PatternEdge>[]) new ArrayList[len];
+        ArrayList<PatternEdge>[] entryEdges = (ArrayList<PatternEdge>[]) new ArrayList[len];
+        for (int i = 0; i < len; ++i) {
+            resultEdges[i] = selected.get(i).getEdges();
+            entryEdges[i] = new ArrayList<>();
+            for (int j = 0; j < len; ++j) {
+                if (j != i)
+                    entryEdges[i].addAll(selected.get(j).getEdges());
+            }
+        }
+        this.predicates = JoinPredicate.compile(this.relations, resultEdges, entryEdges, false,
+                temporalRelation, spatialRelation);
     }
 
     public ArrayList<TCQueryRelation>[] getRelation() {
         return this.relations;
     }
 
+    /**
+     * @return the compiled relations, i-th element checks the relations in getRelation()[i]
+     */
+    public JoinPredicate[] getPredicates() {
+        return this.predicates;
+    }
+
     /**
      * check whether two edges have any temporal or spatial relationship
      * 
@@ -1,17 +1,15 @@
 package org.ipmes.join;
 
 import org.ipmes.decomposition.TCQueryRelation;
-import org.ipmes.match.FullMatch;
-import org.ipmes.match.MatchEdge;
+import org.ipmes.match.BucketWindow;
 import org.ipmes.match.MatchResult;
 import org.ipmes.pattern.TemporalRelation;
 import org.ipmes.pattern.PatternGraph;
 import org.ipmes.decomposition.TCQuery;
+import org.ipmes.sink.MatchSink;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashSet;
-import java.util.TreeMap;
 
 /**
  * The naive way to join the partial matches with a huge table.
@@ -20,12 +18,12 @@ public class NaiveJoin implements Join {
 
     TemporalRelation temporalRelation;
     PatternGraph spatialRelation;
-    // store the match result of the whole pattern
-    HashSet<FullMatch> answer;
+    // receive the match result of the whole pattern
+    MatchSink sink;
     // table for joining result
     HashSet<MatchResult> expansionTable;
-    // use SortedMap<TimeStamp, entry> to maintain window
-    TreeMap<Long, MatchResult> mapForWindow;
+    // the entries of expansionTable bucketed by their earliest time to maintain window
+    BucketWindow<MatchResult> window;
     long windowSize;
     // all the new entry will be stored in bufferForPartialMatch,
     // and add to table at the end of addMatchResult
@@ -33,6 +31,7 @@ public class NaiveJoin implements Join {
     // store the realtionships of sub TC Queries
     NaiveGenRel relationGenerator;
     ArrayList<TCQueryRelation>[] TCQRelation;
+    JoinPredicate[] predicates;
     int curPoolSize;
 
     // constructor
@@ -40,107 +39,29 @@ public class NaiveJoin implements Join {
             ArrayList<TCQuery> subTCQueries) {
         this.temporalRelation = temporalRelation;
         this.spatialRelation = spatialRelation;
-        this.answer = new HashSet<>();
+        this.sink = MatchSink.DISCARD;
         this.expansionTable = new HashSet<MatchResult>();
         this.relationGenerator = new NaiveGenRel(temporalRelation, spatialRelation, subTCQueries);
         this.TCQRelation = relationGenerator.getRelation();
-        this.mapForWindow = new TreeMap<Long, MatchResult>();
+        this.predicates = relationGenerator.getPredicates();
+        this.window = new BucketWindow<>(BucketWindow.granularityOf(windowSize));
         this.windowSize = windowSize;
         this.bufferForPartialMatch = new ArrayList<MatchResult>();
         this.curPoolSize = 0;
     }
 
-    /**
-     * Use bit-operation like method to check edge spatial relation
-     * <p>
-     * we have two input DataEdge DE1 and DE2,
-     * if the relation between DE1.matched.getEndPoints and DE2.matched.getEndPoints
-     * equals DE1.getEndPoints and DE2.getEndPoints, return true.
-     * Otherwise, return false.
-     * </p>
-     * 
-     * @param n endpoints of one edge
-     * @param m endpoints of another edge
-     * @return the relationship type
-     */
-    private byte spatialRelationType(Long[] n, Long[] m) {
-        byte ret = 0;
-        for (long i : n) {
-            for (long j : m) {
-                if (i == j)
-                    ret |= 1;
-                ret <<= 1;
-            }
-        }
-        return ret;
-    }
-
-    /**
-     * check edge spatial relation
-     * 
-     * @param edgeInMatchResult
-     * @param edgeInEntry
-     * @return true if spatial relation between dataEdge and patternEdge is the
-     *         same, otherwise, false.
-     */
-
-    private boolean checkSpatialRelation(MatchEdge edgeInMatchResult, MatchEdge edgeInEntry) {
-        Long[][] arr = {
-                edgeInMatchResult.getMatched().getEndpoints(),
-                edgeInEntry.getMatched().getEndpoints(),
-                edgeInMatchResult.getEndpoints(),
-                edgeInEntry.getEndpoints()
-        };
-        return spatialRelationType(arr[0], arr[1]) == spatialRelationType(arr[2], arr[3]);
-    }
-
-    /**
-     * check edge temporal relation
-     * 
-     * @param edgeInMatchResult
-     * @param edgeInEntry
-     * @return true if temporal relation between dataEdge and patternEdge is the
-     *         same, otherwise, false.
-     */
-
-    private boolean checkTime(MatchEdge edgeInMatchResult, MatchEdge edgeInEntry) {
-        return (this.temporalRelation.getParents(edgeInMatchResult.matchId())
-                .contains(edgeInEntry.matchId()) && edgeInMatchResult.getTimestamp() >= edgeInEntry.getTimestamp())
-                ||
-                (this.temporalRelation.getChildren(edgeInMatchResult.matchId())
-                        .contains(edgeInEntry.matchId())
-                        && edgeInMatchResult.getTimestamp() <= edgeInEntry.getTimestamp())
-                ||
-                (!this.temporalRelation.getChildren(edgeInMatchResult.matchId())
-                        .contains(edgeInEntry.matchId())
-                        && !this.temporalRelation.getParents(edgeInMatchResult.matchId())
-                                .contains(edgeInEntry.matchId()));
-    }
-
     /**
      * use Timeout Window to clean up out-of-date entry.
      * <p>
-     * we use linked list to link all the entry with the same earliestTime,
-     * so when one is out-of-date, we can easily remove all the entry in the linked
-     * list.
+     * The entries are bucketed by their earliestTime, so when a bucket is out-of-date,
+     * all the entries in it are removed at once.
      * </p>
      * 
      * @param time the timestamp we are processing
      */
     private void cleanExpansionTable(long time) {
-        while (!this.mapForWindow.isEmpty()) {
-            if ((time - this.windowSize) < this.mapForWindow.firstKey())
-                break;
-            MatchResult nextToRemove = this.mapForWindow.firstEntry().getValue();
-            while (nextToRemove != null) {
-                MatchResult tmp = nextToRemove;
-                nextToRemove = nextToRemove.getNext();
-                this.expansionTable.remove(tmp);
-                this.curPoolSize -= 1;
-            }
-            // remove from FIFO
-            this.mapForWindow.pollFirstEntry();
-        }
+        // the entries with earliestTime <= time - windowSize are out-of-date
+        this.curPoolSize -= this.window.expire(time - this.windowSize + 1, this.expansionTable::remove);
         return;
     }
 
@@ -151,24 +72,12 @@ public class NaiveJoin implements Join {
      * @param tcQueryId id of the MatchResult
      */
     void joinMatchResult(MatchResult result, int tcQueryId) {
-        boolean fit = true;
-        for (MatchResult entry : this.expansionTable) {
+        for (MatchResult entry : this.window) {
             // check whether entry and result overlap
             if (entry.hasShareEdge(result))
                 continue;
-            fit = true;
-            // if any pair of edges in entry and result break the rules,
-            // change fit to false and break(the result doesn't fit in the entry)
-            for (TCQueryRelation relationship : this.TCQRelation[tcQueryId]) {
-                if (entry.containsPattern(relationship.idOfEntry)) {
-                    if (!(checkSpatialRelation(result.get(relationship.idOfResult), entry.get(relationship.idOfEntry))
-                            && checkTime(result.get(relationship.idOfResult), entry.get(relationship.idOfEntry)))) {
-                        fit = false;
-                        break;
-                    }
-                }
-            }
-            if (fit) {
+            // check the relations between the edges of result and the edges entry has
+            if (this.predicates[tcQueryId].testPresent(result, entry)) {
                 this.bufferForPartialMatch.add(result.merge(entry));
             }
         }
@@ -182,13 +91,10 @@ public class NaiveJoin implements Join {
         int ansSize = this.spatialRelation.numEdges();
         for (MatchResult entry : this.bufferForPartialMatch) {
             if (entry.size() == ansSize)
-                this.answer.add(entry.toFullMatch());
-            else {
+                this.sink.accept(entry.toFullMatch());
+            else if (this.window.add(entry.getEarliestTime(), entry)) {
                 this.expansionTable.add(entry);
                 this.curPoolSize += 1;
-                if (this.mapForWindow.containsKey(entry.getEarliestTime()))
-                    entry.setNext(this.mapForWindow.get(entry.getEarliestTime()));
-                this.mapForWindow.put(entry.getEarliestTime(), entry);
             }
         }
     }
@@ -228,11 +134,8 @@ public class NaiveJoin implements Join {
         this.bufferForPartialMatch.clear();
     }
 
-    /**
-     * extract full match result.
-     */
-    public Collection<FullMatch> extractAnswer() {
-        return this.answer;
+    public void setSink(MatchSink sink) {
+        this.sink = sink;
     }
 
     public int getPoolSize() {
@@ -0,0 +1,156 @@
+package org.ipmes.join;
+
+import org.ipmes.decomposition.TCQuery;
+import org.ipmes.match.MatchResult;
+import org.ipmes.pattern.PatternEdge;
+import org.ipmes.pattern.PatternGraph;
+import org.ipmes.pattern.TemporalRelation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * OffHeapJoin is a {@link PriorityJoin} keeping the partial matches off the heap.
+ * <p>
+ * Each buffer stores its partial matches as fixed-width records in a {@link RecordStore},
+ * and the hash indexes hold the offsets of the records. When joining, the records of the
+ * sibling buffer are loaded into a reused {@link MatchResult}, so only the joined results
+ * are allocated on the heap. This keeps the heap small and the GC pauses short when the
+ * window holds millions of partial matches. The on-heap buffers and indexes of
+ * {@link PriorityJoin} are never created.
+ * </p>
+ */
+public class OffHeapJoin extends PriorityJoin {
+    RecordStore[] stores;
+    // the offsets of the records in each buffer, keyed the same way as indexes
+    HashMap<Long, OffsetList>[] offsetIndexes;
+    // the reused result to load records of each buffer into
+    MatchResult[] views;
+
+    public OffHeapJoin(TemporalRelation temporalRelation, PatternGraph spatialRelation, long windowSize,
+            ArrayList<TCQuery> subTCQueries) {
+        this(temporalRelation, spatialRelation, windowSize, subTCQueries, JoinTree.leftDeep(subTCQueries.size()));
+    }
+
+    public OffHeapJoin(TemporalRelation temporalRelation, PatternGraph spatialRelation, long windowSize,
+            ArrayList<TCQuery> subTCQueries, JoinTree joinTree) {
+        super(temporalRelation, spatialRelation, windowSize, subTCQueries, joinTree, false);
+        PatternEdge[] patternEdges = new PatternEdge[spatialRelation.numEdges()];
+        for (PatternEdge edge : spatialRelation.getEdges())
+            patternEdges[edge.getId()] = edge;
+
+        // the pattern edges matched by the results in each buffer, the children are numbered before their parent
+        int len = this.TCQRelation.length;
+        long[] masks = new long[len];
+        for (int i = 0; i < len; ++i) {
+            if (joinTree.getLeft(i) < 0) {
+                for (PatternEdge edge : subTCQueries.get(toTCQueryId(i)).getEdges())
+                    masks[i] |= 1L << edge.getId();
+            } else {
+                masks[i] = masks[joinTree.getLeft(i)] | masks[joinTree.getRight(i)];
+            }
+        }
+
+        // the last buffer holds the answers, which are not stored
+        this.stores = new RecordStore[len - 1];
+        this.offsetIndexes = (HashMap<Long, OffsetList>[]) new HashMap[len - 1];
+        this.views = new MatchResult[len - 1];
+        for (int i = 0; i < len - 1; ++i) {
+            this.stores[i] = new RecordStore(masks[i]);
+            this.views[i] = new MatchResult(patternEdges);
+            if (this.keyEdges[i] >= 0)
+                this.offsetIndexes[i] = new HashMap<>();
+        }
+    }
+
+    @Override
+    void insert(ArrayList<MatchResult> newEntries, int bufferId) {
+        HashMap<Long, OffsetList> index = this.offsetIndexes[bufferId];
+        for (MatchResult entry : newEntries) {
+            long offset = this.stores[bufferId].append(entry);
+            if (offset < 0)
+                continue;
+            if (index != null)
+                index.computeIfAbsent(keyOf(entry, bufferId), k -> new OffsetList()).add(offset);
+            this.curPoolSize += 1;
+        }
+    }
+
+    @Override
+    void clearExpired(long latestTime, int bufferId) {
+        int expired = this.stores[bufferId].expire(latestTime - this.windowSize);
+        this.curPoolSize -= expired;
+        this.numExpired += expired;
+        this.numStale[bufferId] += expired;
+        if (this.offsetIndexes[bufferId] != null
+                && this.numStale[bufferId] > Math.max(MIN_STALE_TO_REBUILD, this.stores[bufferId].size()))
+            rebuildIndex(bufferId);
+    }
+
+    @Override
+    public int getBufferSize(int bufferId) {
+        return bufferId < this.stores.length ? this.stores[bufferId].size() : 0;
+    }
+
+    @Override
+    void rebuildIndex(int bufferId) {
+        HashMap<Long, OffsetList> index = this.offsetIndexes[bufferId];
+        RecordStore store = this.stores[bufferId];
+        MatchResult view = this.views[bufferId];
+        index.clear();
+        for (long offset = store.begin(); offset < store.end(); ++offset) {
+            if (!store.isLive(offset))
+                continue;
+            store.read(offset, view);
+            index.computeIfAbsent(keyOf(view, bufferId), k -> new OffsetList()).add(offset);
+        }
+        this.numStale[bufferId] = 0;
+    }
+
+    @Override
+    ArrayList<MatchResult> joinWithSibling(ArrayList<MatchResult> newEntries, int bufferId) {
+        int siblingId = getSibling(bufferId);
+        RecordStore store = this.stores[siblingId];
+        HashMap<Long, OffsetList> index = this.offsetIndexes[siblingId];
+        ArrayList<MatchResult> ret = new ArrayList<>();
+        for (MatchResult result : newEntries) {
+            if (index == null) {
+                for (long offset = store.begin(); offset < store.end(); ++offset)
+                    joinWithRecord(result, offset, bufferId, siblingId, ret);
+                continue;
+            }
+            OffsetList bucket = index.get(keyOf(result, bufferId));
+            if (bucket == null)
+                continue;
+            for (int i = 0; i < bucket.size; ++i)
+                joinWithRecord(result, bucket.offsets[i], bufferId, siblingId, ret);
+        }
+        this.numMerged += ret.size();
+        return ret;
+    }
+
+    void joinWithRecord(MatchResult result, long offset, int bufferId, int siblingId, ArrayList<MatchResult> ret) {
+        RecordStore store = this.stores[siblingId];
+        if (!store.isLive(offset))
+            return;
+        MatchResult entry = this.views[siblingId];
+        store.read(offset, entry);
+        if (checkRelations(result, entry, bufferId))
+            ret.add(entry.merge(result));
+    }
+
+    /**
+     * A growable list of record offsets.
+     */
+    static class OffsetList {
+        long[] offsets = new long[4];
+        int size = 0;
+
+        void add(long offset) {
+            if (this.size == this.offsets.length)
+                this.offsets = Arrays.copyOf(this.offsets, this.size * 2);
+            this.offsets[this.size++] = offset;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package org.ipmes.join;
+
+import org.ipmes.match.MatchResult;
+import org.ipmes.sink.MatchSink;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * PipelinedJoin runs another join layer on its own thread.
+ * <p>
+ * The partial matches passed to {@link #addMatchResult(MatchResult, Integer)} are put into a
+ * single-producer single-consumer ring buffer, and the join thread adds them to the wrapped
+ * join in the same order. So the composition layer doesn't wait for the join, and the results
+ * are the same as calling the wrapped join directly.
+ * </p>
+ * <p>
+ * The producer only reads the consumer's cursor when its cached copy says the ring is full,
+ * and the consumer publishes its cursor once per drained run, so the two threads seldom touch
+ * the same cache line.
+ * </p>
+ */
+public class PipelinedJoin implements Join, AutoCloseable {
+    static final int SPINS_BEFORE_PARK = 1000;
+    static final long PARK_NANOS = 50_000;
+
+    Join join;
+    MatchResult[] results;
+    int[] tcQueryIds;
+    int mask;
+    // the number of results published by the producer
+    volatile long published;
+    // the number of results added to the wrapped join
+    volatile long consumed;
+    // the producer's copy of consumed
+    long cachedConsumed;
+    volatile boolean closed;
+    volatile Throwable failure;
+    Thread thread;
+
+    /**
+     * @param join the join layer to run on its own thread
+     * @param capacity the capacity of the ring buffer, rounded up to a power of 2
+     */
+    public PipelinedJoin(Join join, int capacity) {
+        this.join = join;
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.results = new MatchResult[size];
+        this.tcQueryIds = new int[size];
+        this.mask = size - 1;
+        this.published = 0;
+        this.consumed = 0;
+        this.cachedConsumed = 0;
+        this.closed = false;
+        this.thread = new Thread(this::run, "ipmes-join");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    static void backoff(int spins) {
+        if (spins < SPINS_BEFORE_PARK)
+            Thread.onSpinWait();
+        else
+            LockSupport.parkNanos(PARK_NANOS);
+    }
+
+    void checkFailure() {
+        if (this.failure != null)
+            throw new IllegalStateException("Join thread failed", this.failure);
+    }
+
+    void run() {
+        try {
+            long seq = 0;
+            int spins = 0;
+            while (true) {
+                long end = this.published;
+                if (seq == end) {
+                    // read closed before published again, so no result published before closing is missed
+                    if (this.closed && seq == this.published)
+                        break;
+                    backoff(spins++);
+                    continue;
+                }
+                spins = 0;
+                for (; seq < end; ++seq) {
+                    int slot = (int) (seq & this.mask);
+                    MatchResult result = this.results[slot];
+                    this.results[slot] = null;
+                    this.join.addMatchResult(result, this.tcQueryIds[slot]);
+                }
+                this.consumed = seq;
+            }
+        } catch (Throwable e) {
+            this.failure = e;
+        } finally {
+            // never block the producer on a stopped thread
+            this.consumed = Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Publish the result to the join thread.
+     * @throws IllegalStateException if the join thread has failed
+     */
+    @Override
+    public void addMatchResult(MatchResult result, Integer tcQueryId) {
+        // a failed thread never fills the ring again, so check on every publish
+        checkFailure();
+        long seq = this.published;
+        for (int spins = 0; seq - this.cachedConsumed >= this.results.length; ++spins) {
+            if (spins > 0)
+                backoff(spins);
+            this.cachedConsumed = this.consumed;
+        }
+        int slot = (int) (seq & this.mask);
+        this.results[slot] = result;
+        this.tcQueryIds[slot] = tcQueryId;
+        this.published = seq + 1;
+    }
+
+    /**
+     * Wait for the join thread to add all the published results and stop it.
+     * @throws IllegalStateException if interrupted while waiting, with the interrupt flag set
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        try {
+            this.thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the join thread", e);
+        }
+        checkFailure();
+    }
+
+    /**
+     * Set the sink of the wrapped join, which is called on the join thread. Must be called
+     * before adding any result.
+     */
+    @Override
+    public void setSink(MatchSink sink) {
+        this.join.setSink(sink);
+    }
+
+    /**
+     * @return the pool size of the wrapped join, may be slightly stale
+     */
+    @Override
+    public int getPoolSize() {
+        return this.join.getPoolSize();
+    }
+}
@@ -16,20 +16,58 @@ public class PriorityGenRel {
     TemporalRelation temporalRelation;
     PatternGraph spatialRelation;
     ArrayList<TCQueryRelation>[] relations;
+    JoinPredicate[] predicates;
     ArrayList<TCQuery> subTCQueries;
+    JoinTree joinTree;
 
     public PriorityGenRel(TemporalRelation temporalRelation, PatternGraph spatialRelation,
             ArrayList<TCQuery> selected) {
+        this(temporalRelation, spatialRelation, selected, JoinTree.leftDeep(selected.size()));
+    }
+
+    /**
+     * @param joinTree the tree the TC-Queries are joined along
+     */
+    public PriorityGenRel(TemporalRelation temporalRelation, PatternGraph spatialRelation,
+            ArrayList<TCQuery> selected, JoinTree joinTree) {
         this.temporalRelation = temporalRelation;
         this.spatialRelation = spatialRelation;
         this.subTCQueries = selected;
+        this.joinTree = joinTree;
         this.relations = genRelations(selected);
+        int len = this.relations.length;
+        ArrayList<PatternEdge>[] resultEdges = (ArrayList<PatternEdge>[]) new ArrayList[len];
+        ArrayList<PatternEdge>[] entryEdges = (ArrayList<PatternEdge>[]) new ArrayList[len];
+        for (int i = 0; i < len; ++i) {
+            resultEdges[i] = collectEdges(i);
+            // the root has no sibling
+            entryEdges[i] = i == len - 1 ? new ArrayList<>() : collectEdges(joinTree.getSibling(i));
+        }
+        this.predicates = JoinPredicate.compile(this.relations, resultEdges, entryEdges, true,
+                temporalRelation, spatialRelation);
+    }
+
+    /**
+     * @return the pattern edges of the TC-Queries under the buffer
+     */
+    ArrayList<PatternEdge> collectEdges(int bufferId) {
+        ArrayList<PatternEdge> edges = new ArrayList<>();
+        for (int id : this.joinTree.getTCQueries(bufferId))
+            edges.addAll(this.subTCQueries.get(id).getEdges());
+        return edges;
     }
 
     public ArrayList<TCQueryRelation>[] getRelation() {
         return this.relations;
     }
 
+    /**
+     * @return the compiled relations, i-th element checks the relations in getRelation()[i]
+     */
+    public JoinPredicate[] getPredicates() {
+        return this.predicates;
+    }
+
     /**
      * check whether two edges have any temporal or spatial relationship.
      * 
@@ -44,16 +82,16 @@ public class PriorityGenRel {
     }
 
     /**
-     * use this method to record the relations between two methods.
+     * use this method to record the relations between two TC-Queries.
      * 
-     * @param resultId the selected TCQuery's bufferId
-     * @param entryId  bufferId of the entry the selected TCQuery want to join
+     * @param resultId the TC-Query id of the selected TC-Query
+     * @param entryId  the TC-Query id of the entry the selected TCQuery want to join
      * @return the relations between two TCQueries
      */
     ArrayList<TCQueryRelation> helperForGenerate(int resultId, int entryId) {
         ArrayList<TCQueryRelation> ret = new ArrayList<TCQueryRelation>();
-        for (PatternEdge edge1 : this.subTCQueries.get((resultId + 1) / 2).getEdges()) {
-            for (PatternEdge edge2 : this.subTCQueries.get((entryId + 1) / 2).getEdges()) {
+        for (PatternEdge edge1 : this.subTCQueries.get(resultId).getEdges()) {
+            for (PatternEdge edge2 : this.subTCQueries.get(entryId).getEdges()) {
                 if (hasRelations(edge1, edge2)) {
                     TCQueryRelation tempRelation = new TCQueryRelation();
                     tempRelation.idOfResult = edge1.getId();
@@ -65,38 +103,6 @@ public class PriorityGenRel {
         return ret;
     }
 
-    /**
-     * Generate the relation of buffer and its sibling, if the bufferId is even,
-     * resultId would be 0, 1, 3, 5..., and entryId would be id+1
-     * 
-     * @param id the bufferId of the relations we want to generate.
-     * @return relations of buffer and its sibling.
-     */
-    ArrayList<TCQueryRelation> evenGenRel(int id) {
-        ArrayList<TCQueryRelation> ret = new ArrayList<TCQueryRelation>();
-        int entryId = id + 1, resultId = 0;
-        ret.addAll(helperForGenerate(resultId, entryId));
-        for (resultId = 1; resultId < entryId; resultId += 2)
-            ret.addAll(helperForGenerate(resultId, entryId));
-        return ret;
-    }
-
-    /**
-     * Generate the relation of buffer and its sibling, if the bufferId is odd,
-     * resultId would be id, and entryId would be 0, 1, 3, 5...
-     * 
-     * @param id the bufferId of the relations we want to generate.
-     * @return relations of buffer and its sibling.
-     */
-    ArrayList<TCQueryRelation> oddGenRel(int id) {
-        ArrayList<TCQueryRelation> ret = new ArrayList<TCQueryRelation>();
-        int resultId = id, entryId = 0;
-        ret.addAll(helperForGenerate(resultId, entryId));
-        for (entryId = 1; entryId < resultId; entryId += 2)
-            ret.addAll(helperForGenerate(resultId, entryId));
-        return ret;
-    }
-
     /**
      * Generate relations for all selected TC Query. This method will collect all
      * relations
@@ -104,21 +110,21 @@ public class PriorityGenRel {
      * spatial relations.
      * 
      * @param selected selected TC-Query
-     * @return an array of relations, i-th element is the relations for i-th
-     *         TC-Query
+     * @return an array of relations, i-th element is the relations between the
+     *         TC-Queries under the i-th buffer of the join tree and its sibling
      */
     ArrayList<TCQueryRelation>[] genRelations(ArrayList<TCQuery> selected) {
-        ArrayList<TCQueryRelation>[] relations = (ArrayList<TCQueryRelation>[]) new ArrayList[2 * selected.size() - 1];
+        ArrayList<TCQueryRelation>[] relations = (ArrayList<TCQueryRelation>[]) new ArrayList[this.joinTree.numBuffers()];
         relations[0] = new ArrayList<>();
         if (relations.length == 1)
             return relations;
-        relations[0] = helperForGenerate(0, 1);
-        for (int i = 1; i < relations.length - 1; i++) {
+        // the root holds the full matches and has no sibling
+        for (int i = 0; i < relations.length - 1; i++) {
             relations[i] = new ArrayList<>();
-            if (i % 2 == 0) {
-                relations[i] = evenGenRel(i);
-            } else {
-                relations[i] = oddGenRel(i);
+            ArrayList<Integer> entryIds = this.joinTree.getTCQueries(this.joinTree.getSibling(i));
+            for (int resultId : this.joinTree.getTCQueries(i)) {
+                for (int entryId : entryIds)
+                    relations[i].addAll(helperForGenerate(resultId, entryId));
             }
         }
         return relations;
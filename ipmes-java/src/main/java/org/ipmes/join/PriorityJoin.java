@@ -2,11 +2,12 @@ package org.ipmes.join;
 
 import org.ipmes.decomposition.TCQuery;
 import org.ipmes.decomposition.TCQueryRelation;
-import org.ipmes.match.FullMatch;
-import org.ipmes.match.MatchEdge;
+import org.ipmes.match.BucketWindow;
 import org.ipmes.match.MatchResult;
+import org.ipmes.pattern.PatternEdge;
 import org.ipmes.pattern.TemporalRelation;
 import org.ipmes.pattern.PatternGraph;
+import org.ipmes.sink.MatchSink;
 
 import java.util.*;
 
@@ -14,119 +15,166 @@ import java.util.*;
  * The organized table approach to join partial matches.
  */
 public class PriorityJoin implements Join {
+    static final int MIN_STALE_TO_REBUILD = 1024;
+
     TemporalRelation temporalRelation;
     PatternGraph spatialRelation;
-    // store the match result of the whole pattern
-    HashSet<FullMatch> answer;
-    // table for joining result
-    PriorityQueue<MatchResult>[] partialMatchResult;
+    // receive the match result of the whole pattern
+    MatchSink sink;
+    // table for joining result, the results expire by their earliest time, null if stored by a subclass
+    BucketWindow<MatchResult>[] partialMatchResult;
     // store the realtionships of sub TC Queries
     PriorityGenRel relationGenerator;
+    JoinTree joinTree;
     ArrayList<TCQueryRelation>[] TCQRelation;
+    JoinPredicate[] predicates;
     long windowSize;
     int curPoolSize;
+    // hash index of each buffer, keyed by the data node bound to an endpoint of keyEdges[i], null if not indexed
+    HashMap<Long, ArrayList<MatchResult>>[] indexes;
+    // -1 if the buffer is not indexed
+    int[] keyEdges;
+    boolean[] keyIsStart;
+    // the number of dropped results still in the index of each buffer
+    int[] numStale;
+    // the number of partial matches expired, and created by joining
+    long numExpired;
+    long numMerged;
 
     // constructor
     public PriorityJoin(TemporalRelation temporalRelation, PatternGraph spatialRelation, long windowSize,
             ArrayList<TCQuery> subTCQueries) {
+        this(temporalRelation, spatialRelation, windowSize, subTCQueries, JoinTree.leftDeep(subTCQueries.size()));
+    }
+
+    /**
+     * @param joinTree the tree the TC-Queries are joined along
+     */
+    public PriorityJoin(TemporalRelation temporalRelation, PatternGraph spatialRelation, long windowSize,
+            ArrayList<TCQuery> subTCQueries, JoinTree joinTree) {
+        this(temporalRelation, spatialRelation, windowSize, subTCQueries, joinTree, true);
+    }
+
+    /**
+     * @param onHeap create the buffers and hash indexes on the heap, false if a subclass stores the partial matches
+     */
+    PriorityJoin(TemporalRelation temporalRelation, PatternGraph spatialRelation, long windowSize,
+            ArrayList<TCQuery> subTCQueries, JoinTree joinTree, boolean onHeap) {
         this.temporalRelation = temporalRelation;
         this.spatialRelation = spatialRelation;
-        this.answer = new HashSet<>();
-        this.relationGenerator = new PriorityGenRel(temporalRelation, spatialRelation, subTCQueries);
+        this.sink = MatchSink.DISCARD;
+        this.joinTree = joinTree;
+        this.relationGenerator = new PriorityGenRel(temporalRelation, spatialRelation, subTCQueries, joinTree);
         this.TCQRelation = relationGenerator.getRelation();
+        this.predicates = relationGenerator.getPredicates();
         this.windowSize = windowSize;
-        this.partialMatchResult = (PriorityQueue<MatchResult>[]) new PriorityQueue[2 * TCQRelation.length - 1];
-        for (int i = 0; i < TCQRelation.length; i++) {
-            this.partialMatchResult[i] = new PriorityQueue<>(Comparator.comparingLong(MatchResult::getEarliestTime));
+        if (onHeap) {
+            this.partialMatchResult = (BucketWindow<MatchResult>[]) new BucketWindow[TCQRelation.length];
+            long granularity = BucketWindow.granularityOf(windowSize);
+            for (int i = 0; i < TCQRelation.length; i++) {
+                this.partialMatchResult[i] = new BucketWindow<>(granularity);
+            }
         }
         this.curPoolSize = 0;
+        this.numExpired = 0;
+        this.numMerged = 0;
+        initIndexes(onHeap);
     }
 
-    int toBufferIdx(int tcQueryId) {
-        if (tcQueryId == 0)
-            return 0;
-        return tcQueryId * 2 - 1;
-    }
-
-    int toTCQueryId(int bufferId) {
-        return (bufferId + 1) / 2;
+    /**
+     * Find a pattern node shared by the two sides of each pair of sibling buffers. The data node
+     * bound to it must be the same on both sides, so each buffer is indexed by its data node, and
+     * a new entry only probes the entries of its sibling bound to the same data node.
+     * @param onHeap create the hash indexes, otherwise only find the keys
+     */
+    void initIndexes(boolean onHeap) {
+        int len = this.TCQRelation.length;
+        this.indexes = (HashMap<Long, ArrayList<MatchResult>>[]) new HashMap[len];
+        this.keyEdges = new int[len];
+        Arrays.fill(this.keyEdges, -1);
+        this.keyIsStart = new boolean[len];
+        this.numStale = new int[len];
+        // the children of each internal buffer are siblings, the last buffer holds the answers
+        for (int parent = 0; parent < len; ++parent) {
+            int left = this.joinTree.getLeft(parent);
+            int right = this.joinTree.getRight(parent);
+            if (left < 0)
+                continue;
+            for (TCQueryRelation relation : this.TCQRelation[left]) {
+                PatternEdge e1 = this.spatialRelation.getEdge(relation.idOfResult);
+                PatternEdge e2 = this.spatialRelation.getEdge(relation.idOfEntry);
+                int shared;
+                if (e1.getStartId().equals(e2.getStartId()) || e1.getStartId().equals(e2.getEndId()))
+                    shared = e1.getStartId();
+                else if (e1.getEndId().equals(e2.getStartId()) || e1.getEndId().equals(e2.getEndId()))
+                    shared = e1.getEndId();
+                else
+                    continue;
+                this.keyEdges[left] = e1.getId();
+                this.keyIsStart[left] = e1.getStartId() == shared;
+                this.keyEdges[right] = e2.getId();
+                this.keyIsStart[right] = e2.getStartId() == shared;
+                if (onHeap) {
+                    this.indexes[left] = new HashMap<>();
+                    this.indexes[right] = new HashMap<>();
+                }
+                break;
+            }
+        }
     }
 
-    int getSibling(int bufferId) {
-        if ((bufferId & 1) == 1)
-            return bufferId - 1;
-        return bufferId + 1;
+    long keyOf(MatchResult result, int bufferId) {
+        int edge = this.keyEdges[bufferId];
+        return this.keyIsStart[bufferId] ? result.getStartId(edge) : result.getEndId(edge);
     }
 
-    int getParent(int bufferId) {
-        if ((bufferId & 1) == 1)
-            return bufferId + 1;
-        return bufferId + 2;
+    void addToIndex(Iterable<MatchResult> entries, int bufferId) {
+        HashMap<Long, ArrayList<MatchResult>> index = this.indexes[bufferId];
+        if (index == null)
+            return;
+        for (MatchResult entry : entries)
+            index.computeIfAbsent(keyOf(entry, bufferId), k -> new ArrayList<>()).add(entry);
     }
 
     /**
-     * Use bit-operation like method to check edge spatial relation
-     * <p>
-     * we have two input DataEdge DE1 and DE2,
-     * if the relation between DE1.matched.getEndPoints and DE2.matched.getEndPoints
-     * equals DE1.getEndPoints and DE2.getEndPoints, return true.
-     * Otherwise, return false.
-     * </p>
-     * 
-     * @param n endpoints of one edge
-     * @param m endpoints of another edge
-     * @return the relationship type
+     * Rebuild the index of the buffer without the expired results.
      */
-    private byte spatialRelationType(Long[] n, Long[] m) {
-        byte ret = 0;
-        for (long i : n) {
-            for (long j : m) {
-                if (i == j)
-                    ret |= 1;
-                ret <<= 1;
-            }
-        }
-        return ret;
+    void rebuildIndex(int bufferId) {
+        this.indexes[bufferId].clear();
+        addToIndex(this.partialMatchResult[bufferId], bufferId);
+        this.numStale[bufferId] = 0;
     }
 
     /**
-     * check edge spatial relation
-     * 
-     * @param edgeInMatchResult
-     * @param edgeInEntry
-     * @return true if spatial relation between dataEdge and patternEdge is the
-     *         same, otherwise, false.
+     * Get the entries in the sibling buffer that may be joined with the result.
+     * The returned entries may contain expired ones.
      */
-    private boolean checkSpatialRelation(MatchEdge edgeInMatchResult, MatchEdge edgeInEntry) {
-        Long[][] arr = {
-                edgeInMatchResult.getMatched().getEndpoints(),
-                edgeInEntry.getMatched().getEndpoints(),
-                edgeInMatchResult.getEndpoints(),
-                edgeInEntry.getEndpoints()
-        };
-        return spatialRelationType(arr[0], arr[1]) == spatialRelationType(arr[2], arr[3]);
+    Iterable<MatchResult> getCandidates(MatchResult result, int bufferId, int siblingId) {
+        HashMap<Long, ArrayList<MatchResult>> index = this.indexes[siblingId];
+        if (index == null)
+            return this.partialMatchResult[siblingId];
+        ArrayList<MatchResult> bucket = index.get(keyOf(result, bufferId));
+        return bucket == null ? Collections.emptyList() : bucket;
     }
 
-    /**
-     * check edge temporal relation
-     * 
-     * @param edgeInMatchResult
-     * @param edgeInEntry
-     * @return true if temporal relation between dataEdge and patternEdge is the
-     *         same, otherwise, false.
-     */
-    private boolean checkTemporalRelation(MatchEdge edgeInMatchResult, MatchEdge edgeInEntry) {
-        return (this.temporalRelation.getParents(edgeInMatchResult.matchId())
-                .contains(edgeInEntry.matchId()) && edgeInMatchResult.getTimestamp() >= edgeInEntry.getTimestamp())
-                ||
-                (this.temporalRelation.getChildren(edgeInMatchResult.matchId())
-                        .contains(edgeInEntry.matchId())
-                        && edgeInMatchResult.getTimestamp() <= edgeInEntry.getTimestamp())
-                ||
-                (!this.temporalRelation.getChildren(edgeInMatchResult.matchId())
-                        .contains(edgeInEntry.matchId())
-                        && !this.temporalRelation.getParents(edgeInMatchResult.matchId())
-                                .contains(edgeInEntry.matchId()));
+    int toBufferIdx(int tcQueryId) {
+        return this.joinTree.toBufferIdx(tcQueryId);
+    }
+
+    int toTCQueryId(int bufferId) {
+        return this.joinTree.toTCQueryId(bufferId);
+    }
+
+    int getSibling(int bufferId) {
+        return this.joinTree.getSibling(bufferId);
+    }
+
+    int getParent(int bufferId) {
+        return this.joinTree.getParent(bufferId);
+    }
+
+    public JoinTree getJoinTree() {
+        return this.joinTree;
     }
 
     /**
@@ -138,15 +186,7 @@ public class PriorityJoin implements Join {
      * @return true if fit all the relations.
      */
     boolean checkRelations(MatchResult result, MatchResult entry, int bufferId) {
-        for (TCQueryRelation relation : this.TCQRelation[bufferId]) {
-            if (!(checkSpatialRelation(result.get(relation.idOfResult),
-                    entry.get(relation.idOfEntry))
-                    && checkTemporalRelation(result.get(relation.idOfResult),
-                            entry.get(relation.idOfEntry)))) {
-                return false;
-            }
-        }
-        return true;
+        return this.predicates[bufferId].test(result, entry);
     }
 
     /**
@@ -160,14 +200,32 @@ public class PriorityJoin implements Join {
         int siblingId = getSibling(bufferId);
         ArrayList<MatchResult> ret = new ArrayList<>();
         for (MatchResult result : newEntries) {
-            for (MatchResult entry : this.partialMatchResult[siblingId]) {
+            for (MatchResult entry : getCandidates(result, bufferId, siblingId)) {
+                if (!this.partialMatchResult[siblingId].isLive(entry.getEarliestTime()))
+                    continue;
                 if (checkRelations(result, entry, bufferId))
                     ret.add(entry.merge(result));
             }
         }
+        this.numMerged += ret.size();
         return ret;
     }
 
+    /**
+     * Insert the new entries into the buffer.
+     */
+    void insert(ArrayList<MatchResult> newEntries, int bufferId) {
+        BucketWindow<MatchResult> buffer = this.partialMatchResult[bufferId];
+        HashMap<Long, ArrayList<MatchResult>> index = this.indexes[bufferId];
+        for (MatchResult entry : newEntries) {
+            if (!buffer.add(entry.getEarliestTime(), entry))
+                continue;
+            if (index != null)
+                index.computeIfAbsent(keyOf(entry, bufferId), k -> new ArrayList<>()).add(entry);
+            this.curPoolSize += 1;
+        }
+    }
+
     /**
      * clean up expired partial matches
      * 
@@ -175,11 +233,14 @@ public class PriorityJoin implements Join {
      * @param bufferId   the buffer we want to clean up
      */
     void clearExpired(long latestTime, int bufferId) {
-        while (!this.partialMatchResult[bufferId].isEmpty() &&
-                latestTime - this.windowSize > this.partialMatchResult[bufferId].peek().getEarliestTime()) {
-            this.partialMatchResult[bufferId].poll();
-            this.curPoolSize -= 1;
-        }
+        int dropped = this.partialMatchResult[bufferId].expire(latestTime - this.windowSize);
+        this.numStale[bufferId] += dropped;
+        this.curPoolSize -= dropped;
+        this.numExpired += dropped;
+        // the expired results are removed from the index lazily
+        if (this.indexes[bufferId] != null
+                && this.numStale[bufferId] > Math.max(MIN_STALE_TO_REBUILD, this.partialMatchResult[bufferId].size()))
+            rebuildIndex(bufferId);
         return;
     }
 
@@ -213,27 +274,51 @@ public class PriorityJoin implements Join {
         while (!newEntries.isEmpty()) {
             if (bufferId == TCQRelation.length - 1) {
                 for (MatchResult res : newEntries)
-                    answer.add(res.toFullMatch());
+                    this.sink.accept(res.toFullMatch());
                 break;
             }
-            this.partialMatchResult[bufferId].addAll(newEntries);
-            this.curPoolSize += newEntries.size();
+            // expire the buffer before inserting, or an idle gap would stretch its window
+            clearExpired(latestTime, bufferId);
+            insert(newEntries, bufferId);
             clearExpired(latestTime, getSibling(bufferId));
             newEntries = joinWithSibling(newEntries, bufferId);
             bufferId = getParent(bufferId);
         }
     }
 
-    /**
-     * extract full match result.
-     */
-    public Collection<FullMatch> extractAnswer() {
-        Collection<FullMatch> res = this.answer;
-        this.answer = new HashSet<>();
-        return res;
+    public void setSink(MatchSink sink) {
+        this.sink = sink;
     }
 
     public int getPoolSize() {
         return this.curPoolSize;
     }
+
+    /**
+     * @return the number of buffers, the last one holds the full matches and is always empty
+     */
+    public int getNumBuffers() {
+        return this.TCQRelation.length;
+    }
+
+    /**
+     * @return the number of partial matches in the buffer, may be stale if read from another thread
+     */
+    public int getBufferSize(int bufferId) {
+        return this.partialMatchResult[bufferId].size();
+    }
+
+    /**
+     * @return the number of partial matches dropped for leaving the window
+     */
+    public long getNumExpired() {
+        return this.numExpired;
+    }
+
+    /**
+     * @return the number of partial matches created by joining siblings, including the full matches
+     */
+    public long getNumMerged() {
+        return this.numMerged;
+    }
 }
@@ -0,0 +1,175 @@
+package org.ipmes.join;
+
+import org.ipmes.match.MatchResult;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * RecordStore keeps the partial matches of a join buffer as fixed-width records off the heap.
+ * <p>
+ * All results in a buffer match the same pattern edges, so they are written as records of
+ * the same length into slabs of direct memory. A record is addressed by its offset, the number
+ * of records appended before it. Records are appended in arrival order, which follows the
+ * window closely, so a whole slab expires at once and is put back to a free list for reuse.
+ * A record is dead once its earliest time falls before the expiry bound, even if its slab is
+ * still alive.
+ * </p>
+ */
+class RecordStore {
+    static final int RECORDS_PER_SLAB = 1 << 14;
+
+    long patternEdgeMask;
+    int recordLength;
+    // slabs[i] holds the records [i * RECORDS_PER_SLAB, (i + 1) * RECORDS_PER_SLAB), null if freed
+    ArrayList<LongBuffer> slabs;
+    // the maximum earliest time of the records in each slab
+    long[] slabMaxEarliest;
+    int firstSlab;
+    ArrayDeque<LongBuffer> freeSlabs;
+    long numRecords;
+    long expireBefore;
+    // min-heap of the earliest time of live records, to count the expired ones exactly
+    long[] heap;
+    int heapSize;
+
+    RecordStore(long patternEdgeMask) {
+        this.patternEdgeMask = patternEdgeMask;
+        this.recordLength = MatchResult.recordLength(patternEdgeMask);
+        this.slabs = new ArrayList<>();
+        this.slabMaxEarliest = new long[16];
+        this.firstSlab = 0;
+        this.freeSlabs = new ArrayDeque<>();
+        this.numRecords = 0;
+        this.expireBefore = Long.MIN_VALUE;
+        this.heap = new long[1024];
+        this.heapSize = 0;
+    }
+
+    LongBuffer newSlab() {
+        LongBuffer slab = this.freeSlabs.pollFirst();
+        if (slab != null)
+            return slab;
+        return ByteBuffer.allocateDirect(RECORDS_PER_SLAB * this.recordLength * Long.BYTES)
+                .order(ByteOrder.nativeOrder())
+                .asLongBuffer();
+    }
+
+    /**
+     * Append a result, unless it has already expired.
+     * @return the offset of the record, -1 if the result has expired
+     */
+    long append(MatchResult result) {
+        if (result.getEarliestTime() < this.expireBefore)
+            return -1;
+        long offset = this.numRecords++;
+        int slabIdx = (int) (offset / RECORDS_PER_SLAB);
+        if (slabIdx == this.slabs.size()) {
+            this.slabs.add(newSlab());
+            if (slabIdx == this.slabMaxEarliest.length)
+                this.slabMaxEarliest = Arrays.copyOf(this.slabMaxEarliest, slabIdx * 2);
+            this.slabMaxEarliest[slabIdx] = Long.MIN_VALUE;
+        }
+        int pos = (int) (offset % RECORDS_PER_SLAB) * this.recordLength;
+        result.writeRecord(this.slabs.get(slabIdx), pos);
+        this.slabMaxEarliest[slabIdx] = Math.max(this.slabMaxEarliest[slabIdx], result.getEarliestTime());
+        heapPush(result.getEarliestTime());
+        return offset;
+    }
+
+    /**
+     * Expire the records whose earliest time is before the given time, and free the slabs
+     * holding only dead records.
+     * @return the number of records expired
+     */
+    int expire(long before) {
+        this.expireBefore = Math.max(this.expireBefore, before);
+        int expired = 0;
+        while (this.heapSize > 0 && this.heap[0] < this.expireBefore) {
+            heapPop();
+            ++expired;
+        }
+        // the last slab is still being filled
+        int lastSlab = this.slabs.size() - 1;
+        while (this.firstSlab < lastSlab && this.slabMaxEarliest[this.firstSlab] < this.expireBefore) {
+            this.freeSlabs.addLast(this.slabs.get(this.firstSlab));
+            this.slabs.set(this.firstSlab, null);
+            ++this.firstSlab;
+        }
+        return expired;
+    }
+
+    /**
+     * @return the offset of the first record in the live slabs
+     */
+    long begin() {
+        return (long) this.firstSlab * RECORDS_PER_SLAB;
+    }
+
+    /**
+     * @return the offset after the last record
+     */
+    long end() {
+        return this.numRecords;
+    }
+
+    /**
+     * @return the number of live records
+     */
+    int size() {
+        return this.heapSize;
+    }
+
+    boolean isLive(long offset) {
+        int slabIdx = (int) (offset / RECORDS_PER_SLAB);
+        if (slabIdx < this.firstSlab)
+            return false;
+        int pos = (int) (offset % RECORDS_PER_SLAB) * this.recordLength;
+        // the earliest time is the first field of a record
+        return this.slabs.get(slabIdx).get(pos) >= this.expireBefore;
+    }
+
+    /**
+     * Load the record into the given result.
+     */
+    void read(long offset, MatchResult into) {
+        int slabIdx = (int) (offset / RECORDS_PER_SLAB);
+        int pos = (int) (offset % RECORDS_PER_SLAB) * this.recordLength;
+        into.readRecord(this.slabs.get(slabIdx), pos, this.patternEdgeMask);
+    }
+
+    void heapPush(long value) {
+        if (this.heapSize == this.heap.length)
+            this.heap = Arrays.copyOf(this.heap, this.heapSize * 2);
+        int i = this.heapSize++;
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (this.heap[parent] <= value)
+                break;
+            this.heap[i] = this.heap[parent];
+            i = parent;
+        }
+        this.heap[i] = value;
+    }
+
+    void heapPop() {
+        long value = this.heap[--this.heapSize];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= this.heapSize)
+                break;
+            if (child + 1 < this.heapSize && this.heap[child + 1] < this.heap[child])
+                ++child;
+            if (value <= this.heap[child])
+                break;
+            this.heap[i] = this.heap[child];
+            i = child;
+        }
+        this.heap[i] = value;
+    }
+}
@@ -0,0 +1,273 @@
+package org.ipmes.match;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+
+/**
+ * A time window of items bucketed by time.
+ * <p>
+ * Each item is put into the bucket keyed by its time divided by the granularity, and the buckets
+ * are kept in a ring covering the keys from the oldest to the newest bucket. Inserting an item is
+ * appending it to its bucket, and the buckets falling out of the window are dropped as a whole.
+ * The items in the oldest bucket may be partly expired; they are skipped when iterating, but are
+ * still held and counted by {@link #size()} until the whole bucket expires.
+ * </p>
+ * <p>
+ * The ring grows when the items span more buckets than it has, and shrinks back when the expiry
+ * leaves it mostly empty. The buckets are allocated when first used. The live items are within a
+ * window, and {@link #granularityOf} gives a fixed number of buckets per window, so the ring stays
+ * small as long as the owner expires the window up to the new time before adding to it. Otherwise
+ * a gap of idle time between the old and the new items is covered bucket by bucket.
+ * </p>
+ */
+public class BucketWindow<T> implements Iterable<T> {
+    public static final int DEFAULT_NUM_BUCKETS = 64;
+
+    long granularity;
+    // the number of buckets is a power of 2, so the key of a bucket maps to key & (length - 1)
+    Bucket<T>[] ring;
+    // keys of the oldest bucket and one past the newest bucket, only valid if size > 0
+    long headKey;
+    long tailKey;
+    // the items before this time are expired
+    long expireBefore;
+    int size;
+
+    /**
+     * @param granularity the time span of a bucket, must be positive
+     */
+    public BucketWindow(long granularity) {
+        if (granularity <= 0)
+            throw new IllegalArgumentException("granularity must be positive: " + granularity);
+        this.granularity = granularity;
+        this.ring = newRing(DEFAULT_NUM_BUCKETS * 2);
+        this.headKey = 0;
+        this.tailKey = 0;
+        this.expireBefore = Long.MIN_VALUE;
+        this.size = 0;
+    }
+
+    /**
+     * @param windowSize the window size
+     * @return the granularity splitting the window into {@link #DEFAULT_NUM_BUCKETS} buckets
+     */
+    public static long granularityOf(long windowSize) {
+        return Math.max(1, windowSize / DEFAULT_NUM_BUCKETS);
+    }
+
+    static <T> Bucket<T>[] newRing(int numBuckets) {
+        return (Bucket<T>[]) new Bucket[numBuckets];
+    }
+
+    /**
+     * Move the buckets in [headKey, tailKey) into a new ring with the given number of buckets.
+     */
+    void resize(int numBuckets) {
+        Bucket<T>[] old = this.ring;
+        this.ring = newRing(numBuckets);
+        if (this.size > 0) {
+            for (long key = this.headKey; key < this.tailKey; ++key)
+                this.ring[(int) (key & (this.ring.length - 1))] = old[(int) (key & (old.length - 1))];
+        }
+    }
+
+    Bucket<T> bucketOf(long key) {
+        return this.ring[(int) (key & (this.ring.length - 1))];
+    }
+
+    Bucket<T> allocBucketOf(long key) {
+        int idx = (int) (key & (this.ring.length - 1));
+        if (this.ring[idx] == null)
+            this.ring[idx] = new Bucket<>();
+        return this.ring[idx];
+    }
+
+    /**
+     * Make the ring large enough to hold the buckets in [headKey, tailKey).
+     */
+    void ensureSpan(long headKey, long tailKey) {
+        long span = tailKey - headKey;
+        if (span <= this.ring.length)
+            return;
+        if (span > (1 << 30))
+            throw new IllegalStateException("too many buckets in the window: " + span);
+        resize(Integer.highestOneBit((int) span - 1) << 1);
+    }
+
+    /**
+     * Shrink the ring once the buckets in [headKey, tailKey) fit in an eighth of it, so a ring
+     * grown for a burst or a gap doesn't hold its memory forever.
+     */
+    void shrinkIfSparse() {
+        int minLength = DEFAULT_NUM_BUCKETS * 2;
+        if (this.ring.length <= minLength)
+            return;
+        if (this.size == 0) {
+            this.ring = newRing(minLength);
+            return;
+        }
+        long span = this.tailKey - this.headKey;
+        if (span * 8 <= this.ring.length)
+            resize(Math.max(minLength, Integer.highestOneBit((int) span - 1) << 1));
+    }
+
+    /**
+     * Add an item. The item is dropped if it is already expired.
+     * @param time the time deciding when the item expires
+     * @param item the item
+     * @return true if the item is added
+     */
+    public boolean add(long time, T item) {
+        if (time < this.expireBefore)
+            return false;
+        long key = Math.floorDiv(time, this.granularity);
+        if (this.size == 0) {
+            this.headKey = key;
+            this.tailKey = key + 1;
+        } else if (key < this.headKey) {
+            ensureSpan(key, this.tailKey);
+            this.headKey = key;
+        } else if (key >= this.tailKey) {
+            ensureSpan(this.headKey, key + 1);
+            this.tailKey = key + 1;
+        }
+        allocBucketOf(key).add(time, item);
+        ++this.size;
+        return true;
+    }
+
+    /**
+     * Expire the items before the given time, and drop the buckets holding only expired items.
+     * @param before the expiry bound, the bound never moves backward
+     * @return the number of items dropped
+     */
+    public int expire(long before) {
+        return expire(before, null);
+    }
+
+    /**
+     * Same as {@link #expire(long)}, but passes the dropped items to the consumer.
+     * @param onDrop called with each dropped item, can be null
+     */
+    public int expire(long before, Consumer<? super T> onDrop) {
+        if (before <= this.expireBefore)
+            return 0;
+        this.expireBefore = before;
+        if (this.size == 0)
+            return 0;
+        // bucket k holds the times in [k * granularity, (k + 1) * granularity)
+        long end = Math.min(Math.floorDiv(before, this.granularity), this.tailKey);
+        int dropped = 0;
+        for (; this.headKey < end; ++this.headKey) {
+            Bucket<T> bucket = bucketOf(this.headKey);
+            if (bucket != null)
+                dropped += bucket.clear(onDrop);
+        }
+        this.size -= dropped;
+        shrinkIfSparse();
+        return dropped;
+    }
+
+    /**
+     * @return true if an item with the given time is not expired
+     */
+    public boolean isLive(long time) {
+        return time >= this.expireBefore;
+    }
+
+    public long getExpireBefore() {
+        return this.expireBefore;
+    }
+
+    /**
+     * @return the number of items held, including the expired ones not dropped yet
+     */
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Iterate over the live items, ordered by bucket and then by insertion.
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new LiveIterator();
+    }
+
+    class LiveIterator implements Iterator<T> {
+        long key;
+        int idx;
+
+        LiveIterator() {
+            this.key = headKey;
+            this.idx = 0;
+            advance();
+        }
+
+        /**
+         * Move to the next live item, or to tailKey if there is none.
+         */
+        void advance() {
+            if (size == 0) {
+                this.key = tailKey;
+                return;
+            }
+            for (; this.key < tailKey; ++this.key, this.idx = 0) {
+                Bucket<T> bucket = bucketOf(this.key);
+                if (bucket == null)
+                    continue;
+                for (; this.idx < bucket.size; ++this.idx) {
+                    if (bucket.times[this.idx] >= expireBefore)
+                        return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.key < tailKey;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            T item = (T) bucketOf(this.key).items[this.idx++];
+            advance();
+            return item;
+        }
+    }
+
+    static class Bucket<T> {
+        Object[] items = new Object[4];
+        long[] times = new long[4];
+        int size = 0;
+
+        void add(long time, T item) {
+            if (this.size == this.items.length) {
+                this.items = Arrays.copyOf(this.items, this.size * 2);
+                this.times = Arrays.copyOf(this.times, this.size * 2);
+            }
+            this.items[this.size] = item;
+            this.times[this.size] = time;
+            ++this.size;
+        }
+
+        int clear(Consumer<? super T> onDrop) {
+            int cleared = this.size;
+            if (onDrop != null) {
+                for (int i = 0; i < cleared; ++i)
+                    onDrop.accept((T) this.items[i]);
+            }
+            Arrays.fill(this.items, 0, cleared, null);
+            this.size = 0;
+            return cleared;
+        }
+    }
+}
@@ -17,8 +17,11 @@ public class FullMatch {
     }
 
     public void set(int patternId, MatchEdge matchEdge) {
-        matchData[patternId] = matchEdge.getDataId();
-        long timestamp = matchEdge.getTimestamp();
+        set(patternId, matchEdge.getDataId(), matchEdge.getTimestamp());
+    }
+
+    public void set(int patternId, long dataId, long timestamp) {
+        matchData[patternId] = dataId;
         this.startTime = Math.min(timestamp, this.startTime);
         this.endTime = Math.max(timestamp, this.endTime);
     }
@@ -1,80 +1,137 @@
 package org.ipmes.match;
 
-import java.util.*;
+import org.ipmes.pattern.PatternEdge;
 
 /**
  * Holds partial match result for {@link org.ipmes.decomposition.TCQuery}
+ * <p>
+ * A partial match of a TC-Query is always a prefix of it, so a result is stored as the last
+ * matched edge plus a reference to the result of the shorter prefix it extends. The prefixes
+ * are shared by all their extensions and never modified, so extending a result allocates only
+ * one small object. The node bindings are looked up by walking to the root, which is cheap since
+ * a TC-Query only has a few edges.
+ * </p>
  */
 public class LiteMatchResult {
-    public static int MAX_NUM_NODES;
-    HashSet<MatchEdge> matchEdges;
-    long[] nodeIdMap;
-    int numNodes;
+    LiteMatchResult parent;
+    MatchEdge edge;
+    int size;
     long earliestTime;
 
+    /**
+     * Create an empty result.
+     */
     public LiteMatchResult() {
-        this.nodeIdMap = new long[MAX_NUM_NODES];
-        Arrays.fill(nodeIdMap, -1);
-        this.matchEdges = new HashSet<>();
+        this.parent = null;
+        this.edge = null;
+        this.size = 0;
         this.earliestTime = Long.MAX_VALUE;
     }
 
-    public LiteMatchResult(LiteMatchResult other) {
-        this.nodeIdMap = Arrays.copyOf(other.nodeIdMap, MAX_NUM_NODES);
-        this.numNodes = other.numNodes;
-        this.matchEdges = (HashSet<MatchEdge>) other.matchEdges.clone();
-        this.earliestTime = other.earliestTime;
+    LiteMatchResult(LiteMatchResult parent, MatchEdge edge) {
+        this.parent = parent;
+        this.edge = edge;
+        this.size = parent.size + 1;
+        this.earliestTime = Math.min(parent.earliestTime, edge.timestamp);
     }
 
     public boolean contains(MatchEdge edge) {
-        return this.matchEdges.contains(edge);
+        for (LiteMatchResult cur = this; cur.edge != null; cur = cur.parent) {
+            if (cur.edge.dataId == edge.dataId)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Get the data node bound to the pattern node. If the pattern node is bound more than
+     * once, the latest binding is returned.
+     * @param patternNodeId the id of the pattern node
+     * @return the id of the data node, -1 if the pattern node is not bound
+     */
+    public long getNodeId(int patternNodeId) {
+        for (LiteMatchResult cur = this; cur.edge != null; cur = cur.parent) {
+            PatternEdge matched = cur.edge.matched;
+            // the end node is bound after the start node
+            if (matched.getEndId() == patternNodeId)
+                return cur.edge.endId;
+            if (matched.getStartId() == patternNodeId)
+                return cur.edge.startId;
+        }
+        return -1;
     }
 
     public boolean hasNodeConflict(MatchEdge m) {
-        int startPatternId = m.matched.getStartId();
-        int endPatternId = m.matched.getEndId();
-        if (nodeIdMap[startPatternId] > 0 && nodeIdMap[startPatternId] != m.startId)
+        long startId = getNodeId(m.matched.getStartId());
+        if (startId > 0 && startId != m.startId)
             return true;
-        if (nodeIdMap[endPatternId] > 0 && nodeIdMap[endPatternId] != m.endId)
+        long endId = getNodeId(m.matched.getEndId());
+        if (endId > 0 && endId != m.endId)
             return true;
         return false;
     }
 
     public boolean checkNodeUniqueness() {
-        HashSet<Long> nodeSet = new HashSet<>();
-        for (long id : this.nodeIdMap) {
-            if (id == -1)
+        int[] patternNodes = new int[2 * this.size];
+        long[] dataNodes = new long[2 * this.size];
+        int numNodes = 0;
+        for (LiteMatchResult cur = this; cur.edge != null; cur = cur.parent) {
+            PatternEdge matched = cur.edge.matched;
+            numNodes = bindLatest(patternNodes, dataNodes, numNodes, matched.getEndId(), cur.edge.endId);
+            numNodes = bindLatest(patternNodes, dataNodes, numNodes, matched.getStartId(), cur.edge.startId);
+        }
+        for (int i = 0; i < numNodes; ++i) {
+            if (dataNodes[i] == -1)
                 continue;
-            if (nodeSet.contains(id))
-                return false;
-            nodeSet.add(id);
+            for (int j = 0; j < i; ++j) {
+                if (dataNodes[i] == dataNodes[j])
+                    return false;
+            }
         }
         return true;
     }
 
-    void addNodeId(long nodeId, int matchedId) {
-        if (nodeIdMap[matchedId] == -1)
-            ++numNodes;
-        nodeIdMap[matchedId] = nodeId;
+    /**
+     * Record the binding if the pattern node is not recorded yet. Walking from the last edge,
+     * the first binding seen is the latest one.
+     * @return the number of recorded bindings
+     */
+    static int bindLatest(int[] patternNodes, long[] dataNodes, int numNodes, int patternNodeId, long dataNodeId) {
+        for (int i = 0; i < numNodes; ++i) {
+            if (patternNodes[i] == patternNodeId)
+                return numNodes;
+        }
+        patternNodes[numNodes] = patternNodeId;
+        dataNodes[numNodes] = dataNodeId;
+        return numNodes + 1;
     }
 
     public LiteMatchResult cloneAndAdd(MatchEdge m) {
-        LiteMatchResult res = new LiteMatchResult(this);
-        res.matchEdges.add(m);
-        res.addNodeId(m.startId, m.matched.getStartId());
-        res.addNodeId(m.endId, m.matched.getEndId());
-        res.earliestTime = Math.min(res.earliestTime, m.timestamp);
-        return res;
+        return new LiteMatchResult(this, m);
     }
 
     public long getEarliestTime() {
         return this.earliestTime;
     }
 
-    public MatchResult toMatchResult() {
-        MatchResult res = new MatchResult();
-        for (MatchEdge match : this.matchEdges)
-            res.addMatchEdge(match);
+    /**
+     * @return the number of matched edges
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @param patternEdges the pattern edges of the pattern indexed by id
+     */
+    public MatchResult toMatchResult(PatternEdge[] patternEdges) {
+        MatchResult res = new MatchResult(patternEdges);
+        long mask = 0;
+        for (LiteMatchResult cur = this; cur.edge != null; cur = cur.parent)
+            mask |= 1L << cur.edge.matched.getId();
+        res.reserve(mask);
+        for (LiteMatchResult cur = this; cur.edge != null; cur = cur.parent)
+            res.addMatchEdge(cur.edge);
         return res;
     }
 
@@ -85,6 +142,12 @@ public class LiteMatchResult {
         if (!(obj instanceof LiteMatchResult))
             return false;
         LiteMatchResult other = (LiteMatchResult) obj;
-        return this.matchEdges.equals(other.matchEdges);
+        if (this.size != other.size)
+            return false;
+        for (LiteMatchResult cur = this; cur.edge != null; cur = cur.parent) {
+            if (!other.contains(cur.edge))
+                return false;
+        }
+        return true;
     }
 }
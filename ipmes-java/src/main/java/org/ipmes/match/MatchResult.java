@@ -1,25 +1,44 @@
 package org.ipmes.match;
 
+import org.ipmes.pattern.PatternEdge;
+
+import java.nio.LongBuffer;
 import java.util.*;
 
 /**
  * The partial match result for the entire pattern.
+ * <p>
+ * The matched pattern edges are kept in a bitmask, and the fields of the matched data edges
+ * are stored in one flat array ordered by pattern edge id: data edge id, timestamp, start node
+ * and end node of each edge. The position of a pattern edge in the array is the number of
+ * matched pattern edges with smaller id, so the array is only as long as the matched edges.
+ * A pattern can have at most {@link #MAX_NUM_EDGES} edges.
+ * </p>
  */
 public class MatchResult {
+    public static final int MAX_NUM_EDGES = Long.SIZE;
+    static final int FIELDS = 4;
+    // earliest time, latest time and hash in front of the data of a record
+    static final int RECORD_HEADER = 3;
+
     int hash;
-    HashMap<Integer, MatchEdge> results;
-    BitSet resultContains;
-    MatchResult next;
+    // the pattern edges of the pattern, indexed by id, shared by all results of the pattern
+    PatternEdge[] patternEdges;
+    long contains;
+    long[] data;
     long earliestTime;
     long latestTime;
 
-    public MatchResult() {
+    /**
+     * @param patternEdges the pattern edges indexed by id
+     */
+    public MatchResult(PatternEdge[] patternEdges) {
         this.hash = 0;
         this.earliestTime = Long.MAX_VALUE;
         this.latestTime = Long.MIN_VALUE;
-        this.results = new HashMap<>();
-        this.resultContains = new BitSet();
-        this.next = null;
+        this.patternEdges = patternEdges;
+        this.contains = 0;
+        this.data = new long[0];
     }
 
     /**
@@ -37,45 +56,169 @@ public class MatchResult {
         return res;
     }
 
+    /**
+     * @return the position of the pattern edge in data
+     */
+    int indexOf(int patternEdgeId) {
+        return Long.bitCount(this.contains & ((1L << patternEdgeId) - 1)) * FIELDS;
+    }
+
+    /**
+     * Allocate the space for the given pattern edges, so adding them doesn't grow the array.
+     * @param patternEdgeMask the bitmask of pattern edge ids
+     */
+    void reserve(long patternEdgeMask) {
+        long[] data = new long[Long.bitCount(this.contains | patternEdgeMask) * FIELDS];
+        int idx = 0;
+        for (long rest = this.contains | patternEdgeMask; rest != 0; rest &= rest - 1, idx += FIELDS) {
+            int id = Long.numberOfTrailingZeros(rest);
+            if (containsPattern(id))
+                System.arraycopy(this.data, indexOf(id), data, idx, FIELDS);
+        }
+        this.data = data;
+        this.contains |= patternEdgeMask;
+    }
+
     public void addMatchEdge(MatchEdge m) {
-        Integer matchId = m.matched.getId();
+        int matchId = m.matched.getId();
         this.hash += (int)(m.getDataId() * pow(7, matchId, Integer.MAX_VALUE) % Integer.MAX_VALUE);
         this.earliestTime = Math.min(this.earliestTime, m.timestamp);
         this.latestTime = Math.max(this.latestTime, m.timestamp);
-        this.results.put(matchId, m);
-        this.resultContains.set(matchId);
+
+        int idx = indexOf(matchId);
+        if (!containsPattern(matchId)) {
+            long[] data = new long[this.data.length + FIELDS];
+            System.arraycopy(this.data, 0, data, 0, idx);
+            System.arraycopy(this.data, idx, data, idx + FIELDS, this.data.length - idx);
+            this.data = data;
+            this.contains |= 1L << matchId;
+        }
+        this.data[idx] = m.dataId;
+        this.data[idx + 1] = m.timestamp;
+        this.data[idx + 2] = m.startId;
+        this.data[idx + 3] = m.endId;
+    }
+
+    /**
+     * @return the bitmask of the matched pattern edge ids
+     */
+    public long getPatternEdgeMask() {
+        return this.contains;
+    }
+
+    /**
+     * @param patternEdgeMask the bitmask of the matched pattern edge ids
+     * @return the number of longs in a record of a result matching the pattern edges
+     */
+    public static int recordLength(long patternEdgeMask) {
+        return RECORD_HEADER + Long.bitCount(patternEdgeMask) * FIELDS;
+    }
+
+    /**
+     * Write this result as a fixed-width record. The matched pattern edges are not written,
+     * they must be given when reading the record back.
+     * @param buf the buffer to write to
+     * @param pos the absolute position of the record in buf
+     */
+    public void writeRecord(LongBuffer buf, int pos) {
+        buf.put(pos, this.earliestTime);
+        buf.put(pos + 1, this.latestTime);
+        buf.put(pos + 2, this.hash);
+        for (int i = 0; i < this.data.length; ++i)
+            buf.put(pos + RECORD_HEADER + i, this.data[i]);
+    }
+
+    /**
+     * Load a record written by {@link #writeRecord} into this result, reusing its array.
+     * @param buf the buffer to read from
+     * @param pos the absolute position of the record in buf
+     * @param patternEdgeMask the bitmask of the pattern edges matched by the record
+     */
+    public void readRecord(LongBuffer buf, int pos, long patternEdgeMask) {
+        int len = Long.bitCount(patternEdgeMask) * FIELDS;
+        if (this.data.length != len)
+            this.data = new long[len];
+        this.contains = patternEdgeMask;
+        this.earliestTime = buf.get(pos);
+        this.latestTime = buf.get(pos + 1);
+        this.hash = (int) buf.get(pos + 2);
+        for (int i = 0; i < len; ++i)
+            this.data[i] = buf.get(pos + RECORD_HEADER + i);
     }
 
     public boolean hasShareEdge(MatchResult other) {
-        return this.resultContains.intersects(other.resultContains);
+        return (this.contains & other.contains) != 0;
     }
 
     public MatchResult merge(MatchResult other) {
-        MatchResult res = new MatchResult();
-        res.results.putAll(this.results);
-        res.results.putAll(other.results);
+        MatchResult res = new MatchResult(this.patternEdges);
+        res.contains = this.contains | other.contains;
+        res.data = new long[Long.bitCount(res.contains) * FIELDS];
+        // walk through the matched edges in the order of id, the edges of other take precedence
+        int i = 0, j = 0, k = 0;
+        for (long rest = res.contains; rest != 0; rest &= rest - 1) {
+            long bit = rest & -rest;
+            boolean inThis = (this.contains & bit) != 0;
+            boolean inOther = (other.contains & bit) != 0;
+            if (inOther)
+                System.arraycopy(other.data, j, res.data, k, FIELDS);
+            else
+                System.arraycopy(this.data, i, res.data, k, FIELDS);
+            if (inThis)
+                i += FIELDS;
+            if (inOther)
+                j += FIELDS;
+            k += FIELDS;
+        }
         res.hash = (int)(((long)this.hash + (long)other.hash) % Integer.MAX_VALUE);
-        res.resultContains.or(this.resultContains);
-        res.resultContains.or(other.resultContains);
         res.earliestTime = Math.min(this.earliestTime, other.earliestTime);
         res.latestTime = Math.max(this.latestTime, other.latestTime);
         return res;
     }
 
+    /**
+     * @return the matched edges, ordered by pattern edge id
+     */
     public Collection<MatchEdge> matchEdges() {
-        return this.results.values();
+        ArrayList<MatchEdge> edges = new ArrayList<>(size());
+        for (long rest = this.contains; rest != 0; rest &= rest - 1)
+            edges.add(get(Long.numberOfTrailingZeros(rest)));
+        return edges;
     }
 
+    /**
+     * @return the match edge of the pattern edge, null if the pattern edge is not matched
+     */
     public MatchEdge get(Integer patternEdgeId) {
-        return this.results.get(patternEdgeId);
+        if (!containsPattern(patternEdgeId))
+            return null;
+        int idx = indexOf(patternEdgeId);
+        return new MatchEdge(this.data[idx], this.data[idx + 1], this.data[idx + 2], this.data[idx + 3],
+                this.patternEdges[patternEdgeId]);
     }
 
-    public boolean containsPattern(Integer patternEdgeId) {
-        return this.results.containsKey(patternEdgeId);
+    public long getDataId(int patternEdgeId) {
+        return this.data[indexOf(patternEdgeId)];
+    }
+
+    public long getTimestamp(int patternEdgeId) {
+        return this.data[indexOf(patternEdgeId) + 1];
+    }
+
+    public long getStartId(int patternEdgeId) {
+        return this.data[indexOf(patternEdgeId) + 2];
+    }
+
+    public long getEndId(int patternEdgeId) {
+        return this.data[indexOf(patternEdgeId) + 3];
+    }
+
+    public boolean containsPattern(int patternEdgeId) {
+        return (this.contains & (1L << patternEdgeId)) != 0;
     }
 
     public int size() {
-        return this.results.size();
+        return Long.bitCount(this.contains);
     }
 
     public long getEarliestTime() {
@@ -86,37 +229,33 @@ public class MatchResult {
         return this.latestTime;
     }
 
-    public MatchResult getNext() {
-        return this.next;
-    }
-
-    public void setNext(MatchResult next) {
-        this.next = next;
-        return;
-    }
-
     /*
     Return false if there is a input node matches 2 or more pattern node.
      */
     public boolean checkNodeUniqueness() {
         HashMap<Long, Integer> nodeMap = new HashMap<>();
-        for (MatchEdge edge : this.results.values()) {
-            int startPattern = edge.matched.getStartId();
-            int endPattern = edge.matched.getEndId();
-            if (nodeMap.getOrDefault(edge.startId, startPattern) != startPattern)
+        int idx = 0;
+        for (long rest = this.contains; rest != 0; rest &= rest - 1, idx += FIELDS) {
+            PatternEdge matched = this.patternEdges[Long.numberOfTrailingZeros(rest)];
+            int startPattern = matched.getStartId();
+            int endPattern = matched.getEndId();
+            long startId = this.data[idx + 2];
+            long endId = this.data[idx + 3];
+            if (nodeMap.getOrDefault(startId, startPattern) != startPattern)
                 return false;
-            if (nodeMap.getOrDefault(edge.endId, endPattern) != endPattern)
+            if (nodeMap.getOrDefault(endId, endPattern) != endPattern)
                 return false;
-            nodeMap.put(edge.startId, startPattern);
-            nodeMap.put(edge.endId, endPattern);
+            nodeMap.put(startId, startPattern);
+            nodeMap.put(endId, endPattern);
         }
         return true;
     }
 
     public FullMatch toFullMatch() {
-        FullMatch res = new FullMatch(this.results.size());
-        for (Map.Entry<Integer, MatchEdge> entry : this.results.entrySet())
-            res.set(entry.getKey(), entry.getValue());
+        FullMatch res = new FullMatch(size());
+        int idx = 0;
+        for (long rest = this.contains; rest != 0; rest &= rest - 1, idx += FIELDS)
+            res.set(Long.numberOfTrailingZeros(rest), this.data[idx], this.data[idx + 1]);
         return res;
     }
 
@@ -132,12 +271,11 @@ public class MatchResult {
         if (!(obj instanceof MatchResult))
             return false;
         MatchResult other = (MatchResult) obj;
-        if (this.results.size() != other.results.size())
+        if (this.contains != other.contains)
             return false;
-        for (Integer pattern_id : this.results.keySet()) {
-            MatchEdge e1 = this.results.get(pattern_id);
-            MatchEdge e2 = other.results.get(pattern_id);
-            if (e2 == null || e1.dataId != e2.dataId || e1.timestamp != e2.timestamp)
+        // compare the data edge ids and timestamps
+        for (int idx = 0; idx < this.data.length; idx += FIELDS) {
+            if (this.data[idx] != other.data[idx] || this.data[idx + 1] != other.data[idx + 1])
                 return false;
         }
         return true;
@@ -0,0 +1,113 @@
+package org.ipmes.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram counts latencies in nanoseconds into log-linear buckets, like HdrHistogram.
+ * <p>
+ * The values below 2^SUB_BITS have a bucket each, and every power of 2 above is split into
+ * 2^SUB_BITS buckets, so a value is reported with a relative error under 1/2^SUB_BITS, and the
+ * whole range of long fits in a thousand buckets. Recording is a single atomic increment.
+ * </p>
+ * <p>
+ * {@link #snapshot()} returns the values recorded since the previous snapshot, and must be
+ * called by one thread at a time.
+ * </p>
+ */
+public class LatencyHistogram {
+    static final int SUB_BITS = 4;
+    static final int SUB_BUCKETS = 1 << SUB_BITS;
+    static final int NUM_BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    AtomicLongArray counts;
+    // the counts at the previous snapshot
+    long[] previous;
+
+    public LatencyHistogram() {
+        this.counts = new AtomicLongArray(NUM_BUCKETS);
+        this.previous = new long[NUM_BUCKETS];
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) Math.max(0, value);
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (magnitude - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (magnitude - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return the largest value counted into the bucket
+     */
+    static long highestValueOf(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * @param nanos the latency in nanoseconds
+     */
+    public void record(long nanos) {
+        this.counts.incrementAndGet(bucketOf(nanos));
+    }
+
+    /**
+     * @return the values recorded since the previous snapshot
+     */
+    public Snapshot snapshot() {
+        long[] interval = new long[NUM_BUCKETS];
+        long total = 0;
+        for (int i = 0; i < NUM_BUCKETS; ++i) {
+            long count = this.counts.get(i);
+            interval[i] = count - this.previous[i];
+            this.previous[i] = count;
+            total += interval[i];
+        }
+        return new Snapshot(interval, total);
+    }
+
+    public static class Snapshot {
+        long[] counts;
+        long total;
+
+        Snapshot(long[] counts, long total) {
+            this.counts = counts;
+            this.total = total;
+        }
+
+        public long getCount() {
+            return this.total;
+        }
+
+        /**
+         * @param percentile the percentile in [0, 100]
+         * @return the value at the percentile, 0 if nothing is recorded
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (this.total == 0)
+                return 0;
+            long rank = Math.max(1, (long) Math.ceil(this.total * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < this.counts.length; ++i) {
+                seen += this.counts[i];
+                if (seen >= rank)
+                    return highestValueOf(i);
+            }
+            return getMax();
+        }
+
+        /**
+         * @return the largest value recorded, 0 if nothing is recorded
+         */
+        public long getMax() {
+            for (int i = this.counts.length - 1; i >= 0; --i) {
+                if (this.counts[i] != 0)
+                    return highestValueOf(i);
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package org.ipmes.metrics;
+
+import org.json.JSONObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * MetricsRegistry holds the named metrics of a run.
+ * <p>
+ * There are 3 kinds of metrics:
+ * <ul>
+ * <li>counters, striped by {@link LongAdder} so the threads updating them don't contend</li>
+ * <li>latency histograms, see {@link LatencyHistogram}</li>
+ * <li>gauges, read only when a snapshot is taken, so they cost nothing on the hot path</li>
+ * </ul>
+ * The metrics are registered while building the pipelines, and then updated by any thread.
+ * Gauges are read from the thread taking the snapshot, so they may be slightly stale.
+ * </p>
+ */
+public class MetricsRegistry {
+    LinkedHashMap<String, LongAdder> counters;
+    LinkedHashMap<String, LatencyHistogram> histograms;
+    LinkedHashMap<String, LongSupplier> gauges;
+    // the counter values and the time (ms) of the previous snapshot
+    LinkedHashMap<String, Long> previousCounts;
+    long previousTime;
+
+    public MetricsRegistry() {
+        this.counters = new LinkedHashMap<>();
+        this.histograms = new LinkedHashMap<>();
+        this.gauges = new LinkedHashMap<>();
+        this.previousCounts = new LinkedHashMap<>();
+        this.previousTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Get the counter of the name, creating it if absent.
+     */
+    public synchronized LongAdder counter(String name) {
+        return this.counters.computeIfAbsent(name, k -> new LongAdder());
+    }
+
+    /**
+     * Get the latency histogram of the name, creating it if absent.
+     */
+    public synchronized LatencyHistogram histogram(String name) {
+        return this.histograms.computeIfAbsent(name, k -> new LatencyHistogram());
+    }
+
+    /**
+     * Register a gauge, replacing the gauge of the same name.
+     * @param supplier called when a snapshot is taken
+     */
+    public synchronized void gauge(String name, LongSupplier supplier) {
+        this.gauges.put(name, supplier);
+    }
+
+    /**
+     * Take a snapshot of all metrics. The rates of the counters and the latencies cover the
+     * time since the previous snapshot.
+     * @param now the current time in milliseconds
+     * @return the snapshot in JSON
+     */
+    public synchronized JSONObject snapshot(long now) {
+        double seconds = Math.max(1, now - this.previousTime) / 1000.0;
+        JSONObject output = new JSONObject();
+        output.put("Time", now);
+        output.put("IntervalMillis", now - this.previousTime);
+        this.previousTime = now;
+
+        JSONObject counters = new JSONObject();
+        for (Map.Entry<String, LongAdder> entry : this.counters.entrySet()) {
+            long total = entry.getValue().sum();
+            long previous = this.previousCounts.getOrDefault(entry.getKey(), 0L);
+            this.previousCounts.put(entry.getKey(), total);
+            JSONObject counter = new JSONObject();
+            counter.put("Total", total);
+            counter.put("PerSec", Math.round((total - previous) / seconds));
+            counters.put(entry.getKey(), counter);
+        }
+        output.put("Counters", counters);
+
+        // the latencies are output in microseconds
+        JSONObject latencies = new JSONObject();
+        for (Map.Entry<String, LatencyHistogram> entry : this.histograms.entrySet()) {
+            LatencyHistogram.Snapshot snapshot = entry.getValue().snapshot();
+            JSONObject latency = new JSONObject();
+            latency.put("Count", snapshot.getCount());
+            latency.put("P50", snapshot.getValueAtPercentile(50) / 1000.0);
+            latency.put("P99", snapshot.getValueAtPercentile(99) / 1000.0);
+            latency.put("P999", snapshot.getValueAtPercentile(99.9) / 1000.0);
+            latency.put("Max", snapshot.getMax() / 1000.0);
+            latencies.put(entry.getKey(), latency);
+        }
+        output.put("LatencyMicros", latencies);
+
+        JSONObject gauges = new JSONObject();
+        for (Map.Entry<String, LongSupplier> entry : this.gauges.entrySet())
+            gauges.put(entry.getKey(), entry.getValue().getAsLong());
+        output.put("Gauges", gauges);
+        return output;
+    }
+}
@@ -0,0 +1,70 @@
+package org.ipmes.metrics;
+
+import java.io.PrintStream;
+
+/**
+ * MetricsReporter writes a snapshot of the registry as a line of JSON at a fixed interval,
+ * on its own thread. A last snapshot is written when it is closed.
+ */
+public class MetricsReporter implements AutoCloseable {
+    MetricsRegistry registry;
+    PrintStream out;
+    long intervalMillis;
+    Thread thread;
+
+    /**
+     * @param registry the metrics to report
+     * @param out the stream receiving the snapshots, not closed by the reporter
+     * @param intervalMillis the time between 2 snapshots (ms)
+     */
+    public MetricsReporter(MetricsRegistry registry, PrintStream out, long intervalMillis) {
+        if (intervalMillis <= 0)
+            throw new IllegalArgumentException("The interval must be positive");
+        this.registry = registry;
+        this.out = out;
+        this.intervalMillis = intervalMillis;
+        this.thread = new Thread(this::run, "ipmes-metrics");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    void run() {
+        long next = System.currentTimeMillis() + this.intervalMillis;
+        try {
+            while (true) {
+                long now = System.currentTimeMillis();
+                if (now < next) {
+                    Thread.sleep(next - now);
+                    continue;
+                }
+                report(now);
+                next += this.intervalMillis;
+            }
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    void report(long now) {
+        String line = this.registry.snapshot(now).toString();
+        synchronized (this.out) {
+            this.out.println(line);
+            this.out.flush();
+        }
+    }
+
+    /**
+     * Stop the reporter thread and write the last snapshot.
+     * @throws IllegalStateException if interrupted while waiting, with the interrupt flag set
+     */
+    @Override
+    public void close() {
+        this.thread.interrupt();
+        try {
+            this.thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while stopping the metrics reporter", e);
+        }
+        report(System.currentTimeMillis());
+    }
+}
@@ -19,6 +19,7 @@ public class TCQueryOutputCallback extends StreamCallback {
     PatternGraph patternGraph;
     Join join;
     HashMap<Integer, Integer> node2FieldIdx;
+    PatternEdge[] patternEdges;
 
     public TCQueryOutputCallback(TCQuery query, PatternGraph patternGraph, Join join) {
         this.query = query;
@@ -30,6 +31,9 @@ public class TCQueryOutputCallback extends StreamCallback {
         for (int i = 0; i < nodes.size(); ++i) {
             node2FieldIdx.put(nodes.get(i).getId(), i);
         }
+        this.patternEdges = new PatternEdge[patternGraph.numEdges()];
+        for (PatternEdge edge : patternGraph.getEdges())
+            this.patternEdges[edge.getId()] = edge;
     }
 
     MatchResult toMatchResult(Event e) {
@@ -37,7 +41,7 @@ public class TCQueryOutputCallback extends StreamCallback {
         int numNodes = this.query.numNodes();
         ArrayList<PatternEdge> patternEdges = this.query.getEdges();
 
-        MatchResult res = new MatchResult();
+        MatchResult res = new MatchResult(this.patternEdges);
         for (int i = 0; i < patternEdges.size(); ++i) {
             long ts = (long) data[numNodes + i * 2];
             long eid = (long) data[numNodes + i * 2 + 1];
@@ -0,0 +1,29 @@
+package org.ipmes.sink;
+
+import org.ipmes.match.FullMatch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CollectSink keeps all the matches in memory, so they can be output after the input is consumed.
+ */
+public class CollectSink implements MatchSink {
+    ArrayList<FullMatch> matches;
+
+    public CollectSink() {
+        this.matches = new ArrayList<>();
+    }
+
+    @Override
+    public synchronized void accept(FullMatch match) {
+        this.matches.add(match);
+    }
+
+    /**
+     * @return the matches in the order they are found
+     */
+    public synchronized List<FullMatch> getMatches() {
+        return new ArrayList<>(this.matches);
+    }
+}
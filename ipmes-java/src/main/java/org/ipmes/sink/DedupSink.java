@@ -0,0 +1,47 @@
+package org.ipmes.sink;
+
+import org.ipmes.match.FullMatch;
+
+/**
+ * DedupSink drops the matches equal to one passed before, and forwards the others.
+ * <p>
+ * A full match is found when its last event arrives, so the same match is always found again at
+ * its end time. The matches are only remembered until the end time of the latest match is a
+ * window past their end time, which keeps the memory bounded by the matches in a window.
+ * The matches passed to a DedupSink must be of the same pattern.
+ * </p>
+ */
+public class DedupSink implements MatchSink {
+    MatchSink downstream;
+    long windowSize;
+    WindowedMatchSet seen;
+
+    /**
+     * @param downstream the sink receiving the distinct matches
+     * @param windowSize the window size
+     */
+    public DedupSink(MatchSink downstream, long windowSize) {
+        this.downstream = downstream;
+        this.windowSize = windowSize;
+        this.seen = new WindowedMatchSet();
+    }
+
+    @Override
+    public void accept(FullMatch match) {
+        this.seen.expire(match.getEndTime() - this.windowSize);
+        if (this.seen.add(match))
+            this.downstream.accept(match);
+    }
+
+    /**
+     * @return the number of matches remembered
+     */
+    public int size() {
+        return this.seen.size();
+    }
+
+    @Override
+    public void close() {
+        this.downstream.close();
+    }
+}
@@ -0,0 +1,27 @@
+package org.ipmes.sink;
+
+import org.ipmes.match.FullMatch;
+
+/**
+ * The receiver of the full matches found by the join layer.
+ * <p>
+ * A full match is passed to the sink as soon as it is found, so it is reported without waiting
+ * for the whole input to be consumed. The join layer may call the sink on its own thread.
+ * </p>
+ */
+public interface MatchSink extends AutoCloseable {
+    /**
+     * The sink discarding every match.
+     */
+    MatchSink DISCARD = match -> {
+    };
+
+    void accept(FullMatch match);
+
+    /**
+     * Flush and release the resources of the sink. No match is accepted after this.
+     */
+    @Override
+    default void close() {
+    }
+}
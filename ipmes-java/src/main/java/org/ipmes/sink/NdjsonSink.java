@@ -0,0 +1,92 @@
+package org.ipmes.sink;
+
+import org.ipmes.match.FullMatch;
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * NdjsonSink writes each match as a line of JSON, and flushes it right away.
+ * <p>
+ * The sink can be shared by the patterns running on different threads, the lines are written
+ * whole. Use {@link #forPattern(String)} to tag the lines with the pattern they match.
+ * </p>
+ */
+public class NdjsonSink implements MatchSink {
+    Writer out;
+
+    /**
+     * @param out the writer to write the lines to, closed with the sink
+     */
+    public NdjsonSink(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * Create a sink writing to stdout. Closing the sink only flushes stdout.
+     */
+    public static NdjsonSink stdout() {
+        return new NdjsonSink(new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))) {
+            @Override
+            public synchronized void close() {
+                try {
+                    this.out.flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Convert the match to the JSON object in the output.
+     */
+    public static JSONObject toJSON(FullMatch match) {
+        JSONObject obj = new JSONObject();
+        obj.put("StartTime", match.getStartTime());
+        obj.put("EndTime", match.getEndTime());
+        obj.put("MatchIDs", match.getMatchData());
+        return obj;
+    }
+
+    @Override
+    public void accept(FullMatch match) {
+        writeLine(toJSON(match).toString());
+    }
+
+    /**
+     * @param pattern the name of the pattern
+     * @return a sink writing to this sink, with the pattern name in each line
+     */
+    public MatchSink forPattern(String pattern) {
+        return match -> {
+            JSONObject obj = toJSON(match);
+            obj.put("Pattern", pattern);
+            writeLine(obj.toString());
+        };
+    }
+
+    synchronized void writeLine(String line) {
+        try {
+            this.out.write(line);
+            this.out.write('\n');
+            this.out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            this.out.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package org.ipmes.sink;
+
+import org.ipmes.match.FullMatch;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * QueueSink puts the matches into a bounded queue, to be taken by another thread.
+ * <p>
+ * When the queue is full, the join layer waits for the consumer, so a slow consumer slows
+ * down the matching instead of growing the memory.
+ * </p>
+ */
+public class QueueSink implements MatchSink {
+    ArrayBlockingQueue<FullMatch> queue;
+
+    /**
+     * @param capacity the capacity of the queue
+     */
+    public QueueSink(int capacity) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    @Override
+    public void accept(FullMatch match) {
+        try {
+            this.queue.put(match);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the queue", e);
+        }
+    }
+
+    /**
+     * Take a match, waiting up to the given time if the queue is empty.
+     * @return the match, null if no match arrives in time
+     */
+    public FullMatch poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return this.queue.poll(timeout, unit);
+    }
+
+    /**
+     * @return the match at the head of the queue, null if the queue is empty
+     */
+    public FullMatch poll() {
+        return this.queue.poll();
+    }
+
+    public int size() {
+        return this.queue.size();
+    }
+}
@@ -0,0 +1,76 @@
+package org.ipmes.sink;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * RotatingFileSink writes the matches as lines of JSON into a file, and rotates the file when it
+ * grows over a size limit.
+ * <p>
+ * On rotation, the file is renamed to path.1, the former path.1 to path.2 and so on, and the
+ * oldest file beyond the number of files to keep is deleted.
+ * </p>
+ */
+public class RotatingFileSink extends NdjsonSink {
+    Path path;
+    long maxBytes;
+    int maxFiles;
+    long curBytes;
+
+    /**
+     * @param path the file to write, appended if it exists
+     * @param maxBytes the size limit of a file, 0 to never rotate
+     * @param maxFiles the number of rotated files to keep
+     */
+    public RotatingFileSink(String path, long maxBytes, int maxFiles) throws IOException {
+        super(null);
+        this.path = Paths.get(path);
+        this.maxBytes = maxBytes;
+        this.maxFiles = maxFiles;
+        open();
+    }
+
+    void open() throws IOException {
+        this.out = Files.newBufferedWriter(this.path, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        this.curBytes = Files.size(this.path);
+    }
+
+    Path rotated(int i) {
+        return Paths.get(this.path + "." + i);
+    }
+
+    void rotate() throws IOException {
+        this.out.close();
+        Files.deleteIfExists(rotated(this.maxFiles));
+        for (int i = this.maxFiles - 1; i >= 1; --i) {
+            if (Files.exists(rotated(i)))
+                Files.move(rotated(i), rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+        }
+        if (this.maxFiles > 0)
+            Files.move(this.path, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+        else
+            Files.delete(this.path);
+        open();
+    }
+
+    @Override
+    synchronized void writeLine(String line) {
+        try {
+            // the lines are ascii, one byte per char
+            if (this.maxBytes > 0 && this.curBytes > 0 && this.curBytes + line.length() + 1 > this.maxBytes)
+                rotate();
+            this.curBytes += line.length() + 1;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        super.writeLine(line);
+    }
+}
@@ -0,0 +1,165 @@
+package org.ipmes.sink;
+
+import org.ipmes.match.FullMatch;
+
+import java.util.Arrays;
+
+/**
+ * A set of full matches of one pattern that forgets the matches older than a given time.
+ * <p>
+ * The matches are stored as fixed-width records in a ring of longs: the end time, a 64-bit
+ * fingerprint of the matched data edges, then the data edges themselves. The records are
+ * addressed by their sequence number, and an open-addressing table of sequence numbers keyed
+ * by the fingerprint serves the lookup. The fingerprint rejects almost every different match
+ * without reading its data, and the data is compared on a fingerprint hit, so the set is exact.
+ * </p>
+ * <p>
+ * Records are expired from the oldest one while its end time is before the given time, which
+ * follows the window since the matches are found in the order of their end time. The table is
+ * not cleaned on expiry, an expired sequence number is treated as a deleted slot and the table
+ * is rebuilt once the deleted slots pile up.
+ * </p>
+ */
+class WindowedMatchSet {
+    static final long EMPTY = -1;
+    // the fields in front of the data edges of a record
+    static final int HEADER = 2;
+    static final int INITIAL_CAPACITY = 64;
+
+    // the number of longs in a record, set by the first match
+    int width;
+    long[] records;
+    int ringMask;
+    // sequence numbers of the oldest live record and the next record
+    long head;
+    long tail;
+    long[] table;
+    int tableMask;
+    // the number of non-empty slots in table, including the expired ones
+    int used;
+
+    WindowedMatchSet() {
+        this.width = -1;
+        this.head = 0;
+        this.tail = 0;
+        this.table = new long[INITIAL_CAPACITY * 2];
+        Arrays.fill(this.table, EMPTY);
+        this.tableMask = this.table.length - 1;
+        this.used = 0;
+    }
+
+    static long fingerprint(long[] data) {
+        long h = data.length;
+        for (long d : data)
+            h = (h ^ d) * 0x9E3779B97F4A7C15L;
+        // final mix, so the low bits used by the table depend on all bits
+        h ^= h >>> 32;
+        h *= 0xD6E8FEB86659FD93L;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    int offsetOf(long seq) {
+        return (int) (seq & this.ringMask) * this.width;
+    }
+
+    boolean equalsRecord(long seq, long fp, long[] data) {
+        int off = offsetOf(seq);
+        if (this.records[off + 1] != fp)
+            return false;
+        for (int i = 0; i < data.length; ++i) {
+            if (this.records[off + HEADER + i] != data[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Add the match if no equal match is in the set.
+     * @return true if the match is added
+     */
+    boolean add(FullMatch match) {
+        long[] data = match.getMatchData();
+        if (this.width == -1) {
+            this.width = HEADER + data.length;
+            this.records = new long[INITIAL_CAPACITY * this.width];
+            this.ringMask = INITIAL_CAPACITY - 1;
+        } else if (this.width != HEADER + data.length) {
+            throw new IllegalArgumentException("The matches of a pattern must have the same size");
+        }
+
+        long fp = fingerprint(data);
+        int slot = (int) fp & this.tableMask;
+        int freeSlot = -1;
+        for (; this.table[slot] != EMPTY; slot = (slot + 1) & this.tableMask) {
+            long seq = this.table[slot];
+            if (seq < this.head) {
+                if (freeSlot == -1)
+                    freeSlot = slot;
+            } else if (equalsRecord(seq, fp, data)) {
+                return false;
+            }
+        }
+        if (freeSlot == -1) {
+            freeSlot = slot;
+            ++this.used;
+        }
+
+        if (this.tail - this.head > this.ringMask)
+            growRing();
+        int off = offsetOf(this.tail);
+        this.records[off] = match.getEndTime();
+        this.records[off + 1] = fp;
+        System.arraycopy(data, 0, this.records, off + HEADER, data.length);
+        this.table[freeSlot] = this.tail++;
+
+        // keep the load factor of the table under 1/2
+        if (this.used * 2 > this.table.length)
+            rebuildTable();
+        return true;
+    }
+
+    void growRing() {
+        int capacity = (this.ringMask + 1) * 2;
+        long[] records = new long[capacity * this.width];
+        for (long seq = this.head; seq < this.tail; ++seq)
+            System.arraycopy(this.records, offsetOf(seq), records, (int) (seq & (capacity - 1)) * this.width, this.width);
+        this.records = records;
+        this.ringMask = capacity - 1;
+    }
+
+    /**
+     * Rebuild the table with the live records only, sized for twice of them.
+     */
+    void rebuildTable() {
+        int live = (int) (this.tail - this.head);
+        int size = INITIAL_CAPACITY * 2;
+        while (size < live * 4)
+            size *= 2;
+        this.table = new long[size];
+        Arrays.fill(this.table, EMPTY);
+        this.tableMask = size - 1;
+        for (long seq = this.head; seq < this.tail; ++seq) {
+            int slot = (int) this.records[offsetOf(seq) + 1] & this.tableMask;
+            while (this.table[slot] != EMPTY)
+                slot = (slot + 1) & this.tableMask;
+            this.table[slot] = seq;
+        }
+        this.used = live;
+    }
+
+    /**
+     * Forget the oldest matches while their end time is before the given time.
+     */
+    void expire(long before) {
+        while (this.head < this.tail && this.records[offsetOf(this.head)] < before)
+            ++this.head;
+    }
+
+    /**
+     * @return the number of matches remembered
+     */
+    int size() {
+        return (int) (this.tail - this.head);
+    }
+}
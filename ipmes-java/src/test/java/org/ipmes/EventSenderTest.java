@@ -1,8 +1,15 @@
 package org.ipmes;
 
+import org.ipmes.decomposition.TCMatcher;
 import org.ipmes.event.EventSender;
+import org.ipmes.event.SignatureDict;
+import org.ipmes.pattern.PatternEdge;
+import org.ipmes.pattern.PatternNode;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Collections;
+
 import static org.junit.Assert.assertEquals;
 
 public class EventSenderTest {
@@ -12,4 +19,125 @@ public class EventSenderTest {
         assertEquals(1000L, EventSender.parseTimestamp("1.0"));
         assertEquals(2147483648L, EventSender.parseTimestamp("2147483.648"));
     }
+
+    /**
+     * Records the timestamp of each batch.
+     */
+    static class BatchRecorder implements TCMatcher {
+        ArrayList<Long> batches = new ArrayList<>();
+
+        @Override
+        public void sendAll(ArrayList<EventEdge> events) {
+            this.batches.add(events.get(0).timestamp);
+        }
+
+        @Override
+        public int getPoolSize() {
+            return 0;
+        }
+
+        @Override
+        public ArrayList<long[]> getTriggerCounts() {
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * @return a dictionary where signature 0 matches a pattern edge and signature 1 doesn't
+     */
+    static SignatureDict genDict() {
+        PatternEdge edge = new PatternEdge(0, "read", new PatternNode(0, ""), new PatternNode(1, ""), true);
+        SignatureDict dict = new SignatureDict(Collections.singletonList(edge), false);
+        dict.intern("read");
+        dict.intern("write");
+        return dict;
+    }
+
+    @Test
+    public void testReleaseIdle() throws InterruptedException {
+        BatchRecorder recorder = new BatchRecorder();
+        EventSender sender = new EventSender(recorder, genDict());
+        sender.sendEvent(1, 1, 0, 0, 1, 2);
+        sender.sendEvent(2, 5, 0, 1, 2, 3);
+        // the events at the latest start time wait for a later start time
+        assertEquals(1, recorder.batches.size());
+
+        sender.releaseIdle(0);
+        assertEquals(2, recorder.batches.size());
+        assertEquals(Long.valueOf(2), recorder.batches.get(1));
+
+        // an event with the latest start time is not late, it is sent in a batch of its own
+        sender.sendEvent(2, 2, 0, 2, 3, 4);
+        assertEquals(0, sender.getNumLateEvents());
+        sender.releaseIdle(0);
+        assertEquals(3, recorder.batches.size());
+        assertEquals(Long.valueOf(2), recorder.batches.get(2));
+
+        // the earlier event is late
+        sender.sendEvent(1, 1, 0, 5, 3, 4);
+        assertEquals(1, sender.getNumLateEvents());
+
+        // the end event at time 5 waits for the start time to pass it
+        sender.sendEvent(6, 6, 0, 3, 4, 5);
+        assertEquals(4, recorder.batches.size());
+        sender.releaseIdle(0);
+        assertEquals(5, recorder.batches.size());
+        assertEquals(Long.valueOf(5), recorder.batches.get(3));
+        assertEquals(Long.valueOf(6), recorder.batches.get(4));
+    }
+
+    @Test
+    public void testLateness() throws InterruptedException {
+        BatchRecorder recorder = new BatchRecorder();
+        EventSender sender = new EventSender(recorder, genDict(), 10);
+        long[] startTimes = {5, 3, 12, 8, 20, 14, 9, 30};
+        for (int i = 0; i < startTimes.length; ++i)
+            sender.sendEvent(startTimes[i], startTimes[i], 0, i, 1, 2);
+        sender.flushBuffers();
+
+        // 9 arrives after 20, which is more than 10 ms late
+        assertEquals(1, sender.getNumLateEvents());
+        long[] expected = {3, 5, 8, 12, 14, 20, 30};
+        assertEquals(expected.length, recorder.batches.size());
+        for (int i = 0; i < expected.length; ++i)
+            assertEquals(Long.valueOf(expected[i]), recorder.batches.get(i));
+    }
+
+    @Test
+    public void testReleaseIdleLateness() throws InterruptedException {
+        BatchRecorder recorder = new BatchRecorder();
+        EventSender sender = new EventSender(recorder, genDict(), 5000);
+        sender.sendEvent(1000, 1000, 0, 0, 1, 2);
+        sender.sendEvent(10000, 10000, 0, 1, 2, 3);
+        assertEquals(1, recorder.batches.size());
+
+        // idle for 2000 ms, the watermark moves to 10000 - 5000 + 2000
+        sender.releaseIdle(2000);
+        assertEquals(1, recorder.batches.size());
+        // 1800 ms earlier than the latest event is within the lateness
+        sender.sendEvent(8200, 8200, 0, 2, 3, 4);
+        assertEquals(0, sender.getNumLateEvents());
+        sender.sendEvent(6999, 6999, 0, 3, 4, 5);
+        assertEquals(1, sender.getNumLateEvents());
+
+        // once the idle time covers the lateness, the events up to the latest start time are sent
+        sender.releaseIdle(5000);
+        assertEquals(3, recorder.batches.size());
+        assertEquals(Long.valueOf(8200), recorder.batches.get(1));
+        assertEquals(Long.valueOf(10000), recorder.batches.get(2));
+    }
+
+    @Test
+    public void testDropIrrelevant() throws InterruptedException {
+        BatchRecorder recorder = new BatchRecorder();
+        EventSender sender = new EventSender(recorder, genDict());
+        sender.sendEvent(1, 1, 0, 0, 1, 2);
+        sender.sendEvent(2, 2, 1, 1, 2, 3);
+        sender.sendEvent(3, 3, 1, 2, 3, 4);
+        sender.flushBuffers();
+        // only the relevant event is sent
+        assertEquals(1, recorder.batches.size());
+        assertEquals(Long.valueOf(1), recorder.batches.get(0));
+        assertEquals(2, sender.getNumIrrelevantEvents());
+    }
 }
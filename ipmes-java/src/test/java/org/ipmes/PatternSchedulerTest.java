@@ -0,0 +1,138 @@
+package org.ipmes;
+
+import org.ipmes.decomposition.TCMatcher;
+import org.ipmes.decomposition.matcher.PatternDispatcher;
+import org.ipmes.event.EventSender;
+import org.ipmes.event.SignatureDict;
+import org.ipmes.match.FullMatch;
+import org.ipmes.pattern.Pattern;
+import org.ipmes.pattern.PatternParser;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PatternSchedulerTest {
+    static final String[] SIGNATURES = {"a", "b", "c", "d"};
+
+    static Pattern genPattern(String events) throws Exception {
+        String json = "{\"Version\": \"0.1.0\", \"UseRegex\": false, \"Events\": [" + events + "]}";
+        File file = File.createTempFile("ipmes", ".json");
+        file.deleteOnExit();
+        Files.writeString(file.toPath(), json);
+        return PatternParser.parse(file.getPath());
+    }
+
+    /**
+     * @return a path a, b, c and a fork of b and c
+     */
+    static List<Pattern> genPatterns() throws Exception {
+        List<Pattern> patterns = new ArrayList<>();
+        patterns.add(genPattern(
+                "{\"ID\": 0, \"Signature\": \"a\", \"SubjectID\": 0, \"ObjectID\": 1, \"Parents\": []},"
+                        + "{\"ID\": 1, \"Signature\": \"b\", \"SubjectID\": 1, \"ObjectID\": 2, \"Parents\": [0]},"
+                        + "{\"ID\": 2, \"Signature\": \"c\", \"SubjectID\": 2, \"ObjectID\": 3, \"Parents\": [1]}"));
+        patterns.add(genPattern(
+                "{\"ID\": 0, \"Signature\": \"b\", \"SubjectID\": 0, \"ObjectID\": 1, \"Parents\": []},"
+                        + "{\"ID\": 1, \"Signature\": \"c\", \"SubjectID\": 0, \"ObjectID\": 2, \"Parents\": []}"));
+        return patterns;
+    }
+
+    /**
+     * Build the pipelines of the patterns, each collecting its full matches.
+     */
+    static List<PatternPipeline> genPipelines(List<Pattern> patterns, SignatureDict dict,
+            List<List<FullMatch>> results) {
+        List<PatternPipeline> pipelines = new ArrayList<>();
+        for (int i = 0; i < patterns.size(); ++i) {
+            Pattern pattern = patterns.get(i);
+            int edgeOffset = dict.addPattern(pattern.patternGraph.getEdges(), pattern.useRegex);
+            PatternPipeline pipeline = new PatternPipeline("p" + i, pattern, dict, edgeOffset, 100, false, false,
+                    false, false, null, null, null);
+            List<FullMatch> matches = new ArrayList<>();
+            pipeline.setSink(matches::add);
+            results.add(matches);
+            pipelines.add(pipeline);
+        }
+        return pipelines;
+    }
+
+    /**
+     * Send random events between a few nodes, several events may share a timestamp.
+     */
+    static void sendEvents(EventSender sender, SignatureDict dict) throws InterruptedException {
+        Random random = new Random(7);
+        long time = 0;
+        for (int i = 0; i < 5000; ++i) {
+            time += random.nextInt(3);
+            int signatureId = dict.intern(SIGNATURES[random.nextInt(SIGNATURES.length)]);
+            sender.sendEvent(time, time, signatureId, i, random.nextInt(6), random.nextInt(6));
+        }
+        sender.flushBuffers();
+    }
+
+    @Test
+    public void testSameAsSingleThread() throws Exception {
+        List<Pattern> patterns = genPatterns();
+
+        SignatureDict dict = new SignatureDict();
+        List<List<FullMatch>> expected = new ArrayList<>();
+        List<TCMatcher> matchers = new ArrayList<>();
+        for (PatternPipeline pipeline : genPipelines(patterns, dict, expected))
+            matchers.add(pipeline.getMatcher());
+        sendEvents(new EventSender(new PatternDispatcher(matchers, dict), dict), dict);
+
+        dict = new SignatureDict();
+        List<List<FullMatch>> results = new ArrayList<>();
+        List<PatternPipeline> pipelines = genPipelines(patterns, dict, results);
+        PatternScheduler scheduler = new PatternScheduler(pipelines, dict, 2, 4);
+        sendEvents(new EventSender(scheduler, dict), dict);
+        scheduler.close();
+
+        for (int i = 0; i < patterns.size(); ++i) {
+            assertFalse(expected.get(i).isEmpty());
+            assertEquals(expected.get(i), results.get(i));
+        }
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        SignatureDict dict = new SignatureDict();
+        List<PatternPipeline> pipelines = genPipelines(genPatterns(), dict, new ArrayList<>());
+        pipelines.get(1).matcher = new TCMatcher() {
+            @Override
+            public void sendAll(ArrayList<EventEdge> events) {
+                throw new RuntimeException("fail");
+            }
+
+            @Override
+            public int getPoolSize() {
+                return 0;
+            }
+
+            @Override
+            public ArrayList<long[]> getTriggerCounts() {
+                return new ArrayList<>();
+            }
+        };
+        PatternScheduler scheduler = new PatternScheduler(pipelines, dict, 2, 1024);
+        ArrayList<EventEdge> batch = new ArrayList<>();
+        batch.add(new EventEdge(1, dict.intern("b"), 0, 1, 2));
+        scheduler.sendAll(batch);
+        while (scheduler.failure == null)
+            Thread.sleep(1);
+
+        // the ring is far from full, but the next batch still sees the failure
+        try {
+            scheduler.sendAll(batch);
+            fail("The failure of the worker is lost");
+        } catch (IllegalStateException e) {
+            assertEquals("fail", e.getCause().getMessage());
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.ipmes.decomposition;
+
+import org.ipmes.pattern.Pattern;
+import org.ipmes.pattern.PatternEdge;
+import org.ipmes.pattern.PatternParser;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class CostBasedDecompositionTest {
+    /**
+     * Edge 1 and 2 both depend on edge 0 and share its end node.
+     */
+    static Pattern genPattern() throws Exception {
+        String json = "{\"Version\": \"0.1.0\", \"UseRegex\": false, \"Events\": ["
+                + "{\"ID\": 0, \"Signature\": \"fork\", \"SubjectID\": 0, \"ObjectID\": 1, \"Parents\": []},"
+                + "{\"ID\": 1, \"Signature\": \"execve\", \"SubjectID\": 1, \"ObjectID\": 2, \"Parents\": [0]},"
+                + "{\"ID\": 2, \"Signature\": \"read\", \"SubjectID\": 3, \"ObjectID\": 1, \"Parents\": [0]}"
+                + "]}";
+        File file = File.createTempFile("ipmes", ".json");
+        file.deleteOnExit();
+        Files.writeString(file.toPath(), json);
+        return PatternParser.parse(file.getPath());
+    }
+
+    /**
+     * A chain of 3 edges, each following the one before it.
+     */
+    static Pattern genChain() throws Exception {
+        String json = "{\"Version\": \"0.1.0\", \"UseRegex\": false, \"Events\": ["
+                + "{\"ID\": 0, \"Signature\": \"fork\", \"SubjectID\": 0, \"ObjectID\": 1, \"Parents\": []},"
+                + "{\"ID\": 1, \"Signature\": \"execve\", \"SubjectID\": 1, \"ObjectID\": 2, \"Parents\": [0]},"
+                + "{\"ID\": 2, \"Signature\": \"read\", \"SubjectID\": 2, \"ObjectID\": 3, \"Parents\": [1]}"
+                + "]}";
+        File file = File.createTempFile("ipmes", ".json");
+        file.deleteOnExit();
+        Files.writeString(file.toPath(), json);
+        return PatternParser.parse(file.getPath());
+    }
+
+    static String edgeIds(TCQuery query) {
+        return query.getEdges().stream().map(e -> e.getId().toString()).collect(Collectors.joining(","));
+    }
+
+    @Test
+    public void testLongestWithoutStats() throws Exception {
+        Pattern pattern = genPattern();
+        ArrayList<TCQuery> queries = new TCQGenerator(pattern.temporalRelation, pattern.patternGraph).decompose();
+        assertEquals(2, queries.size());
+        assertEquals("0,1", edgeIds(queries.get(0)));
+        assertEquals("2", edgeIds(queries.get(1)));
+    }
+
+    @Test
+    public void testFrequentEdgeNotFirst() throws Exception {
+        Pattern pattern = genPattern();
+        // read is frequent, so it should follow fork instead of starting a TC-Query
+        double[] counts = {1, 1, 1000};
+        TCQGenerator generator = new TCQGenerator(pattern.temporalRelation, pattern.patternGraph, counts, 0.01);
+        ArrayList<TCQuery> queries = generator.decompose();
+        assertEquals(2, queries.size());
+        // the rarer TC-Query comes first
+        assertEquals("1", edgeIds(queries.get(0)));
+        assertEquals("0,2", edgeIds(queries.get(1)));
+        for (int i = 0; i < queries.size(); ++i)
+            assertEquals(i, (int) queries.get(i).getId());
+        assertEquals(2, generator.getTCQRelation().length);
+    }
+
+    @Test
+    public void testEstimateCost() throws Exception {
+        Pattern pattern = genPattern();
+        double[] counts = {10, 20, 30};
+        TCQGenerator generator = new TCQGenerator(pattern.temporalRelation, pattern.patternGraph, counts, 0.5);
+        ArrayList<PatternEdge> edges = new ArrayList<>();
+        edges.add(pattern.patternGraph.getEdge(0));
+        edges.add(pattern.patternGraph.getEdge(2));
+        double[] cost = generator.estimateCost(new TCQuery(edges));
+        // 10 matches of edge 0, each joined with 30 * 0.5 events of edge 2
+        assertEquals(150, cost[1], 1e-9);
+        assertEquals(160, cost[0], 1e-9);
+    }
+
+    @Test
+    public void testFrequentEdgesNotSplit() throws Exception {
+        Pattern pattern = genChain();
+        // each event joins with 10 events of the next edge, but joining single-edge TC-Queries
+        // creates the same matches and stores every event in the join layer too
+        double[] counts = {1000, 1000, 1000};
+        TCQGenerator generator = new TCQGenerator(pattern.temporalRelation, pattern.patternGraph, counts, 0.01);
+        ArrayList<TCQuery> queries = generator.decompose();
+        assertEquals(1, queries.size());
+        assertEquals("0,1,2", edgeIds(queries.get(0)));
+    }
+}
@@ -0,0 +1,58 @@
+package org.ipmes.event;
+
+import org.ipmes.EventEdge;
+import org.ipmes.pattern.PatternEdge;
+import org.ipmes.pattern.PatternNode;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+public class BinaryEventReaderTest {
+    @Test
+    public void testConvertRoundTrip() throws Exception {
+        File csv = File.createTempFile("ipmes", ".csv");
+        File bin = File.createTempFile("ipmes", BinaryEventReader.EXTENSION);
+        csv.deleteOnExit();
+        bin.deleteOnExit();
+
+        StringBuilder content = new StringBuilder();
+        int numLines = BinaryEventReader.BLOCK_SIZE + 10;
+        for (int i = 0; i < numLines; ++i) {
+            String sig = i % 3 == 0 ? "fork#Process::a#Process::b" : "read#Artifact::file::/x" + (i % 7) + "#Process::b";
+            content.append(String.format("%d.%03d,%d.%03d,%s,%d,%d,%d\n", i, i % 1000, i + 1, 0, sig, i, i % 5, i % 11));
+        }
+        Files.writeString(csv.toPath(), content.toString());
+        assertEquals(numLines, BinaryEventWriter.convert(csv.getPath(), bin.getPath()));
+
+        ArrayList<PatternEdge> edges = new ArrayList<>();
+        edges.add(new PatternEdge(0, "fork#.*", new PatternNode(0, ""), new PatternNode(1, ""), true));
+        SignatureDict csvDict = new SignatureDict(edges, true);
+        SignatureDict binDict = new SignatureDict(edges, true);
+        ArrayList<EventEdge> fromCsv = MappedEventReaderTest.readAll(content.toString(), 1L << 20, csvDict);
+
+        MappedEventReaderTest.CollectMatcher matcher = new MappedEventReaderTest.CollectMatcher();
+        EventSender sender = new EventSender(matcher, binDict);
+        try (EventReader reader = EventReader.open(bin.getPath())) {
+            assertTrue(reader instanceof BinaryEventReader);
+            assertEquals(8, ((BinaryEventReader) reader).getSignatureTable().size());
+            while (reader.sendNext(sender));
+        }
+        sender.flushBuffers();
+        ArrayList<EventEdge> fromBin = matcher.received;
+
+        assertEquals(fromCsv.size(), fromBin.size());
+        for (int i = 0; i < fromCsv.size(); ++i) {
+            EventEdge e1 = fromCsv.get(i), e2 = fromBin.get(i);
+            assertEquals(e1.timestamp, e2.timestamp);
+            assertEquals(e1.edgeId, e2.edgeId);
+            assertEquals(e1.startId, e2.startId);
+            assertEquals(e1.endId, e2.endId);
+            assertEquals(csvDict.getSignature(e1.signatureId), binDict.getSignature(e2.signatureId));
+            assertEquals(csvDict.match(e1.signatureId, 0), binDict.match(e2.signatureId, 0));
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.ipmes.event;
+
+import org.ipmes.match.FullMatch;
+import org.ipmes.pattern.Pattern;
+import org.ipmes.pattern.PatternEdge;
+import org.ipmes.pattern.PatternParser;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+public class EventGeneratorTest {
+    static Pattern genPattern() throws Exception {
+        String json = "{\"Version\": \"0.1.0\", \"UseRegex\": true, \"Events\": ["
+                + "{\"ID\": 0, \"Signature\": \"fork#Process::.*#Process::sh\", \"SubjectID\": 0, \"ObjectID\": 1, \"Parents\": []},"
+                + "{\"ID\": 1, \"Signature\": \"rename \\\\(write\\\\)#Process::sh#Artifact::file::.*\", \"SubjectID\": 1, \"ObjectID\": 2, \"Parents\": [0]},"
+                + "{\"ID\": 2, \"Signature\": \"connect#Process::sh#Artifact::network socket::.*:.*\", \"SubjectID\": 1, \"ObjectID\": 3, \"Parents\": [0]},"
+                + "{\"ID\": 3, \"Signature\": \"read#Artifact::file::.*#Process::.*\", \"SubjectID\": 2, \"ObjectID\": 0, \"Parents\": [1, 2]}"
+                + "]}";
+        File file = File.createTempFile("ipmes", ".json");
+        file.deleteOnExit();
+        Files.writeString(file.toPath(), json);
+        return PatternParser.parse(file.getPath());
+    }
+
+    static EventGenerator.Config genConfig(long seed) {
+        EventGenerator.Config config = new EventGenerator.Config();
+        config.numEvents = 5000;
+        config.rate = 500;
+        config.numNodes = 50;
+        config.numSignatures = 20;
+        config.intervalRatio = 0.2;
+        config.patternRatio = 0.1;
+        config.numInstances = 10;
+        config.instanceSpan = 100;
+        config.seed = seed;
+        return config;
+    }
+
+    static String generateCsv(long seed) throws Exception {
+        Pattern pattern = genPattern();
+        SignatureDict dict = new SignatureDict();
+        EventGenerator generator = new EventGenerator(genConfig(seed), dict,
+                pattern.patternGraph.getEdges(), pattern.temporalRelation, pattern.useRegex);
+        StringWriter out = new StringWriter();
+        generator.generate(EventGenerator.csvWriter(out, dict));
+        return out.toString();
+    }
+
+    @Test
+    public void testDeterministic() throws Exception {
+        assertEquals(generateCsv(1), generateCsv(1));
+        assertFalse(generateCsv(1).equals(generateCsv(2)));
+    }
+
+    @Test
+    public void testSynthesize() {
+        assertEquals("rename (write)#Process::x#Artifact::file::x",
+                EventGenerator.synthesize("rename \\(write\\)#Process::.*#Artifact::file::.*"));
+        assertEquals("a#b::x", EventGenerator.synthesize("^a#b::.+$"));
+    }
+
+    @Test
+    public void testInstances() throws Exception {
+        Pattern pattern = genPattern();
+        SignatureDict dict = new SignatureDict(pattern.patternGraph.getEdges(), pattern.useRegex);
+        EventGenerator.Config config = genConfig(3);
+        EventGenerator generator = new EventGenerator(config, dict,
+                pattern.patternGraph.getEdges(), pattern.temporalRelation, pattern.useRegex);
+        HashMap<Long, long[]> events = new HashMap<>();
+        long[] lastTime = {Long.MIN_VALUE};
+        generator.generate((startTime, endTime, signatureId, edgeId, startId, endId) -> {
+            assertTrue(startTime >= lastTime[0]);
+            assertTrue(endTime >= startTime);
+            lastTime[0] = startTime;
+            assertNull(events.put(edgeId, new long[]{startTime, signatureId, startId, endId}));
+        });
+        assertEquals(config.numEvents + config.numInstances * 4, events.size());
+
+        ArrayList<PatternEdge> edges = pattern.patternGraph.getEdges();
+        assertEquals(config.numInstances, generator.getInstances().size());
+        for (FullMatch instance : generator.getInstances()) {
+            assertTrue(instance.getEndTime() - instance.getStartTime() <= config.instanceSpan);
+            long[] ids = instance.getMatchData();
+            HashMap<Integer, Long> nodes = new HashMap<>();
+            for (PatternEdge edge : edges) {
+                long[] event = events.get(ids[edge.getId()]);
+                assertTrue(dict.match((int) event[1], edge.getId()));
+                assertTrue(event[2] > config.numNodes && event[3] > config.numNodes);
+                assertEquals(event[2], (long) nodes.computeIfAbsent(edge.getStartId(), k -> event[2]));
+                assertEquals(event[3], (long) nodes.computeIfAbsent(edge.getEndId(), k -> event[3]));
+                for (int parent : pattern.temporalRelation.getParents(edge.getId())) {
+                    if (parent >= 0)
+                        assertTrue(events.get(ids[parent])[0] < event[0]);
+                }
+            }
+            assertEquals(4, nodes.values().stream().distinct().count());
+        }
+    }
+}
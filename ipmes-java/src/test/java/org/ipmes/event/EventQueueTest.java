@@ -0,0 +1,36 @@
+package org.ipmes.event;
+
+import org.ipmes.EventEdge;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class EventQueueTest {
+    @Test
+    public void testOrder() {
+        EventQueue queue = new EventQueue();
+        Random rand = new Random(3);
+        long start = 0;
+        int n = 10000;
+        for (int i = 0; i < n; ++i) {
+            // mostly in order, sometimes a little late
+            start += rand.nextInt(5);
+            long ts = rand.nextInt(10) == 0 ? start - rand.nextInt(20) : start;
+            queue.addStart(new EventEdge(ts, 0, i, 0, 0));
+            queue.addEnd(new EventEdge(ts + rand.nextInt(100), 0, i, 0, 0));
+        }
+        assertEquals(2 * n, queue.size());
+
+        long last = Long.MIN_VALUE;
+        while (!queue.isEmpty()) {
+            long ts = queue.peekTimestamp();
+            EventEdge event = queue.poll();
+            assertEquals(ts, event.timestamp);
+            assertTrue(last <= ts);
+            last = ts;
+        }
+        assertEquals(Long.MAX_VALUE, queue.peekTimestamp());
+    }
+}
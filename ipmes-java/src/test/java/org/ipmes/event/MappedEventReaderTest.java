@@ -0,0 +1,77 @@
+package org.ipmes.event;
+
+import org.ipmes.EventEdge;
+import org.ipmes.decomposition.TCMatcher;
+import org.ipmes.pattern.PatternEdge;
+import org.ipmes.pattern.PatternNode;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MappedEventReaderTest {
+    static class CollectMatcher implements TCMatcher {
+        ArrayList<EventEdge> received = new ArrayList<>();
+
+        public void sendAll(ArrayList<EventEdge> events) {
+            for (EventEdge e : events)
+                received.add(new EventEdge(e));
+        }
+
+        public int getPoolSize() {
+            return 0;
+        }
+
+        public ArrayList<long[]> getTriggerCounts() {
+            return new ArrayList<>();
+        }
+    }
+
+    static ArrayList<EventEdge> readAll(String content, long windowSize, SignatureDict dict) throws Exception {
+        File file = File.createTempFile("ipmes", ".csv");
+        file.deleteOnExit();
+        Files.writeString(file.toPath(), content);
+
+        CollectMatcher matcher = new CollectMatcher();
+        EventSender sender = new EventSender(matcher, dict);
+        try (MappedEventReader reader = new MappedEventReader(file.getPath(), windowSize)) {
+            while (reader.sendNext(sender));
+        }
+        sender.flushBuffers();
+        return matcher.received;
+    }
+
+    @Test
+    public void testParseLines() throws Exception {
+        ArrayList<PatternEdge> edges = new ArrayList<>();
+        edges.add(new PatternEdge(0, "fork#Process::a#Process::b", new PatternNode(0, ""), new PatternNode(1, ""), true));
+        edges.add(new PatternEdge(1, "open#Process::b#Artifact::file::/tmp/a,b", new PatternNode(1, ""), new PatternNode(2, ""), true));
+        SignatureDict dict = new SignatureDict(edges, false);
+
+        String content = "1.5,1.5,fork#Process::a#Process::b,10,1,2\n" +
+                "2.25,3,open#Process::b#Artifact::file::/tmp/a,b,11,2,3\r\n" +
+                "\n" +
+                "1523371961.065,1523371961.065,fork#Process::a#Process::b,12,4,5";
+        for (long windowSize : List.of(1L << 20, 64L, 80L)) {
+            ArrayList<EventEdge> events = readAll(content, windowSize, dict);
+            assertEquals(4, events.size());
+            long[] timestamps = new long[4];
+            long[] edgeIds = new long[4];
+            for (int i = 0; i < 4; ++i) {
+                timestamps[i] = events.get(i).timestamp;
+                edgeIds[i] = events.get(i).edgeId;
+            }
+            assertArrayEquals(new long[] {1500L, 2250L, 3000L, 1523371961065L}, timestamps);
+            assertArrayEquals(new long[] {10L, 11L, 11L, 12L}, edgeIds);
+            assertEquals(2L, events.get(1).startId);
+            assertEquals(3L, events.get(1).endId);
+            assertEquals("open#Process::b#Artifact::file::/tmp/a,b", dict.getSignature(events.get(1).signatureId));
+            assertTrue(dict.match(events.get(0).signatureId, 0));
+            assertEquals(events.get(0).signatureId, events.get(3).signatureId);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package org.ipmes.event;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RegexSetTest {
+    static List<Integer> matchAll(RegexSet set, String str) {
+        ArrayList<Integer> matched = new ArrayList<>();
+        set.match(str, matched::add);
+        return matched;
+    }
+
+    @Test
+    public void testMatchAll() {
+        RegexSet set = new RegexSet();
+        assertEquals(0, set.add("^open#.*"));
+        assertEquals(1, set.add("#Process::cp$"));
+        assertEquals(2, set.add("(?i)EXECVE"));
+        assertEquals(3, set.add("^read#"));
+        assertEquals(4, set.add("file::/etc/(passwd|shadow)"));
+        assertEquals(1, set.add("#Process::cp$"));
+        assertEquals(5, set.size());
+
+        assertEquals(List.of(0, 1, 4), matchAll(set, "open#Artifact::file::/etc/passwd#Process::cp"));
+        assertEquals(List.of(1, 2), matchAll(set, "execve#Process::sh#Process::cp"));
+        assertEquals(List.of(3), matchAll(set, "read#Artifact::file::/tmp/a#Process::sh"));
+        assertEquals(List.of(), matchAll(set, "fork#Process::sh#Process::sh"));
+    }
+
+    @Test
+    public void testManyRegexes() {
+        RegexSet set = new RegexSet();
+        for (int i = 0; i < 100; ++i)
+            set.add("^sig" + i + "$");
+        set.add("^sig");
+        for (int i = 0; i < 100; ++i)
+            assertEquals(List.of(i, 100), matchAll(set, "sig" + i));
+        assertEquals(List.of(100), matchAll(set, "sig100"));
+        assertTrue(matchAll(new RegexSet(), "sig0").isEmpty());
+    }
+}
@@ -0,0 +1,105 @@
+package org.ipmes.event;
+
+import org.ipmes.pattern.PatternEdge;
+import org.ipmes.pattern.PatternNode;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SignatureDictTest {
+    static ArrayList<PatternEdge> genEdges(String... signatures) {
+        ArrayList<PatternEdge> edges = new ArrayList<>();
+        PatternNode n0 = new PatternNode(0, "");
+        PatternNode n1 = new PatternNode(1, "");
+        for (int i = 0; i < signatures.length; ++i)
+            edges.add(new PatternEdge(i, signatures[i], n0, n1, true));
+        return edges;
+    }
+
+    @Test
+    public void testExactMatch() {
+        SignatureDict dict = new SignatureDict(genEdges("fork", "execve", "fork"), false);
+        int fork = dict.intern("fork");
+        int read = dict.intern("read");
+        assertEquals(fork, dict.intern("fork"));
+        assertEquals(2, dict.size());
+        assertEquals("read", dict.getSignature(read));
+
+        assertTrue(dict.match(fork, 0));
+        assertFalse(dict.match(fork, 1));
+        assertTrue(dict.match(fork, 2));
+        assertFalse(dict.match(read, 0));
+        assertFalse(dict.match(read, 1));
+        assertFalse(dict.match(read, 2));
+    }
+
+    @Test
+    public void testRegexMatch() {
+        SignatureDict dict = new SignatureDict(genEdges("execve#Process::.*#Process::cp", "^open#.*"), true);
+        int execve = dict.intern("execve#Process::sh#Process::cp");
+        int open = dict.intern("open#Artifact::file::/etc/passwd#Process::cp");
+        assertTrue(dict.match(execve, 0));
+        assertFalse(dict.match(execve, 1));
+        assertFalse(dict.match(open, 0));
+        assertTrue(dict.match(open, 1));
+    }
+
+    @Test
+    public void testManySignaturesAndEdges() {
+        String[] sigs = new String[100];
+        for (int i = 0; i < sigs.length; ++i)
+            sigs[i] = "sig" + i;
+        SignatureDict dict = new SignatureDict(genEdges(sigs), false);
+        for (int i = 0; i < 1000; ++i)
+            assertEquals(i, dict.intern("sig" + (i < 100 ? i : i + 1000)));
+        for (int i = 0; i < 100; ++i) {
+            for (int j : List.of(0, 63, 64, 99))
+                assertEquals(i == j, dict.match(i, j));
+        }
+    }
+
+    @Test
+    public void testMultiplePatterns() {
+        SignatureDict dict = new SignatureDict();
+        assertEquals(0, dict.addPattern(genEdges("fork", "execve"), false));
+        assertEquals(2, dict.addPattern(genEdges("^open#.*", "fork#.*"), true));
+        assertEquals(2, dict.numPatterns());
+
+        int fork = dict.intern("fork");
+        int open = dict.intern("open#Artifact::file::/etc/passwd#Process::cp");
+        int read = dict.intern("read");
+        assertTrue(dict.match(fork, 0));
+        assertFalse(dict.match(fork, 3));
+        assertTrue(dict.match(open, 2));
+        assertTrue(dict.matchPattern(fork, 0));
+        assertFalse(dict.matchPattern(fork, 1));
+        assertFalse(dict.matchPattern(open, 0));
+        assertTrue(dict.matchPattern(open, 1));
+        assertFalse(dict.matchPattern(read, 0));
+        assertFalse(dict.matchPattern(read, 1));
+    }
+
+    @Test
+    public void testSharedRegex() {
+        SignatureDict dict = new SignatureDict();
+        dict.addPattern(genEdges("^open#.*", "#Process::cp$", "^open#.*"), true);
+        dict.addPattern(genEdges("fork", "#Process::cp$"), true);
+        dict.addPattern(genEdges("#Process::cp$"), false);
+
+        int open = dict.intern("open#Artifact::file::/etc/passwd#Process::cp");
+        int cp = dict.intern("#Process::cp$");
+        boolean[] openMatches = {true, true, true, false, true, false};
+        boolean[] cpMatches = {false, false, false, false, false, true};
+        for (int i = 0; i < 6; ++i) {
+            assertEquals(openMatches[i], dict.match(open, i));
+            assertEquals(cpMatches[i], dict.match(cp, i));
+        }
+        assertTrue(dict.matchPattern(open, 1));
+        assertFalse(dict.matchPattern(open, 2));
+        assertFalse(dict.matchPattern(cp, 0));
+        assertTrue(dict.matchPattern(cp, 2));
+    }
+}
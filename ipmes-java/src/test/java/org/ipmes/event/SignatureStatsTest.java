@@ -0,0 +1,58 @@
+package org.ipmes.event;
+
+import org.ipmes.pattern.PatternEdge;
+import org.ipmes.pattern.PatternNode;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+public class SignatureStatsTest {
+    static String genCsv() throws Exception {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 100; ++i) {
+            String sig = i % 4 == 0 ? "fork#Process::a#Process::b" : "read#Artifact::file::/x" + (i % 2) + "#Process::b";
+            content.append(String.format("%d.000,%d.500,%s,%d,%d,%d\n", i, i, sig, i, i % 5, 5 + i % 3));
+        }
+        File csv = File.createTempFile("ipmes", ".csv");
+        csv.deleteOnExit();
+        Files.writeString(csv.toPath(), content.toString());
+        return csv.getPath();
+    }
+
+    @Test
+    public void testCollect() throws Exception {
+        SignatureStats stats = SignatureStats.collect(genCsv(), 40);
+        assertEquals(40, stats.getNumEvents());
+        assertEquals(1.0 / 8, stats.getNodeSelectivity(), 1e-9);
+
+        ArrayList<PatternEdge> edges = new ArrayList<>();
+        PatternNode a = new PatternNode(0, ""), b = new PatternNode(1, "");
+        edges.add(new PatternEdge(0, "fork#Process::a#Process::b", a, b, true));
+        edges.add(new PatternEdge(1, "read#.*", a, b, true));
+        assertEquals(10, stats.count(edges.get(0), false));
+        assertEquals(30, stats.count(edges.get(1), true));
+        assertEquals(0, stats.count(edges.get(1), false));
+
+        // 40 events in 39 seconds
+        double[] counts = stats.countPerWindow(edges, true, 39000);
+        assertEquals(10, counts[0], 1e-9);
+        assertEquals(30, counts[1], 1e-9);
+    }
+
+    @Test
+    public void testSaveLoad() throws Exception {
+        SignatureStats stats = SignatureStats.collect(genCsv(), Long.MAX_VALUE);
+        File file = File.createTempFile("ipmes", ".json");
+        file.deleteOnExit();
+        stats.save(file.getPath());
+        SignatureStats loaded = SignatureStats.load(file.getPath());
+        assertEquals(stats.counts, loaded.counts);
+        assertEquals(stats.numEvents, loaded.numEvents);
+        assertEquals(stats.duration, loaded.duration);
+        assertEquals(stats.numNodes, loaded.numNodes);
+    }
+}
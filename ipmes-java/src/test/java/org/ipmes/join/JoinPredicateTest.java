@@ -0,0 +1,92 @@
+package org.ipmes.join;
+
+import org.ipmes.decomposition.TCQGenerator;
+import org.ipmes.decomposition.TCQuery;
+import org.ipmes.match.FullMatch;
+import org.ipmes.match.MatchEdge;
+import org.ipmes.match.MatchResult;
+import org.ipmes.pattern.Pattern;
+import org.ipmes.pattern.PatternEdge;
+import org.ipmes.pattern.PatternParser;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+public class JoinPredicateTest {
+    /**
+     * Edge 1 is frequent and follows edge 0, edge 2 and 3 follow edge 0 on another branch, so
+     * edge 3 is related to neither edge 0 nor edge 1.
+     */
+    static Pattern genPattern() throws Exception {
+        String json = "{\"Version\": \"0.1.0\", \"UseRegex\": false, \"Events\": ["
+                + "{\"ID\": 0, \"Signature\": \"fork\", \"SubjectID\": 0, \"ObjectID\": 1, \"Parents\": []},"
+                + "{\"ID\": 1, \"Signature\": \"read\", \"SubjectID\": 1, \"ObjectID\": 2, \"Parents\": [0]},"
+                + "{\"ID\": 2, \"Signature\": \"execve\", \"SubjectID\": 1, \"ObjectID\": 3, \"Parents\": [0]},"
+                + "{\"ID\": 3, \"Signature\": \"connect\", \"SubjectID\": 3, \"ObjectID\": 4, \"Parents\": [2]}"
+                + "]}";
+        File file = File.createTempFile("ipmes", ".json");
+        file.deleteOnExit();
+        Files.writeString(file.toPath(), json);
+        return PatternParser.parse(file.getPath());
+    }
+
+    /**
+     * Join the matches of each TC-Query, with the pattern node i bound to the data node nodes[i].
+     * @return the full matches found
+     */
+    static ArrayList<FullMatch> join(Pattern pattern, ArrayList<TCQuery> queries, long[] nodes) {
+        PatternEdge[] patternEdges = pattern.patternGraph.getEdges().toArray(new PatternEdge[0]);
+        PriorityJoin join = new PriorityJoin(pattern.temporalRelation, pattern.patternGraph, 1000, queries);
+        ArrayList<FullMatch> matches = new ArrayList<>();
+        join.setSink(matches::add);
+        for (TCQuery query : queries) {
+            MatchResult result = new MatchResult(patternEdges);
+            for (PatternEdge edge : query.getEdges()) {
+                result.addMatchEdge(new MatchEdge(edge.getId() + 1, edge.getId(), nodes[edge.getStartId()],
+                        nodes[edge.getEndId()], edge));
+            }
+            join.addMatchResult(result, query.getId());
+        }
+        return matches;
+    }
+
+    @Test
+    public void testSplitIsInjective() throws Exception {
+        Pattern pattern = genPattern();
+        double[] counts = {1, 1000, 1, 1};
+        ArrayList<TCQuery> queries = new TCQGenerator(pattern.temporalRelation, pattern.patternGraph, counts, 0.01)
+                .decompose();
+        assertTrue(queries.size() > 1);
+
+        assertEquals(1, join(pattern, queries, new long[]{10, 11, 12, 13, 14}).size());
+        // the pattern node 4 is bound to the data node of the pattern node 0 or 2
+        assertTrue(join(pattern, queries, new long[]{10, 11, 12, 13, 10}).isEmpty());
+        assertTrue(join(pattern, queries, new long[]{10, 11, 12, 13, 12}).isEmpty());
+    }
+
+    @Test
+    public void testPresent() throws Exception {
+        Pattern pattern = genPattern();
+        ArrayList<PatternEdge> edges = pattern.patternGraph.getEdges();
+        ArrayList<PatternEdge> resultEdges = new ArrayList<>();
+        resultEdges.add(edges.get(3));
+        ArrayList<PatternEdge> entryEdges = new ArrayList<>(edges.subList(0, 3));
+        JoinPredicate predicate = new JoinPredicate(new ArrayList<>(), resultEdges, entryEdges, false,
+                pattern.temporalRelation, pattern.patternGraph);
+
+        PatternEdge[] patternEdges = edges.toArray(new PatternEdge[0]);
+        MatchResult result = new MatchResult(patternEdges);
+        result.addMatchEdge(new MatchEdge(4, 4, 13, 14, edges.get(3)));
+        MatchResult entry = new MatchResult(patternEdges);
+        entry.addMatchEdge(new MatchEdge(1, 1, 10, 11, edges.get(0)));
+        assertTrue(predicate.testPresent(result, entry));
+        // the absent edge 1 is not checked, the present edge 0 is
+        MatchResult conflict = new MatchResult(patternEdges);
+        conflict.addMatchEdge(new MatchEdge(1, 1, 14, 11, edges.get(0)));
+        assertFalse(predicate.testPresent(result, conflict));
+    }
+}
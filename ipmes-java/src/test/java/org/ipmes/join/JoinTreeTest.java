@@ -0,0 +1,84 @@
+package org.ipmes.join;
+
+import org.ipmes.decomposition.TCQuery;
+import org.ipmes.pattern.PatternEdge;
+import org.ipmes.pattern.PatternNode;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class JoinTreeTest {
+    @Test
+    public void testLeftDeep() {
+        JoinTree tree = JoinTree.leftDeep(4);
+        assertEquals(7, tree.numBuffers());
+        assertEquals("(((0 1) 2) 3)", tree.toString());
+        for (int id = 0; id < 4; ++id) {
+            int bufferId = tree.toBufferIdx(id);
+            assertEquals(id == 0 ? 0 : id * 2 - 1, bufferId);
+            assertEquals(id, tree.toTCQueryId(bufferId));
+        }
+        for (int bufferId = 0; bufferId < 6; ++bufferId) {
+            boolean odd = (bufferId & 1) == 1;
+            assertEquals(odd ? bufferId - 1 : bufferId + 1, tree.getSibling(bufferId));
+            assertEquals(odd ? bufferId + 1 : bufferId + 2, tree.getParent(bufferId));
+        }
+        assertEquals(-1, tree.getParent(6));
+        assertEquals(Arrays.asList(0, 1, 2), tree.getTCQueries(4));
+    }
+
+    @Test
+    public void testSingle() {
+        JoinTree tree = JoinTree.leftDeep(1);
+        assertEquals(1, tree.numBuffers());
+        assertEquals(0, tree.toBufferIdx(0));
+        assertEquals("0", tree.toString());
+    }
+
+    @Test
+    public void testParse() {
+        JoinTree tree = JoinTree.parse(" ((0 1) (3 2))", 4);
+        assertEquals("((0 1) (3 2))", tree.toString());
+        assertEquals(0, tree.toBufferIdx(0));
+        assertEquals(1, tree.toBufferIdx(1));
+        assertEquals(3, tree.toBufferIdx(3));
+        assertEquals(4, tree.toBufferIdx(2));
+        assertEquals(5, tree.getSibling(2));
+        assertEquals(6, tree.getParent(5));
+        assertEquals(Arrays.asList(2, 3), tree.getTCQueries(5));
+
+        for (String invalid : new String[]{"((0 1) 2", "((0 1) (2 2))", "((0 1) 2)", "((0 1) (2 4))", "(0 1) 2", "(0 x)"}) {
+            try {
+                JoinTree.parse(invalid, 4);
+                fail("Parsed " + invalid);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    static TCQuery genQuery(int id, int start, int end) {
+        ArrayList<PatternEdge> edges = new ArrayList<>();
+        edges.add(new PatternEdge(id, "e" + id, new PatternNode(start, ""), new PatternNode(end, ""), true));
+        TCQuery query = new TCQuery(edges);
+        query.setId(id);
+        return query;
+    }
+
+    @Test
+    public void testBushy() {
+        // a path 0 - 1 - 2 - 3 - 4, the matches of the last 2 TC-Queries are rare
+        ArrayList<TCQuery> queries = new ArrayList<>();
+        for (int i = 0; i < 4; ++i)
+            queries.add(genQuery(i, i, i + 1));
+        double[] numMatches = {100, 100, 1, 1};
+        JoinTree tree = JoinTree.bushy(queries, numMatches, 0.1);
+        assertEquals("(0 (1 (2 3)))", tree.toString());
+
+        // the rare matches at both ends are joined with their neighbors first
+        JoinTree bushy = JoinTree.bushy(queries, new double[]{1, 100, 100, 1}, 0.1);
+        assertEquals("((0 1) (2 3))", bushy.toString());
+    }
+}
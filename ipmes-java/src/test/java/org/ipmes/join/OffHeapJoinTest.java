@@ -0,0 +1,55 @@
+package org.ipmes.join;
+
+import org.ipmes.decomposition.TCQuery;
+import org.ipmes.match.FullMatch;
+import org.ipmes.match.MatchResult;
+import org.ipmes.pattern.Pattern;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+public class OffHeapJoinTest {
+    static void assertSameAsPriorityJoin(Pattern pattern, ArrayList<TCQuery> queries, JoinTree tree, long jitter) {
+        PriorityJoin expected = new PriorityJoin(pattern.temporalRelation, pattern.patternGraph, 50, queries, tree);
+        OffHeapJoin join = new OffHeapJoin(pattern.temporalRelation, pattern.patternGraph, 50, queries, tree);
+        ArrayList<FullMatch> expectedMatches = new ArrayList<>();
+        ArrayList<FullMatch> matches = new ArrayList<>();
+        expected.setSink(expectedMatches::add);
+        join.setSink(matches::add);
+
+        // generated twice, the joins don't share the results
+        ArrayList<Integer> tcQueryIds = new ArrayList<>();
+        ArrayList<MatchResult> results = PipelinedJoinTest.genResults(pattern, queries, 5000, 11, jitter, tcQueryIds);
+        ArrayList<MatchResult> copies = PipelinedJoinTest.genResults(pattern, queries, 5000, 11, jitter,
+                new ArrayList<>());
+        for (int i = 0; i < results.size(); ++i) {
+            expected.addMatchResult(results.get(i), tcQueryIds.get(i));
+            join.addMatchResult(copies.get(i), tcQueryIds.get(i));
+            assertEquals(expected.getPoolSize(), join.getPoolSize());
+        }
+        assertFalse(expectedMatches.isEmpty());
+        assertEquals(expectedMatches, matches);
+    }
+
+    @Test
+    public void testSameAsPriorityJoin() throws Exception {
+        Pattern pattern = JoinPredicateTest.genPattern();
+        ArrayList<TCQuery> queries = PipelinedJoinTest.genQueries(pattern);
+        assertSameAsPriorityJoin(pattern, queries, JoinTree.leftDeep(queries.size()), 0);
+        // a match up to 80 ms earlier than the one before it may have left the 50 ms window
+        assertSameAsPriorityJoin(pattern, queries, JoinTree.leftDeep(queries.size()), 80);
+    }
+
+    @Test
+    public void testNoHeapBuffers() throws Exception {
+        Pattern pattern = JoinPredicateTest.genPattern();
+        ArrayList<TCQuery> queries = PipelinedJoinTest.genQueries(pattern);
+        OffHeapJoin join = new OffHeapJoin(pattern.temporalRelation, pattern.patternGraph, 50, queries);
+        assertNull(join.partialMatchResult);
+        for (HashMap<Long, ArrayList<MatchResult>> index : join.indexes)
+            assertNull(index);
+    }
+}
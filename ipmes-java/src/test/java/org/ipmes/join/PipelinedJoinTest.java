@@ -0,0 +1,144 @@
+package org.ipmes.join;
+
+import org.ipmes.decomposition.TCQGenerator;
+import org.ipmes.decomposition.TCQuery;
+import org.ipmes.match.FullMatch;
+import org.ipmes.match.MatchEdge;
+import org.ipmes.match.MatchResult;
+import org.ipmes.pattern.Pattern;
+import org.ipmes.pattern.PatternEdge;
+import org.ipmes.sink.MatchSink;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PipelinedJoinTest {
+    /**
+     * A join recording the results added to it, which fails at the given result.
+     */
+    static class RecordingJoin implements Join {
+        ArrayList<MatchResult> results = new ArrayList<>();
+        ArrayList<Integer> tcQueryIds = new ArrayList<>();
+        int failAt;
+
+        RecordingJoin(int failAt) {
+            this.failAt = failAt;
+        }
+
+        @Override
+        public void addMatchResult(MatchResult result, Integer tcQueryId) {
+            if (this.results.size() == this.failAt)
+                throw new RuntimeException("fail at " + this.failAt);
+            this.results.add(result);
+            this.tcQueryIds.add(tcQueryId);
+        }
+
+        @Override
+        public void setSink(MatchSink sink) {
+        }
+
+        @Override
+        public int getPoolSize() {
+            return 0;
+        }
+    }
+
+    /**
+     * Generate the matches of random TC-Queries roughly in order of time, with the pattern nodes
+     * bound to a few data nodes at random, so some of them join and some of them expire.
+     * @param jitter how much (ms) a match may be earlier than the one before it
+     * @param tcQueryIds filled with the TC-Query id of each match
+     */
+    static ArrayList<MatchResult> genResults(Pattern pattern, ArrayList<TCQuery> queries, int num, long seed,
+            long jitter, ArrayList<Integer> tcQueryIds) {
+        PatternEdge[] patternEdges = pattern.patternGraph.getEdges().toArray(new PatternEdge[0]);
+        Random random = new Random(seed);
+        ArrayList<MatchResult> results = new ArrayList<>();
+        for (int i = 0; i < num; ++i) {
+            TCQuery query = queries.get(random.nextInt(queries.size()));
+            long[] nodes = new long[pattern.patternGraph.numNodes()];
+            for (int j = 0; j < nodes.length; ++j)
+                nodes[j] = 10 * j + random.nextInt(2);
+            long time = i * 10L - (jitter > 0 ? random.nextInt((int) jitter + 1) : 0);
+            MatchResult result = new MatchResult(patternEdges);
+            for (PatternEdge edge : query.getEdges()) {
+                result.addMatchEdge(new MatchEdge(i * patternEdges.length + edge.getId(), time + edge.getId(),
+                        nodes[edge.getStartId()], nodes[edge.getEndId()], edge));
+            }
+            results.add(result);
+            tcQueryIds.add(query.getId());
+        }
+        return results;
+    }
+
+    static ArrayList<TCQuery> genQueries(Pattern pattern) {
+        double[] counts = {1, 1000, 1, 1};
+        return new TCQGenerator(pattern.temporalRelation, pattern.patternGraph, counts, 0.01).decompose();
+    }
+
+    static ArrayList<FullMatch> run(Join join, Pattern pattern, ArrayList<TCQuery> queries) {
+        ArrayList<FullMatch> matches = new ArrayList<>();
+        join.setSink(matches::add);
+        ArrayList<Integer> tcQueryIds = new ArrayList<>();
+        ArrayList<MatchResult> results = genResults(pattern, queries, 2000, 7, 0, tcQueryIds);
+        for (int i = 0; i < results.size(); ++i)
+            join.addMatchResult(results.get(i), tcQueryIds.get(i));
+        return matches;
+    }
+
+    @Test
+    public void testOrder() {
+        RecordingJoin recorder = new RecordingJoin(-1);
+        PipelinedJoin join = new PipelinedJoin(recorder, 4);
+        ArrayList<MatchResult> results = new ArrayList<>();
+        for (int i = 0; i < 10000; ++i) {
+            MatchResult result = new MatchResult(new PatternEdge[0]);
+            results.add(result);
+            join.addMatchResult(result, i % 3);
+        }
+        join.close();
+
+        assertEquals(results.size(), recorder.results.size());
+        for (int i = 0; i < results.size(); ++i) {
+            assertSame(results.get(i), recorder.results.get(i));
+            assertEquals(Integer.valueOf(i % 3), recorder.tcQueryIds.get(i));
+        }
+    }
+
+    @Test
+    public void testSameAsDirect() throws Exception {
+        Pattern pattern = JoinPredicateTest.genPattern();
+        ArrayList<TCQuery> queries = genQueries(pattern);
+        assertTrue(queries.size() > 1);
+
+        ArrayList<FullMatch> expected = run(new PriorityJoin(pattern.temporalRelation, pattern.patternGraph, 50,
+                queries), pattern, queries);
+        PipelinedJoin join = new PipelinedJoin(new PriorityJoin(pattern.temporalRelation, pattern.patternGraph, 50,
+                queries), 8);
+        ArrayList<FullMatch> matches = run(join, pattern, queries);
+        join.close();
+
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, matches);
+    }
+
+    @Test
+    public void testFailure() throws InterruptedException {
+        PipelinedJoin join = new PipelinedJoin(new RecordingJoin(10), 1024);
+        for (int i = 0; i <= 10; ++i)
+            join.addMatchResult(new MatchResult(new PatternEdge[0]), 0);
+        while (join.failure == null)
+            Thread.sleep(1);
+
+        // the ring is far from full, but the next result still sees the failure
+        try {
+            join.addMatchResult(new MatchResult(new PatternEdge[0]), 0);
+            fail("The failure of the join thread is lost");
+        } catch (IllegalStateException e) {
+            assertEquals("fail at 10", e.getCause().getMessage());
+        }
+    }
+}
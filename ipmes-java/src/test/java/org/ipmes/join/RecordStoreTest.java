@@ -0,0 +1,48 @@
+package org.ipmes.join;
+
+import org.ipmes.match.MatchEdge;
+import org.ipmes.match.MatchResult;
+import org.ipmes.pattern.PatternEdge;
+import org.ipmes.pattern.PatternNode;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RecordStoreTest {
+    @Test
+    public void testAppendReadExpire() {
+        PatternEdge[] edges = new PatternEdge[3];
+        for (int i = 0; i < edges.length; ++i)
+            edges[i] = new PatternEdge(i, "", new PatternNode(i, ""), new PatternNode(i + 1, ""), true);
+        long mask = (1L << 0) | (1L << 2);
+        RecordStore store = new RecordStore(mask);
+
+        int numRecords = 2 * RecordStore.RECORDS_PER_SLAB + 10;
+        for (int i = 0; i < numRecords; ++i) {
+            MatchResult res = new MatchResult(edges);
+            res.addMatchEdge(new MatchEdge(i, i, 2 * i, 2 * i + 1, edges[0]));
+            res.addMatchEdge(new MatchEdge(i + 1000000, i + 1, 7, 8, edges[2]));
+            assertEquals(i, store.append(res));
+        }
+        assertEquals(numRecords, store.size());
+
+        MatchResult view = new MatchResult(edges);
+        store.read(5, view);
+        assertEquals(mask, view.getPatternEdgeMask());
+        assertEquals(5, view.getDataId(0));
+        assertEquals(11, view.getEndId(0));
+        assertEquals(1000005, view.getDataId(2));
+        assertEquals(5, view.getEarliestTime());
+        assertEquals(6, view.getLatestTime());
+
+        int before = RecordStore.RECORDS_PER_SLAB + 3;
+        assertEquals(before, store.expire(before));
+        assertEquals(numRecords - before, store.size());
+        assertFalse(store.isLive(0));
+        assertFalse(store.isLive(before - 1));
+        assertTrue(store.isLive(before));
+        // the first slab is freed, the second one still has live records
+        assertEquals(RecordStore.RECORDS_PER_SLAB, store.begin());
+        assertEquals(numRecords, store.end());
+    }
+}
@@ -0,0 +1,91 @@
+package org.ipmes.match;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+public class BucketWindowTest {
+    static ArrayList<Long> collect(BucketWindow<Long> window) {
+        ArrayList<Long> items = new ArrayList<>();
+        for (Long item : window)
+            items.add(item);
+        return items;
+    }
+
+    @Test
+    public void testExpire() {
+        BucketWindow<Long> window = new BucketWindow<>(10);
+        for (long t = 0; t < 50; t += 3)
+            window.add(t, t);
+        assertEquals(17, window.size());
+
+        ArrayList<Long> dropped = new ArrayList<>();
+        // bucket [0, 10) is dropped, 12 in bucket [10, 20) is expired but still held
+        assertEquals(4, window.expire(15, dropped::add));
+        assertEquals(4, dropped.size());
+        assertEquals(13, window.size());
+        assertEquals(Long.valueOf(15), collect(window).get(0));
+        assertFalse(window.add(14, 14L));
+        assertFalse(window.isLive(14));
+        assertTrue(window.isLive(15));
+
+        // the bound never moves backward
+        assertEquals(0, window.expire(5));
+        assertEquals(13, window.expire(100));
+        assertTrue(window.isEmpty());
+        assertTrue(collect(window).isEmpty());
+    }
+
+    @Test
+    public void testGrowAndOutOfOrder() {
+        BucketWindow<Long> window = new BucketWindow<>(1);
+        window.add(500, 500L);
+        window.add(0, 0L);
+        window.add(1000, 1000L);
+        window.add(250, 250L);
+        ArrayList<Long> items = collect(window);
+        assertEquals(4, items.size());
+        assertEquals(Long.valueOf(0), items.get(0));
+        assertEquals(Long.valueOf(250), items.get(1));
+        assertEquals(Long.valueOf(500), items.get(2));
+        assertEquals(Long.valueOf(1000), items.get(3));
+
+        assertEquals(2, window.expire(251));
+        assertEquals(2, window.size());
+    }
+
+    static int numAllocated(BucketWindow<Long> window) {
+        int count = 0;
+        for (Object bucket : window.ring) {
+            if (bucket != null)
+                ++count;
+        }
+        return count;
+    }
+
+    @Test
+    public void testGap() {
+        long windowSize = 30000;
+        BucketWindow<Long> window = new BucketWindow<>(BucketWindow.granularityOf(windowSize));
+        int initLength = window.ring.length;
+        window.add(0, 0L);
+        assertEquals(1, numAllocated(window));
+
+        // an idle gap of many windows, expired up to the new time before adding as the owners do
+        long later = 30L * 24 * 3600 * 1000;
+        assertEquals(1, window.expire(later - windowSize));
+        assertTrue(window.add(later, later));
+        assertEquals(initLength, window.ring.length);
+        assertEquals(1, window.size());
+
+        // without the expiry the ring grows over the gap, and shrinks back once it is expired
+        window.add(later + 1000 * windowSize, 1L);
+        assertTrue(window.ring.length >= 64000);
+        assertEquals(2, numAllocated(window));
+        assertEquals(1, window.expire(later + 1000 * windowSize - windowSize));
+        assertEquals(initLength, window.ring.length);
+        assertEquals(Long.valueOf(1), collect(window).get(0));
+    }
+}
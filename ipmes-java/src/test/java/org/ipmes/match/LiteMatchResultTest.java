@@ -0,0 +1,53 @@
+package org.ipmes.match;
+
+import org.ipmes.pattern.PatternEdge;
+import org.ipmes.pattern.PatternNode;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LiteMatchResultTest {
+    static PatternEdge genEdge(int id, int start, int end) {
+        return new PatternEdge(id, "", new PatternNode(start, ""), new PatternNode(end, ""), true);
+    }
+
+    @Test
+    public void testExtendSharesPrefix() {
+        PatternEdge p0 = genEdge(0, 0, 1);
+        PatternEdge p1 = genEdge(1, 1, 2);
+        LiteMatchResult empty = new LiteMatchResult();
+        LiteMatchResult prefix = empty.cloneAndAdd(new MatchEdge(10, 5, 100, 101, p0));
+        LiteMatchResult a = prefix.cloneAndAdd(new MatchEdge(11, 3, 101, 102, p1));
+        LiteMatchResult b = prefix.cloneAndAdd(new MatchEdge(12, 7, 101, 103, p1));
+
+        assertEquals(0, empty.size());
+        assertEquals(1, prefix.size());
+        assertEquals(2, a.size());
+        assertEquals(5, prefix.getEarliestTime());
+        assertEquals(3, a.getEarliestTime());
+        assertEquals(5, b.getEarliestTime());
+        assertEquals(102, a.getNodeId(2));
+        assertEquals(103, b.getNodeId(2));
+        assertEquals(-1, prefix.getNodeId(2));
+        assertTrue(a.contains(new MatchEdge(10, 0, 0, 0, p0)));
+        assertFalse(prefix.contains(new MatchEdge(11, 0, 0, 0, p1)));
+
+        MatchResult result = a.toMatchResult(new PatternEdge[] {p0, p1});
+        assertEquals(2, result.size());
+        assertEquals(10, result.get(0).getDataId());
+        assertEquals(11, result.get(1).getDataId());
+    }
+
+    @Test
+    public void testNodeConstraints() {
+        PatternEdge p0 = genEdge(0, 0, 1);
+        PatternEdge p1 = genEdge(1, 1, 2);
+        LiteMatchResult prefix = new LiteMatchResult().cloneAndAdd(new MatchEdge(10, 5, 100, 101, p0));
+
+        assertFalse(prefix.hasNodeConflict(new MatchEdge(11, 6, 101, 102, p1)));
+        assertTrue(prefix.hasNodeConflict(new MatchEdge(11, 6, 105, 102, p1)));
+
+        assertTrue(prefix.cloneAndAdd(new MatchEdge(11, 6, 101, 102, p1)).checkNodeUniqueness());
+        assertFalse(prefix.cloneAndAdd(new MatchEdge(11, 6, 101, 100, p1)).checkNodeUniqueness());
+    }
+}
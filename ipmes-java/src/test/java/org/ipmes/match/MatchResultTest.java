@@ -0,0 +1,61 @@
+package org.ipmes.match;
+
+import org.ipmes.pattern.PatternEdge;
+import org.ipmes.pattern.PatternNode;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MatchResultTest {
+    static PatternEdge[] genEdges(int numEdges) {
+        PatternEdge[] edges = new PatternEdge[numEdges];
+        for (int i = 0; i < numEdges; ++i)
+            edges[i] = new PatternEdge(i, "", new PatternNode(i, ""), new PatternNode(i + 1, ""), true);
+        return edges;
+    }
+
+    @Test
+    public void testMerge() {
+        PatternEdge[] edges = genEdges(64);
+        MatchResult a = new MatchResult(edges);
+        a.addMatchEdge(new MatchEdge(30, 3, 100, 101, edges[63]));
+        a.addMatchEdge(new MatchEdge(10, 1, 102, 103, edges[1]));
+        MatchResult b = new MatchResult(edges);
+        b.addMatchEdge(new MatchEdge(20, 2, 104, 105, edges[5]));
+
+        MatchResult merged = a.merge(b);
+        assertEquals(3, merged.size());
+        assertFalse(a.hasShareEdge(b));
+        assertTrue(merged.hasShareEdge(b));
+        assertTrue(merged.containsPattern(63));
+        assertFalse(merged.containsPattern(0));
+        assertEquals(10, merged.getDataId(1));
+        assertEquals(2, merged.getTimestamp(5));
+        assertEquals(100, merged.getStartId(63));
+        assertEquals(105, merged.getEndId(5));
+        assertEquals(1, merged.getEarliestTime());
+        assertEquals(3, merged.getLatestTime());
+
+        MatchResult same = new MatchResult(edges);
+        same.addMatchEdge(new MatchEdge(20, 2, 104, 105, edges[5]));
+        same.addMatchEdge(new MatchEdge(10, 1, 102, 103, edges[1]));
+        same.addMatchEdge(new MatchEdge(30, 3, 100, 101, edges[63]));
+        assertEquals(same, merged);
+        assertEquals(same.hashCode(), merged.hashCode());
+    }
+
+    @Test
+    public void testToFullMatch() {
+        PatternEdge[] edges = genEdges(3);
+        MatchResult res = new MatchResult(edges);
+        res.addMatchEdge(new MatchEdge(12, 5, 2, 3, edges[2]));
+        res.addMatchEdge(new MatchEdge(10, 4, 0, 1, edges[0]));
+        res.addMatchEdge(new MatchEdge(11, 6, 1, 2, edges[1]));
+        assertTrue(res.checkNodeUniqueness());
+
+        FullMatch full = res.toFullMatch();
+        assertArrayEquals(new long[] {10, 11, 12}, full.getMatchData());
+        assertEquals(4, full.getStartTime());
+        assertEquals(6, full.getEndTime());
+    }
+}
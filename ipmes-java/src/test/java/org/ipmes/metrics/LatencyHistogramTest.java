@@ -0,0 +1,43 @@
+package org.ipmes.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+    @Test
+    public void testBuckets() {
+        for (long value : new long[] {0, 1, 15, 16, 17, 31, 32, 1000, 123456789, Long.MAX_VALUE}) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(bucket < LatencyHistogram.NUM_BUCKETS);
+            long highest = LatencyHistogram.highestValueOf(bucket);
+            assertTrue(highest >= value);
+            // the relative error is bounded by the sub-buckets
+            assertTrue(highest - value <= value / LatencyHistogram.SUB_BUCKETS);
+            if (bucket > 0)
+                assertTrue(LatencyHistogram.highestValueOf(bucket - 1) < value);
+        }
+        assertEquals(0, LatencyHistogram.bucketOf(-5));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 1000; ++i)
+            histogram.record(i * 1000);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(500_000, snapshot.getValueAtPercentile(50), 500_000 / 16);
+        assertEquals(990_000, snapshot.getValueAtPercentile(99), 990_000 / 16);
+        assertEquals(1_000_000, snapshot.getMax(), 1_000_000 / 16);
+
+        // a snapshot only covers the values recorded after the previous one
+        histogram.record(7);
+        snapshot = histogram.snapshot();
+        assertEquals(1, snapshot.getCount());
+        assertEquals(7, snapshot.getMax());
+        snapshot = histogram.snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getValueAtPercentile(99));
+    }
+}
@@ -0,0 +1,37 @@
+package org.ipmes.metrics;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class MetricsRegistryTest {
+    @Test
+    public void testSnapshot() {
+        MetricsRegistry registry = new MetricsRegistry();
+        assertSame(registry.counter("Events"), registry.counter("Events"));
+        AtomicLong pool = new AtomicLong(3);
+        registry.gauge("Pool", pool::get);
+        registry.histogram("SendAll").record(2000);
+
+        long start = registry.previousTime;
+        registry.counter("Events").add(500);
+        JSONObject snapshot = registry.snapshot(start + 1000);
+        assertEquals(500, snapshot.getJSONObject("Counters").getJSONObject("Events").getLong("Total"));
+        assertEquals(500, snapshot.getJSONObject("Counters").getJSONObject("Events").getLong("PerSec"));
+        assertEquals(3, snapshot.getJSONObject("Gauges").getLong("Pool"));
+        assertEquals(1, snapshot.getJSONObject("LatencyMicros").getJSONObject("SendAll").getLong("Count"));
+        assertEquals(2.0, snapshot.getJSONObject("LatencyMicros").getJSONObject("SendAll").getDouble("Max"), 0.2);
+
+        // the rates cover the time since the previous snapshot
+        registry.counter("Events").add(100);
+        pool.set(5);
+        snapshot = registry.snapshot(start + 3000);
+        assertEquals(600, snapshot.getJSONObject("Counters").getJSONObject("Events").getLong("Total"));
+        assertEquals(50, snapshot.getJSONObject("Counters").getJSONObject("Events").getLong("PerSec"));
+        assertEquals(5, snapshot.getJSONObject("Gauges").getLong("Pool"));
+        assertEquals(0, snapshot.getJSONObject("LatencyMicros").getJSONObject("SendAll").getLong("Count"));
+    }
+}
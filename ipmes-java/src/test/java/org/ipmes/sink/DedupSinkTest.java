@@ -0,0 +1,42 @@
+package org.ipmes.sink;
+
+import org.ipmes.match.FullMatch;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DedupSinkTest {
+    static FullMatch genMatch(long endTime, long... dataIds) {
+        FullMatch match = new FullMatch(dataIds.length);
+        for (int i = 0; i < dataIds.length; ++i)
+            match.set(i, dataIds[i], endTime - i);
+        return match;
+    }
+
+    @Test
+    public void testDropDuplicates() {
+        CollectSink collect = new CollectSink();
+        DedupSink dedup = new DedupSink(collect, 100);
+        dedup.accept(genMatch(10, 1, 2));
+        dedup.accept(genMatch(10, 1, 2));
+        dedup.accept(genMatch(10, 2, 1));
+        dedup.accept(genMatch(20, 1, 2));
+        List<FullMatch> matches = collect.getMatches();
+        assertEquals(2, matches.size());
+        assertEquals(genMatch(10, 1, 2), matches.get(0));
+        assertEquals(genMatch(10, 2, 1), matches.get(1));
+    }
+
+    @Test
+    public void testForgetOutOfWindow() {
+        CollectSink collect = new CollectSink();
+        DedupSink dedup = new DedupSink(collect, 64);
+        for (long t = 0; t < 1000; ++t)
+            dedup.accept(genMatch(t, t, t + 1));
+        assertEquals(1000, collect.getMatches().size());
+        // only the matches in about a window are remembered
+        assertTrue(dedup.size() <= 64 + 1);
+    }
+}
@@ -0,0 +1,39 @@
+package org.ipmes.sink;
+
+import org.ipmes.match.FullMatch;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RotatingFileSinkTest {
+    @Test
+    public void testRotate() throws Exception {
+        Path dir = Files.createTempDirectory("ipmes-sink");
+        String path = dir.resolve("matches.ndjson").toString();
+        FullMatch match = new FullMatch(2);
+        match.set(0, 100, 1);
+        match.set(1, 101, 2);
+        int lineBytes = NdjsonSink.toJSON(match).toString().length() + 1;
+
+        // 3 lines in a file, keep 2 rotated files
+        try (RotatingFileSink sink = new RotatingFileSink(path, 3 * lineBytes, 2)) {
+            for (int i = 0; i < 10; ++i)
+                sink.accept(match);
+        }
+        List<String> lines = Files.readAllLines(dir.resolve("matches.ndjson"));
+        assertEquals(1, lines.size());
+        assertEquals(NdjsonSink.toJSON(match).toString(), lines.get(0));
+        assertEquals(3, Files.readAllLines(dir.resolve("matches.ndjson.1")).size());
+        assertEquals(3, Files.readAllLines(dir.resolve("matches.ndjson.2")).size());
+        assertFalse(Files.exists(dir.resolve("matches.ndjson.3")));
+
+        for (File file : dir.toFile().listFiles())
+            file.delete();
+        dir.toFile().delete();
+    }
+}
@@ -0,0 +1,50 @@
+package org.ipmes.sink;
+
+import org.ipmes.match.FullMatch;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class WindowedMatchSetTest {
+    static FullMatch genMatch(long endTime, long... dataIds) {
+        FullMatch match = new FullMatch(dataIds.length);
+        for (int i = 0; i < dataIds.length; ++i)
+            match.set(i, dataIds[i], endTime);
+        return match;
+    }
+
+    @Test
+    public void testGrowAndRebuild() {
+        WindowedMatchSet set = new WindowedMatchSet();
+        Random rand = new Random(7);
+        long[][] data = new long[5000][];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = new long[] {rand.nextInt(100), rand.nextInt(100), i};
+            assertTrue(set.add(genMatch(i, data[i])));
+        }
+        for (int i = 0; i < data.length; ++i)
+            assertFalse(set.add(genMatch(i, data[i])));
+        assertEquals(data.length, set.size());
+
+        // the expired matches are forgotten, the others are still found
+        set.expire(4000);
+        assertEquals(1000, set.size());
+        assertTrue(set.add(genMatch(4000, data[10])));
+        assertFalse(set.add(genMatch(4500, data[4500])));
+    }
+
+    @Test
+    public void testSlidingWindow() {
+        WindowedMatchSet set = new WindowedMatchSet();
+        for (long t = 0; t < 100000; ++t) {
+            set.expire(t - 100);
+            assertTrue(set.add(genMatch(t, t % 1000, t)));
+            assertFalse(set.add(genMatch(t, t % 1000, t)));
+        }
+        assertEquals(101, set.size());
+        // the table is rebuilt instead of growing with the expired slots
+        assertTrue(set.table.length <= 1024);
+    }
+}
@@ -0,0 +1,79 @@
+#!/usr/bin/env python
+import subprocess
+import os
+import re
+import json
+import argparse
+import sys
+from run import run, remove_suffix
+
+def read_match_ids(path: str) -> set:
+    with open(path) as f:
+        return {tuple(json.loads(line)['MatchIDs']) for line in f if line.strip()}
+
+if __name__ == '__main__':
+    parser = argparse.ArgumentParser(
+                    formatter_class=argparse.ArgumentDefaultsHelpFormatter,
+                    description='Generate synthetic data graphs with injected pattern instances, '
+                                'run IPMES on them and check that every instance is found')
+    parser.add_argument('-p', '--pattern-dir',
+                    default='../data/universal_patterns/',
+                    type=str,
+                    help='the folder of patterns')
+    parser.add_argument('-f', '--pattern-filter',
+                    default='^DP[0-9]+_regex\\.json$',
+                    type=str,
+                    help='the regex of the pattern file names to run')
+    parser.add_argument('-o', '--out-dir',
+                    default='../results/synthetic/',
+                    type=str,
+                    help='the output folder, the generated graphs are also written here')
+    parser.add_argument('-w', '--window-size',
+                    default=1000,
+                    type=int,
+                    help='the window size (sec)')
+    parser.add_argument('-g', '--generate-args',
+                    default='--events 10000000 --rate 10000 --nodes 100000 --instances 100 --instance-span 60000',
+                    type=str,
+                    help='the arguments passed to the generate subcommand')
+    parser.add_argument('-r', '--re-run',
+                    default=1,
+                    type=int,
+                    help='number of re-runs, cpu-time and memory usage will be the mean of re-runs')
+    parser.add_argument('-M', '--mem-limit',
+                        default=100,
+                        type=int,
+                        help='set the memory limit of JVM in GB')
+    args = parser.parse_args()
+
+    subprocess.run(['mvn', 'compile'], check=True)
+    os.makedirs(args.out_dir, exist_ok=True)
+    os.environ['MAVEN_OPTS'] = f'-Xmx{args.mem_limit}G'
+
+    pattern_filter = re.compile(args.pattern_filter)
+    patterns = sorted(f for f in os.listdir(args.pattern_dir) if pattern_filter.match(f))
+    all_found = True
+    for pattern_file in patterns:
+        pattern_name = remove_suffix(pattern_file, '.json')
+        pattern_path = os.path.join(args.pattern_dir, pattern_file)
+        graph_path = os.path.join(args.out_dir, f'{pattern_name}.bin')
+        truth_path = os.path.join(args.out_dir, f'{pattern_name}_truth.ndjson')
+        result_path = os.path.join(args.out_dir, f'{pattern_name}_results.ndjson')
+
+        generate_args = f'generate {graph_path} -p {pattern_path} --truth {truth_path} {args.generate_args}'
+        subprocess.run(['mvn', '-q', 'exec:java', f'-Dexec.args={generate_args}'], check=True)
+
+        # the results are appended to the file, so don't count the results of a previous run
+        if os.path.exists(result_path):
+            os.remove(result_path)
+        num_result, cpu_time, mem_usage = run(pattern_path, graph_path, args.window_size,
+                                              options=f'--stream -o {result_path}', re_run=args.re_run)
+        truth = read_match_ids(truth_path)
+        found = len(truth & read_match_ids(result_path))
+        print(f'{pattern_name}: {found}/{len(truth)} instances found, {num_result} results, '
+              f'CPU time {cpu_time:.2f} sec, memory {mem_usage:.2f} MB')
+        all_found = all_found and found == len(truth)
+
+    if not all_found:
+        print('Error: some injected instances are not found', file=sys.stderr)
+        sys.exit(1)